@@ -0,0 +1,185 @@
+package org.cloudbus.mcweb.rules;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.assertj.core.util.Preconditions;
+import org.cloudbus.mcweb.DataCentre;
+import org.cloudbus.mcweb.User;
+import org.cloudbus.mcweb.rules.relations.JurisdictionClosure;
+
+/**
+ * A plain Java implementation of the admission control rules of Layer 3,
+ * without a rule engine. The jurisdictions are still derived by the rules of
+ * Layers 1 and 2 (see {@link RuleEngine#getJurisdictions()}), and are
+ * compiled into:
+ * <ul>
+ * <li>a bit set of the (indices of the) EU jurisdictions, against which the
+ * users' citizenships are checked;</li>
+ * <li>the facts of the data centre (e.g. if it is in the USA), which are
+ * computed once per query.</li>
+ * </ul>
+ *
+ * Each user is then checked with a few hash lookups and bit tests. The
+ * decisions and their descriptions are the same as the ones of
+ * {@link RuleEngine}, which remains the reference implementation - any change
+ * of Layer 3 must be reflected here.
+ *
+ * <br>
+ * <br>
+ *
+ * Instances are immutable and thread safe.
+ *
+ * @author nikolay.grozev
+ *
+ */
+public final class CompiledRules {
+
+    private static final String PCI_DSS_TAG = "PCI-DSS";
+    private static final String US_GOV_TAG = "US-GOV";
+
+    private final JurisdictionClosure jurisdictions;
+    /** The indices of the jurisdictions, contained in the EU. */
+    private final BitSet euJurisdictions;
+
+    private CompiledRules(final JurisdictionClosure jurisdictions) {
+        this.jurisdictions = jurisdictions;
+        this.euJurisdictions = jurisdictions.getContained("EU");
+    }
+
+    /**
+     * Compiles the rules, with the jurisdictions, derived by the rule engine.
+     * @return the compiled rules.
+     */
+    public static CompiledRules compile() {
+        return compile(RuleEngine.getJurisdictions());
+    }
+
+    /**
+     * Compiles the rules with the specified jurisdictions.
+     * @param jurisdictions - the jurisdictions. Must not be null.
+     * @return the compiled rules.
+     */
+    public static CompiledRules compile(final JurisdictionClosure jurisdictions) {
+        Preconditions.checkNotNull(jurisdictions);
+        return new CompiledRules(jurisdictions);
+    }
+
+    /**
+     * Determines the admission denials - i.e. which users will be denied access.
+     * @param dc - the data centre. Must not be null.
+     * @param users - the users. Must not be null. Must not be empty.
+     * @return the admission denials.
+     */
+    public Collection<AdmissionDenied> computeAdmissionDenials(final DataCentre dc, final User ... users) {
+        Preconditions.checkNotNull(dc);
+        Preconditions.checkNotNullOrEmpty(users);
+        DataCentreFacts dcFacts = new DataCentreFacts(dc);
+        List<AdmissionDenied> result = new ArrayList<>();
+        for (User user : users) {
+            addAdmissionDenials(user, dcFacts, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns which users (identified by their ids) will be accepted in the specified data centre.
+     * @param dc - the data centre. Must not be null.
+     * @param users - the users. Must not be null. Must not be empty.
+     * @return the id of the users. which are *not* eligible for this data centre.
+     */
+    public Set<String> determineUsersApplicability(final DataCentre dc, final User ... users) {
+        return computeAdmissionDenials(dc, users).stream().map(ad -> ad.getUserId()).collect(Collectors.toSet());
+    }
+
+    /**
+     * Returns if the user is eligible in the data centre.
+     * @param dc - the data centre. Must not be null.
+     * @param user - the user. Must not be null.
+     * @return if the user is eligible in the data centre.
+     */
+    public boolean isEligible(final DataCentre dc, final User user) {
+        Preconditions.checkNotNull(dc);
+        Preconditions.checkNotNull(user);
+        return isEligible(user, new DataCentreFacts(dc));
+    }
+
+    /**
+     * Returns the eligibility of each user in the data centre.
+     * @param dc - the data centre. Must not be null.
+     * @param users - the users. Must not be null. Elements must not be null.
+     * @return if each user is eligible in the data centre, in the order of the users.
+     */
+    public boolean[] areEligible(final DataCentre dc, final List<User> users) {
+        Preconditions.checkNotNull(dc);
+        Preconditions.checkNotNull(users);
+        DataCentreFacts dcFacts = new DataCentreFacts(dc);
+        boolean[] eligible = new boolean[users.size()];
+        for (int i = 0; i < eligible.length; i++) {
+            eligible[i] = isEligible(users.get(i), dcFacts);
+        }
+        return eligible;
+    }
+
+    private boolean isEligible(final User user, final DataCentreFacts dcFacts) {
+        return !(deniedAsEUCitizen(user, dcFacts) || deniedAsUSGovOfficial(user, dcFacts) || deniedForPCIDSS(user, dcFacts));
+    }
+
+    private void addAdmissionDenials(final User user, final DataCentreFacts dcFacts, final List<AdmissionDenied> result) {
+        String id = user.getUserId();
+        if (deniedAsEUCitizen(user, dcFacts)) {
+            result.add(new AdmissionDenied(id, String.format("Admission denied to \"%s\", Datacentre is in \"%s\", which is not a valid EU location", id, dcFacts.locationCode)));
+        }
+        if (deniedAsUSGovOfficial(user, dcFacts)) {
+            result.add(new AdmissionDenied(id, String.format("Admission denied to \"%s\", Datacentre is in \"%s\", which is not in the USA", id, dcFacts.locationCode)));
+        }
+        if (deniedForPCIDSS(user, dcFacts)) {
+            result.add(new AdmissionDenied(id, String.format("Admission denied to \"%s\", Datacentre is not PCI-DSS compliant", id)));
+        }
+    }
+
+    /** Rule "EU citizens in EU-Adequate countries". */
+    private boolean deniedAsEUCitizen(final User user, final DataCentreFacts dcFacts) {
+        if (dcFacts.euAdequate) {
+            return false;
+        }
+        for (String citizenship : user.getCitizenships()) {
+            int idx = jurisdictions.indexOf(citizenship);
+            if (idx >= 0 && euJurisdictions.get(idx)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Rule "US governnment officials in US only". */
+    private static boolean deniedAsUSGovOfficial(final User user, final DataCentreFacts dcFacts) {
+        return !dcFacts.inUSA && user.getTags().contains(US_GOV_TAG);
+    }
+
+    /** Rule "Users with credit cards in PCI DSS compliant DCs". */
+    private static boolean deniedForPCIDSS(final User user, final DataCentreFacts dcFacts) {
+        return !dcFacts.pciDss && user.getTags().contains(PCI_DSS_TAG);
+    }
+
+    /**
+     * The facts about a data centre, which the rules check.
+     */
+    private final class DataCentreFacts {
+        final String locationCode;
+        final boolean euAdequate;
+        final boolean inUSA;
+        final boolean pciDss;
+
+        DataCentreFacts(final DataCentre dc) {
+            this.locationCode = dc.getLocationCode();
+            this.euAdequate = jurisdictions.contains("EU-Adequate", locationCode);
+            this.inUSA = jurisdictions.contains("USA", locationCode);
+            this.pciDss = dc.getTags().contains(PCI_DSS_TAG);
+        }
+    }
+}
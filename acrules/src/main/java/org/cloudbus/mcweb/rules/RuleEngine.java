@@ -8,8 +8,13 @@ import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -17,6 +22,8 @@ import java.util.stream.Collectors;
 import org.assertj.core.util.Preconditions;
 import org.cloudbus.mcweb.DataCentre;
 import org.cloudbus.mcweb.User;
+import org.cloudbus.mcweb.rules.relations.ContainsJurisdiction;
+import org.cloudbus.mcweb.rules.relations.JurisdictionClosure;
 import org.drools.compiler.compiler.DroolsError;
 import org.drools.compiler.compiler.DroolsParserException;
 import org.drools.compiler.compiler.PackageBuilder;
@@ -35,6 +42,26 @@ import org.drools.core.event.WorkingMemoryEventListener;
  * A utility class wrapping the logic of the rule engine.
  * Allows clients to query which users are eligible to get a service within a given data centre.
  * 
+ * <br>
+ * <br>
+ * 
+ * The rules are compiled once into a rule base, shared by a pool of stateful
+ * sessions. Every query borrows a session for its exclusive use, so concurrent
+ * queries do not wait for each other. A new session is created only if all
+ * existing ones are in use, up to {@link #MAX_SESSIONS} sessions. Further
+ * concurrent queries wait for a session to be released, as more sessions than
+ * cores would only compete for the CPU, while taking up memory.
+ * 
+ * <br>
+ * <br>
+ * 
+ * The rules, which do not depend on the users (i.e. the jurisdiction
+ * memberships of Layer 2 and their closure by Layer 1), are fired only once,
+ * when the rules are compiled. The derived relations are indexed in a
+ * {@link JurisdictionClosure}, which the user rules of Layer 3 access as the
+ * global "{@value #JURISDICTIONS_GLOBAL}". Thus, the sessions contain only the
+ * facts of the queries.
+ * 
  * @author nikolay.grozev
  *
  */
@@ -42,8 +69,16 @@ public class RuleEngine {
     
     private static Logger LOG = Logger.getLogger(RuleEngine.class.getCanonicalName());
     
-    private static WorkingMemory workingMemory;
+    /** The compiled rules and the idle sessions. Null, before the first query or after disposal. */
+    private static SessionPool sessionPool;
+    /** The relations, derived by Layers 1 and 2. Null, before the first query or after disposal. */
+    private static JurisdictionClosure jurisdictions;
     private static final ObjectFilter ADMISSION_DENIED_FILTER = o -> o instanceof AdmissionDenied;
+    private static final ObjectFilter CONTAINS_JURISDICTION_FILTER = o -> o instanceof ContainsJurisdiction;
+    /** The name of the global with the {@link JurisdictionClosure}, used by the rules of Layer 3. */
+    public static final String JURISDICTIONS_GLOBAL = "jurisdictions";
+    /** The max number of sessions - one per core. */
+    public static final int MAX_SESSIONS = Runtime.getRuntime().availableProcessors();
     
     /**
      * Runs the admission control rules, and determines the admission denials - i.e. which users will be denied access. 
@@ -52,24 +87,59 @@ public class RuleEngine {
      * @return the admission denials.
      */
     @SuppressWarnings({ "unchecked", "rawtypes" })
-    public synchronized static Collection<AdmissionDenied> computeAdmissionDenials(final DataCentre dc, final User ... users){
+    public static Collection<AdmissionDenied> computeAdmissionDenials(final DataCentre dc, final User ... users){
         Preconditions.checkNotNull(dc);
         Preconditions.checkNotNullOrEmpty(users);
-        if(workingMemory == null) {
-            RuleBase ruleBase;
+        List<Object> params = new ArrayList<>(Arrays.asList(users));
+        params.add(dc);
+
+        SessionPool pool = sessionPool();
+        WorkingMemory workingMemory = pool.borrow();
+        List<Object> result;
+        try {
+            result = fireAllRulesAndRevert(workingMemory, ADMISSION_DENIED_FILTER, params.toArray());
+        } catch (RuntimeException e) {
+            // The session may be in an inconsistent state - do not reuse it
+            pool.discard(workingMemory);
+            throw e;
+        }
+        pool.release(workingMemory);
+        return (List) result;
+    }
+
+    /**
+     * Returns the session pool, compiling the rules if needed.
+     */
+    private static synchronized SessionPool sessionPool() {
+        if(sessionPool == null) {
             try {
-                ruleBase = createRuleBase(RuleEngine.class.getResourceAsStream("/org/cloudbus/mcweb/rules/RulesLayer1.drl"),
-                        RuleEngine.class.getResourceAsStream("/org/cloudbus/mcweb/rules/RulesLayer2.drl"),
-                        RuleEngine.class.getResourceAsStream("/org/cloudbus/mcweb/rules/RulesLayer3.drl"));
-                workingMemory = initializeStatefulWorkingMemory(ruleBase);
+                RuleBase ruleBase = createRuleBase(RuleEngine.class.getResourceAsStream("/org/cloudbus/mcweb/rules/RulesLayer3.drl"));
+                sessionPool = new SessionPool(ruleBase, getJurisdictions());
             } catch (DroolsParserException | IOException e) {
                 LOG.log(Level.SEVERE, "Could not instantiate the rule base", e);
                 throw new IllegalStateException(e);
             }
         }
-        List<Object> params = new ArrayList<>(Arrays.asList(users));
-        params.add(dc);
-        return (List)fireAllRulesAndRevert(workingMemory, ADMISSION_DENIED_FILTER, params.toArray());
+        return sessionPool;
+    }
+
+    /**
+     * Returns the jurisdiction relations, derived by the rules of Layers 1 and 2. 
+     * Fires these rules if needed.
+     * @return the jurisdiction relations, derived by the rules of Layers 1 and 2.
+     */
+    public static synchronized JurisdictionClosure getJurisdictions() {
+        if(jurisdictions == null) {
+            try {
+                jurisdictions = deriveJurisdictions(createRuleBase(
+                        RuleEngine.class.getResourceAsStream("/org/cloudbus/mcweb/rules/RulesLayer1.drl"),
+                        RuleEngine.class.getResourceAsStream("/org/cloudbus/mcweb/rules/RulesLayer2.drl")));
+            } catch (DroolsParserException | IOException e) {
+                LOG.log(Level.SEVERE, "Could not derive the jurisdictions", e);
+                throw new IllegalStateException(e);
+            }
+        }
+        return jurisdictions;
     }
 
     /**
@@ -83,15 +153,25 @@ public class RuleEngine {
         return denials.stream().map(ad -> ad.getUserId()).collect(Collectors.toSet());
     }
 
+    /**
+     * Returns how many sessions have been created since the rules were
+     * compiled, including the discarded ones. For testing.
+     */
+    static synchronized int getCreatedSessions() {
+        return sessionPool == null ? 0 : sessionPool.createdSessions.get();
+    }
+
     /**
      * Disposes the allocated resources (rules, facts etc.). 
      * Subsequent method calls will start allocating the resources again.
+     * The sessions, used by queries in progress, are disposed once they complete.
      */
     public static synchronized void dispose() {
-        if(workingMemory != null) {
-            workingMemory.dispose();
-            workingMemory = null;
+        if(sessionPool != null) {
+            sessionPool.dispose();
+            sessionPool = null;
         }
+        jurisdictions = null;
     }
     
     /**
@@ -140,14 +220,14 @@ public class RuleEngine {
         try{
             // Add all facts and run the rule engine
             for (Object fact : facts) {
-                LOG.info("Adding fact " + fact.toString() + " to the rule set.");
+                LOG.log(Level.FINE, "Adding fact {0} to the rule set.", fact);
                 handlesToRemove.add(workingMemory.insert(fact));
             }
             
             // Add the listener and run all rules
             workingMemory.addEventListener(wmListener);
             int rulesFired = workingMemory.fireAllRules();
-            LOG.info("Fired " + rulesFired + " rules.");
+            LOG.log(Level.FINE, "Fired {0} rules.", rulesFired);
         } finally {
             // Dispose of the listener
             workingMemory.removeEventListener(wmListener);
@@ -177,14 +257,91 @@ public class RuleEngine {
         return ruleBase;
     }
 
-    private static WorkingMemory initializeStatefulWorkingMemory(RuleBase ruleBase, Object ... objs) {
+    /**
+     * Fires the jurisdiction rules (Layers 1 and 2) in a temporary session and indexes the derived relations.
+     */
+    private static JurisdictionClosure deriveJurisdictions(RuleBase jurisdictionsRuleBase) {
+        WorkingMemory workingMemory = jurisdictionsRuleBase.newStatefulSession();
+        try {
+            int rulesFired = workingMemory.fireAllRules();
+            List<ContainsJurisdiction> relations = new ArrayList<>();
+            for (Iterator<?> it = workingMemory.iterateObjects(CONTAINS_JURISDICTION_FILTER); it.hasNext();) {
+                relations.add((ContainsJurisdiction) it.next());
+            }
+            JurisdictionClosure jurisdictions = JurisdictionClosure.of(relations);
+            LOG.log(Level.FINE, "Derived {0} with {1} rules fired.", new Object[] { jurisdictions, rulesFired });
+            return jurisdictions;
+        } finally {
+            workingMemory.dispose();
+        }
+    }
+
+    private static WorkingMemory initializeStatefulWorkingMemory(RuleBase ruleBase, JurisdictionClosure jurisdictions) {
         WorkingMemory workingMemory = ruleBase.newStatefulSession();
+        workingMemory.setGlobal(JURISDICTIONS_GLOBAL, jurisdictions);
+        return workingMemory;
+    }
+
+    /**
+     * Stateful sessions of the same rule base, each used by one query at a time.
+     */
+    private static final class SessionPool {
+        private final RuleBase ruleBase;
+        private final JurisdictionClosure jurisdictions;
+        /** Most recently used first, so that the fewest sessions are kept warm. */
+        private final Deque<WorkingMemory> idleSessions = new ConcurrentLinkedDeque<>();
+        /** A permit for each session, which can be borrowed. */
+        private final Semaphore permits = new Semaphore(MAX_SESSIONS);
+        private final AtomicInteger createdSessions = new AtomicInteger(0);
+        private volatile boolean disposed = false;
 
-        for (Object object : objs) {
-            workingMemory.insert(object);
+        SessionPool(final RuleBase ruleBase, final JurisdictionClosure jurisdictions) {
+            this.ruleBase = ruleBase;
+            this.jurisdictions = jurisdictions;
         }
 
-        return workingMemory;
+        /**
+         * Returns an idle session, or a new one if there is none. Waits, if
+         * {@link #MAX_SESSIONS} sessions are borrowed.
+         */
+        WorkingMemory borrow() {
+            permits.acquireUninterruptibly();
+            try {
+                WorkingMemory workingMemory = idleSessions.pollFirst();
+                if (workingMemory == null) {
+                    workingMemory = initializeStatefulWorkingMemory(ruleBase, jurisdictions);
+                    createdSessions.incrementAndGet();
+                }
+                return workingMemory;
+            } catch (RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        /** Returns the session to the pool, or disposes it if the pool is disposed. */
+        void release(final WorkingMemory workingMemory) {
+            idleSessions.addFirst(workingMemory);
+            // If disposed meanwhile, whoever removes the session disposes it
+            if (disposed && idleSessions.remove(workingMemory)) {
+                workingMemory.dispose();
+            }
+            permits.release();
+        }
+
+        /** Disposes a borrowed session, instead of returning it to the pool. */
+        void discard(final WorkingMemory workingMemory) {
+            workingMemory.dispose();
+            permits.release();
+        }
+
+        void dispose() {
+            disposed = true;
+            WorkingMemory workingMemory;
+            while ((workingMemory = idleSessions.pollFirst()) != null) {
+                workingMemory.dispose();
+            }
+        }
     }
 
     private static void assertNoRuleErrors(PackageBuilder packageBuilder) {
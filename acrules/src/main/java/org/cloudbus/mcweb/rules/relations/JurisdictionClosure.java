@@ -0,0 +1,130 @@
+package org.cloudbus.mcweb.rules.relations;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.assertj.core.util.Preconditions;
+
+/**
+ * An immutable index of {@link ContainsJurisdiction} relations. Each
+ * jurisdiction code is given an index, and each jurisdiction has a bit set of
+ * the jurisdictions it contains. The relations are indexed as they are - the
+ * reflexive and transitive closure should already be computed (e.g. by the
+ * rules of Layer 1).
+ *
+ * <br>
+ * <br>
+ *
+ * As the jurisdictions do not depend on the users and the data centres, they
+ * are derived once and the rules, which check the users, query this index
+ * instead of joining with the relation facts.
+ *
+ * @author nikolay.grozev
+ *
+ */
+public final class JurisdictionClosure {
+
+    /** The indices of the jurisdiction codes. */
+    private final Map<String, Integer> indices = new HashMap<>();
+    /** For each jurisdiction index - the indices of the contained jurisdictions. */
+    private final BitSet[] contained;
+    private final int size;
+
+    private JurisdictionClosure(final Collection<? extends ContainsJurisdiction> relations) {
+        for (ContainsJurisdiction relation : relations) {
+            indices.putIfAbsent(relation.getLhs(), indices.size());
+            indices.putIfAbsent(relation.getRhs(), indices.size());
+        }
+
+        contained = new BitSet[indices.size()];
+        for (int i = 0; i < contained.length; i++) {
+            contained[i] = new BitSet(contained.length);
+        }
+        for (ContainsJurisdiction relation : relations) {
+            contained[indices.get(relation.getLhs())].set(indices.get(relation.getRhs()));
+        }
+
+        int pairs = 0;
+        for (BitSet bits : contained) {
+            pairs += bits.cardinality();
+        }
+        size = pairs;
+    }
+
+    /**
+     * Creates an index of the relations.
+     * @param relations - the relations. Must not be null. Must be closed - e.g. transitive relations must include all derived pairs.
+     * @return an index of the relations.
+     */
+    public static JurisdictionClosure of(final Collection<? extends ContainsJurisdiction> relations) {
+        Preconditions.checkNotNull(relations);
+        return new JurisdictionClosure(relations);
+    }
+
+    /**
+     * Returns if the first jurisdiction contains the second one.
+     * @param lhs - the code of the first jurisdiction. Must not be null.
+     * @param rhs - the code of the second jurisdiction. Must not be null.
+     * @return if the first jurisdiction contains the second one.
+     */
+    public boolean contains(final String lhs, final String rhs) {
+        Preconditions.checkNotNull(lhs);
+        Preconditions.checkNotNull(rhs);
+        Integer lhsIdx = indices.get(lhs);
+        Integer rhsIdx = indices.get(rhs);
+        return lhsIdx != null && rhsIdx != null && contained[lhsIdx].get(rhsIdx);
+    }
+
+    /**
+     * Returns the index of the jurisdiction.
+     * @param code - the code of the jurisdiction. Must not be null.
+     * @return the index of the jurisdiction, or -1 if it is not in any relation.
+     */
+    public int indexOf(final String code) {
+        Preconditions.checkNotNull(code);
+        Integer idx = indices.get(code);
+        return idx == null ? -1 : idx;
+    }
+
+    /**
+     * Returns the indices (see {@link #indexOf(String)}) of the jurisdictions, contained in the specified one.
+     * @param lhs - the code of the jurisdiction. Must not be null.
+     * @return a copy of the indices of the contained jurisdictions. Empty, if the jurisdiction is not in any relation.
+     */
+    public BitSet getContained(final String lhs) {
+        int idx = indexOf(lhs);
+        return idx < 0 ? new BitSet() : (BitSet) contained[idx].clone();
+    }
+
+    /**
+     * Returns if the first jurisdiction contains any of the others.
+     * @param lhs - the code of the first jurisdiction. Must not be null.
+     * @param rhs - the codes of the other jurisdictions. Must not be null.
+     * @return if the first jurisdiction contains any of the others.
+     */
+    public boolean containsAny(final String lhs, final Collection<String> rhs) {
+        Preconditions.checkNotNull(lhs);
+        Preconditions.checkNotNull(rhs);
+        for (String code : rhs) {
+            if (contains(lhs, code)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of indexed (distinct) relations.
+     * @return the number of indexed (distinct) relations.
+     */
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s:[%d jurisdictions, %d relations]", getClass().getSimpleName(), contained.length, size);
+    }
+}
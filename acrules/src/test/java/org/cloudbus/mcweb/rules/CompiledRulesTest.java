@@ -0,0 +1,80 @@
+package org.cloudbus.mcweb.rules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.cloudbus.mcweb.DataCentre;
+import org.cloudbus.mcweb.User;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import static org.cloudbus.mcweb.util.Tests.*;
+
+public class CompiledRulesTest {
+
+    private final CompiledRules compiled = CompiledRules.compile();
+
+    /** Differential test over generated users - the rule engine is the reference. */
+    @Test
+    public void testSameDenialsAsRuleEngine() {
+        Random random = new Random(42);
+        for (DataCentre dc : dataCentres()) {
+            List<User> users = randomUsers(random, 200);
+            User[] usersArr = users.toArray(new User[users.size()]);
+
+            Map<String, Set<String>> expected = descriptions(RuleEngine.computeAdmissionDenials(dc, usersArr));
+            Map<String, Set<String>> actual = descriptions(compiled.computeAdmissionDenials(dc, usersArr));
+            assertEquals(dc.toString(), expected, actual);
+
+            boolean[] expectedEligible = new boolean[users.size()];
+            for (int i = 0; i < expectedEligible.length; i++) {
+                expectedEligible[i] = !expected.containsKey(users.get(i).getUserId());
+                assertEquals(expectedEligible[i], compiled.isEligible(dc, users.get(i)));
+            }
+            assertEquals(Arrays.toString(expectedEligible), Arrays.toString(compiled.areEligible(dc, users)));
+        }
+    }
+
+    @Test
+    public void testUserWithoutCitizenshipsAndTags() {
+        @SuppressWarnings("unchecked")
+        User user = new User("User", (Set<String>) Collections.EMPTY_SET, (Set<String>) Collections.EMPTY_SET);
+        for (DataCentre dc : dataCentres()) {
+            assertTrue(compiled.isEligible(dc, user));
+            assertTrue(RuleEngine.computeAdmissionDenials(dc, user).isEmpty());
+        }
+    }
+
+    private static List<DataCentre> dataCentres() {
+        List<DataCentre> result = new ArrayList<>();
+        for (String code : CODES) {
+            result.add(new DataCentre(code, "AWS", new HashSet<>(Arrays.asList("PCI-DSS")), 1));
+            result.add(new DataCentre(code, "AWS", new HashSet<>(Arrays.asList("OTHER")), 1));
+        }
+        return result;
+    }
+
+    private static Map<String, Set<String>> descriptions(final Collection<AdmissionDenied> denials) {
+        Map<String, Set<String>> result = new HashMap<>();
+        for (AdmissionDenied denial : denials) {
+            result.computeIfAbsent(denial.getUserId(), id -> new HashSet<>()).add(denial.getDescription());
+        }
+        return result;
+    }
+
+    @AfterClass
+    public static void tearDownAfterClass() {
+        RuleEngine.dispose();
+    }
+}
@@ -0,0 +1,129 @@
+package org.cloudbus.mcweb.rules;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.Logger;
+
+import org.cloudbus.mcweb.DataCentre;
+import org.cloudbus.mcweb.User;
+
+/**
+ * Measures the throughput of {@link RuleEngine#determineUsersApplicability}
+ * with an increasing number of threads - with the session pool, with all
+ * queries serialised through a single lock (as with the former single shared
+ * session), and with the {@link CompiledRules}. Each query is for a single
+ * user, as the admission controller issues them. The denials of every query
+ * are checked against a single threaded run of the rule engine.
+ *
+ * <br>
+ * <br>
+ *
+ * Usage: java ... RuleEngineBenchmark [seconds per measurement] [max threads]
+ *
+ * @author nikolay.grozev
+ *
+ */
+public class RuleEngineBenchmark {
+
+    static {
+        Logger log = LogManager.getLogManager().getLogger("");
+        for (Handler h : log.getHandlers()) {
+            h.setLevel(Level.SEVERE);
+        }
+    }
+
+    private static final String[] CITIZENSHIPS = { "DE", "BG", "USA-AZ", "USA-WA", "AU", "CA", "CH" };
+    private static final String[] TAGS = { "PCI-DSS", "US-GOV" };
+    private static final Object LOCK = new Object();
+
+    public static void main(final String[] args) throws Exception {
+        long seconds = args.length > 0 ? Long.parseLong(args[0]) : 5;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : 2 * Runtime.getRuntime().availableProcessors();
+
+        DataCentre dc = new DataCentre("GB", "AWS", new HashSet<>(Arrays.asList("PCI-DSS")), 1);
+        List<User> users = users(1000);
+        List<Set<String>> expected = new ArrayList<>();
+        for (User user : users) {
+            expected.add(RuleEngine.determineUsersApplicability(dc, user));
+        }
+
+        System.out.printf("Cores: %d%n", Runtime.getRuntime().availableProcessors());
+        Function<User, Set<String>> serialisedQuery = user -> {
+            synchronized (LOCK) {
+                return RuleEngine.determineUsersApplicability(dc, user);
+            }
+        };
+        Function<User, Set<String>> pooledQuery = user -> RuleEngine.determineUsersApplicability(dc, user);
+        CompiledRules compiled = CompiledRules.compile();
+        Function<User, Set<String>> compiledQuery = user -> compiled.determineUsersApplicability(dc, user);
+
+        System.out.printf("%10s %20s %20s %10s %20s%n", "Threads", "Serialised (q/s)", "Pooled (q/s)", "Speedup", "Compiled (q/s)");
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            // Warm up, then measure
+            measure(serialisedQuery, threads, 1, users, expected);
+            measure(pooledQuery, threads, 1, users, expected);
+            measure(compiledQuery, threads, 1, users, expected);
+            double serialised = measure(serialisedQuery, threads, seconds, users, expected);
+            double pooled = measure(pooledQuery, threads, seconds, users, expected);
+            double compiledRate = measure(compiledQuery, threads, seconds, users, expected);
+            System.out.printf("%10d %20.0f %20.0f %9.1fx %20.0f%n", threads, serialised, pooled, pooled / serialised, compiledRate);
+        }
+        RuleEngine.dispose();
+    }
+
+    /** Returns the queries per second. */
+    private static double measure(final Function<User, Set<String>> query, final int threads, final long seconds,
+            final List<User> users, final List<Set<String>> expected) throws InterruptedException {
+        AtomicLong queries = new AtomicLong(0);
+        AtomicLong mismatches = new AtomicLong(0);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            int offset = t;
+            new Thread(() -> {
+                int i = offset;
+                while (System.nanoTime() < deadline) {
+                    int idx = i++ % users.size();
+                    Set<String> denied = query.apply(users.get(idx));
+                    if (!denied.equals(expected.get(idx))) {
+                        mismatches.incrementAndGet();
+                    }
+                    queries.incrementAndGet();
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        if (mismatches.get() > 0) {
+            throw new IllegalStateException(mismatches.get() + " queries differ from the single threaded run");
+        }
+        return queries.get() / (double) seconds;
+    }
+
+    private static List<User> users(final int count) {
+        Random random = new Random(42);
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Set<String> citizenships = new HashSet<>(Arrays.asList(CITIZENSHIPS[random.nextInt(CITIZENSHIPS.length)]));
+            Set<String> tags = new HashSet<>();
+            for (String tag : TAGS) {
+                if (random.nextBoolean()) {
+                    tags.add(tag);
+                }
+            }
+            users.add(new User("user-" + i, citizenships, tags));
+        }
+        return users;
+    }
+}
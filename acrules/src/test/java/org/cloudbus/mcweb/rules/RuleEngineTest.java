@@ -85,6 +85,18 @@ public class RuleEngineTest {
         assertTrue(admissionDenials.isEmpty());
     }
     
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testUSGovInUSState() {
+        User usGovUser = new User("US-Gov-User", new HashSet<String>(Arrays.asList("USA-AZ")), new HashSet<String>(Arrays.asList("US-GOV")));
+        DataCentre usDC = new DataCentre("USA-WA", "AWS", (Set<String>) Collections.EMPTY_SET, 1);
+        DataCentre euDC = new DataCentre("DE", "AWS", (Set<String>) Collections.EMPTY_SET, 1);
+
+        // Accepted in a US state, but not outside of the USA
+        assertTrue(RuleEngine.computeAdmissionDenials(usDC, usGovUser).isEmpty());
+        assertEquals(Collections.singleton(usGovUser.getUserId()), RuleEngine.determineUsersApplicability(euDC, usGovUser));
+    }
+
     @Test
     @SuppressWarnings("unchecked")
     public void testMutipleUsers() {
@@ -179,6 +191,31 @@ public class RuleEngineTest {
         errHandler.throwFirst();
     }
     
+    @Test
+    public void testSessionsAreBounded() throws Throwable {
+        RuleEngine.dispose();
+        AggregatedUncaghtExceptionHandler errHandler = new AggregatedUncaghtExceptionHandler();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < RuleEngine.MAX_SESSIONS * 4; i++) {
+            Thread t = new Thread(() -> {
+                for (int j = 0; j < 20; j++) {
+                    testMutipleUsers();
+                }
+            });
+            t.setUncaughtExceptionHandler(errHandler);
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        errHandler.throwFirst();
+
+        int created = RuleEngine.getCreatedSessions();
+        assertTrue(created > 0);
+        assertTrue(created <= RuleEngine.MAX_SESSIONS);
+    }
+
     @AfterClass
     public static void tearDownAfterClass() {
         RuleEngine.dispose();
@@ -1,14 +1,19 @@
 package org.cloudbus.mcweb.admissioncontroller;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
 import org.cloudbus.mcweb.AdmissionControllerResponse;
+import org.cloudbus.mcweb.AdmissionControllerUpdate;
 import org.cloudbus.mcweb.DataCentre;
 import org.cloudbus.mcweb.ServerFarm;
+import org.cloudbus.mcweb.User;
+
+import org.glassfish.jersey.server.ChunkedOutput;
 
 import com.google.common.base.Preconditions;
+import com.google.common.cache.CacheStats;
 
 import static org.cloudbus.mcweb.util.Closeables.*;
 
@@ -24,13 +29,17 @@ public class AdmissionController implements AutoCloseable {
     private static final Logger LOG = Logger.getLogger(AdmissionController.class.getCanonicalName());
     
     /** Application specific eligibility and performance rules. */
-    private IAdmissionControllerRule rule;
+    private volatile IAdmissionControllerRule rule;
     /** Application specific eligibility and performance rules. */
-    private IUserResolver userResolver;
+    private volatile IUserResolver userResolver;
     /** The server farm. */
-    private ServerFarm serverFarm;
+    private volatile ServerFarm serverFarm;
     /** The data centre. */
-    private DataCentre dataCentre;
+    private volatile DataCentre dataCentre;
+    /** The decisions of the rule in the data centre, if the rule is signature based. Otherwise null. */
+    private volatile SignatureCache signatureCache;
+    /** Pushes the cost and definition changes to the subscribed entry points. */
+    private final UpdatePublisher publisher = new UpdatePublisher(this::getUpdate);
     
     /** Singleton instance. */
     private static final AdmissionController instance = new AdmissionController();
@@ -69,27 +78,88 @@ public class AdmissionController implements AutoCloseable {
             this.userResolver = userResolver;
             this.serverFarm = serverFarm;
             this.dataCentre = dataCentre;
+            // The cached decisions are for the previous rule and data centre
+            this.signatureCache = rule.isSignatureBased() ? new SignatureCache(rule, dataCentre, SignatureCache.DEFAULT_MAX_SIZE) : null;
         }
+        publisher.publishSoon();
     }
 
     /**
-     * Returns the responses for the users.
+     * Returns the responses for the users. All users are checked with a
+     * single call to {@link IAdmissionControllerRule#areEligible(List, DataCentre)}.
+     * If the rule is signature based, only the users with new signatures are
+     * checked - see {@link SignatureCache}. Does not lock - concurrent enquiries are evaluated in parallel, so the
+     * rule and the user resolver must be thread safe.
      * @param userTokens - the end users' tokens. Must not be null. Elements must not be null.
      * @return the responses for the users.
      */
-    public synchronized List<AdmissionControllerResponse> enquire(final List<String> userTokens) {
+    public List<AdmissionControllerResponse> enquire(final List<String> userTokens) {
         Preconditions.checkNotNull(userTokens);
-        return userTokens.stream().map(this::respond).collect(Collectors.toList());
-    }
+        // Use the same configuration for the whole batch
+        IAdmissionControllerRule currentRule = this.rule;
+        IUserResolver currentResolver = this.userResolver;
+        DataCentre currentDataCentre = this.dataCentre;
+        SignatureCache currentCache = this.signatureCache;
+
+        List<User> users = new ArrayList<>(userTokens.size());
+        for (String userToken : userTokens) {
+            Preconditions.checkNotNull(userToken);
+            users.add(currentResolver.resolve(userToken));
+        }
+        // The cache may be for another configuration, if it has just changed
+        boolean[] eligible = currentCache != null && currentCache.isFor(currentRule, currentDataCentre) ?
+                currentCache.areEligible(users) : currentRule.areEligible(users, currentDataCentre);
 
-    private AdmissionControllerResponse respond(final String userToken) {
-        Preconditions.checkNotNull(userToken);
-        boolean eligible = this.rule.isEligible(userResolver.resolve(userToken), dataCentre);
+        List<AdmissionControllerResponse> responses = new ArrayList<>(userTokens.size());
         double costEstimation = Double.NaN;
-        if(eligible) {
-            costEstimation = rule.backOff() ? Double.MAX_VALUE : this.dataCentre.getCost();
+        for (int i = 0; i < eligible.length; i++) {
+            // The cost is the same for all eligible users
+            if (eligible[i] && Double.isNaN(costEstimation)) {
+                costEstimation = costEstimation(currentRule, currentDataCentre);
+            }
+            responses.add(new AdmissionControllerResponse(userTokens.get(i), eligible[i],
+                    eligible[i] ? costEstimation : Double.NaN));
         }
-        return new AdmissionControllerResponse(userToken, eligible, costEstimation);
+        return responses;
+    }
+
+    /**
+     * Returns the cost estimation for an eligible user. Unlike the
+     * eligibility, it changes over time - e.g. when the data centre backs off.
+     * @return the cost estimation for an eligible user.
+     */
+    public synchronized double getCostEstimation() {
+        return costEstimation(rule, dataCentre);
+    }
+
+    private static double costEstimation(final IAdmissionControllerRule rule, final DataCentre dataCentre) {
+        return rule.backOff() ? Double.MAX_VALUE : dataCentre.getCost();
+    }
+
+    /**
+     * Returns the hit/miss statistics of the signature cache.
+     * @return the hit/miss statistics of the signature cache, or null if the rule is not signature based.
+     */
+    public CacheStats getSignatureCacheStats() {
+        SignatureCache currentCache = this.signatureCache;
+        return currentCache == null ? null : currentCache.getStats();
+    }
+
+    /**
+     * Returns the current cost estimation and data centre definition.
+     * @return the current state, or null if not configured.
+     */
+    public synchronized AdmissionControllerUpdate getUpdate() {
+        return dataCentre == null ? null : new AdmissionControllerUpdate(costEstimation(rule, dataCentre), dataCentre);
+    }
+
+    /**
+     * Subscribes for the changes of the cost estimation and the data centre
+     * definition. The current state is sent first.
+     * @return a stream of json {@link AdmissionControllerUpdate}-s.
+     */
+    public ChunkedOutput<String> subscribe() {
+        return publisher.subscribe();
     }
     
     /**
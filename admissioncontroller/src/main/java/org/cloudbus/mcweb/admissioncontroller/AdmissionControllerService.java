@@ -1,24 +1,48 @@
 package org.cloudbus.mcweb.admissioncontroller;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
+import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
+import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
 import org.cloudbus.mcweb.AdmissionControllerResponse;
+import org.cloudbus.mcweb.AdmissionControllerResponseCodec;
 import org.cloudbus.mcweb.DataCentre;
 
 import static org.cloudbus.mcweb.util.Configs.*;
 
+import org.cloudbus.mcweb.util.Configs;
 import org.cloudbus.mcweb.util.Jsons;
+import org.glassfish.jersey.server.ChunkedOutput;
+
+import com.google.gson.stream.JsonWriter;
 
 
 @Path(AC_PATH)
 public class AdmissionControllerService {
 
+    /** How many tokens from a streamed batch to enquire at once. */
+    private static final int STREAM_CHUNK_SIZE = 256;
+    /** The binary media type. */
+    private static final MediaType BINARY_TYPE = MediaType.valueOf(AC_BINARY_MEDIA_TYPE);
+
     @GET
     @Path(AC_SERVICE_PATH)
     @Produces(MediaType.APPLICATION_JSON)
@@ -27,7 +51,101 @@ public class AdmissionControllerService {
         List<AdmissionControllerResponse> responses = AdmissionController.getInstance().enquire(userTokens);
         return Jsons.toJson(responses.toArray(new AdmissionControllerResponse[responses.size()]), AdmissionControllerResponse[].class);
     }
-    
+
+    /**
+     * Same as the GET service, but the tokens are posted as a json array, and
+     * are processed while being read - in chunks. Thus, the batch size is not
+     * limited by the URL length and the memory is bounded by the chunk size.
+     * 
+     * <br>
+     * <br>
+     * 
+     * If the client prefers {@link Configs#AC_BINARY_MEDIA_TYPE} - i.e. it is
+     * the first of the accepted media types, sorted by their quality - the
+     * responses are encoded with the compact
+     * {@link AdmissionControllerResponseCodec}. Otherwise - as json.
+     *
+     * @param userTokens
+     *            - the body - a json array of user tokens.
+     * @param headers
+     *            - the request headers.
+     * @return an array of the responses, streamed as they are computed.
+     */
+    @POST
+    @Path(AC_SERVICE_PATH)
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces({ MediaType.APPLICATION_JSON, AC_BINARY_MEDIA_TYPE })
+    public Response service(final InputStream userTokens, @Context final HttpHeaders headers) {
+        // ["123", "456"]
+        List<MediaType> acceptable = headers.getAcceptableMediaTypes();
+        MediaType preferred = acceptable.isEmpty() ? MediaType.WILDCARD_TYPE : acceptable.get(0);
+        // Wildcards get json, which all clients can read
+        boolean binary = BINARY_TYPE.getType().equals(preferred.getType())
+                && BINARY_TYPE.getSubtype().equals(preferred.getSubtype());
+        return binary ?
+                Response.ok(binaryResponses(userTokens), BINARY_TYPE).build() :
+                Response.ok(jsonResponses(userTokens), MediaType.APPLICATION_JSON_TYPE).build();
+    }
+
+    private static StreamingOutput jsonResponses(final InputStream userTokens) {
+        return output -> {
+            try (Reader reader = new InputStreamReader(userTokens, StandardCharsets.UTF_8);
+                    JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8)))) {
+                writer.beginArray();
+                Jsons.readArray(reader, String.class, STREAM_CHUNK_SIZE, chunk -> {
+                    for (AdmissionControllerResponse response : AdmissionController.getInstance().enquire(chunk)) {
+                        Jsons.toJson(response, AdmissionControllerResponse.class, writer);
+                    }
+                    writer.flush();
+                });
+                writer.endArray();
+            }
+        };
+    }
+
+    private static StreamingOutput binaryResponses(final InputStream userTokens) {
+        return output -> {
+            try (Reader reader = new InputStreamReader(userTokens, StandardCharsets.UTF_8);
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output))) {
+                AdmissionControllerResponseCodec.writeHeader(out);
+                Jsons.readArray(reader, String.class, STREAM_CHUNK_SIZE, chunk -> {
+                    AdmissionControllerResponseCodec.writeChunk(AdmissionController.getInstance().enquire(chunk), out);
+                    out.flush();
+                });
+                AdmissionControllerResponseCodec.writeEnd(out);
+            }
+        };
+    }
+
+    /**
+     * Returns the current cost estimation for an eligible user, so that
+     * clients, which have cached the eligibility of their users, can refresh
+     * the cost without enquiring about every user.
+     *
+     * @return the cost estimation as plain text.
+     */
+    @GET
+    @Path(AC_COST_PATH)
+    @Produces(MediaType.TEXT_PLAIN)
+    public String cost() {
+        return String.valueOf(AdmissionController.getInstance().getCostEstimation());
+    }
+
+    /**
+     * Returns a long-lived stream of the cost estimation and the data centre
+     * definition. Each is a json {@link org.cloudbus.mcweb.AdmissionControllerUpdate},
+     * followed by {@link Configs#AC_UPDATES_DELIMITER}. An update is sent
+     * whenever they change, and periodically as a heartbeat.
+     *
+     * @return the stream of updates.
+     */
+    @GET
+    @Path(AC_UPDATES_PATH)
+    @Produces(MediaType.APPLICATION_JSON)
+    public ChunkedOutput<String> updates() {
+        return AdmissionController.getInstance().subscribe();
+    }
+
     @GET
     @Path(AC_DC_DEF_PATH)
     @Produces(MediaType.APPLICATION_JSON)
@@ -36,5 +154,5 @@ public class AdmissionControllerService {
         DataCentre dc = AdmissionController.getInstance().getDataCentre();
         return Jsons.toJson(dc);
     }
-    
-}
\ No newline at end of file
+
+}
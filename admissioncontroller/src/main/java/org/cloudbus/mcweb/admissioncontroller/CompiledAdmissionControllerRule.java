@@ -0,0 +1,51 @@
+package org.cloudbus.mcweb.admissioncontroller;
+
+import java.util.List;
+
+import org.cloudbus.mcweb.DataCentre;
+import org.cloudbus.mcweb.User;
+import org.cloudbus.mcweb.rules.CompiledRules;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * An admission controller, which uses the rules compiled to plain Java (see
+ * {@link CompiledRules}) instead of running the rule inference engine for each
+ * query. Makes the same decisions as {@link RuleBasedControllerRule}.
+ *
+ * @author nikolay.grozev
+ *
+ */
+public class CompiledAdmissionControllerRule implements IAdmissionControllerRule {
+
+    private final CompiledRules rules = CompiledRules.compile();
+
+    @Override
+    public void close() throws Exception {
+        // pass
+    }
+
+    @Override
+    public boolean isEligible(final User user, final DataCentre dataCentre) {
+        Preconditions.checkNotNull(user);
+        Preconditions.checkNotNull(dataCentre);
+        return rules.isEligible(dataCentre, user);
+    }
+
+    @Override
+    public boolean[] areEligible(final List<User> users, final DataCentre dataCentre) {
+        Preconditions.checkNotNull(users);
+        Preconditions.checkNotNull(dataCentre);
+        return rules.areEligible(dataCentre, users);
+    }
+
+    @Override
+    public boolean isSignatureBased() {
+        return true;
+    }
+
+    @Override
+    public boolean backOff() {
+        return false;
+    }
+}
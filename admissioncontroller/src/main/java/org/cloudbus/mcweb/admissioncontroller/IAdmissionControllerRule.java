@@ -1,10 +1,13 @@
 package org.cloudbus.mcweb.admissioncontroller;
 
+import java.util.List;
+
 import org.cloudbus.mcweb.DataCentre;
 import org.cloudbus.mcweb.User;
 
 /**
- * Represents application specific admission control rules.
+ * Represents application specific admission control rules. Must be thread
+ * safe - the admission controller evaluates concurrent enquiries in parallel.
  * 
  * @author nikolay.grozev
  */
@@ -20,6 +23,37 @@ public interface IAdmissionControllerRule extends AutoCloseable {
      */
     public boolean isEligible(User user, DataCentre dataCentre);
 
+    /**
+     * Returns, whether each of the users is eligible in this cloud site. By
+     * default, checks them one by one. Rules with a per call overhead (e.g.
+     * running a rule engine) should override it, to check the whole batch at
+     * once.
+     * 
+     * @param users - the users to check for. Must not be null. Elements must not be null.
+     * @param dataCentre - the DC to check for. Must not be null.
+     * 
+     * @return whether each user is eligible in this cloud site, in the order of the users.
+     */
+    public default boolean[] areEligible(final List<User> users, final DataCentre dataCentre) {
+        boolean[] eligible = new boolean[users.size()];
+        for (int i = 0; i < eligible.length; i++) {
+            eligible[i] = isEligible(users.get(i), dataCentre);
+        }
+        return eligible;
+    }
+
+    /**
+     * Returns, whether the eligibility of a user depends only on its
+     * citizenships and tags (and the data centre), but not on its id. If so,
+     * the admission controller caches the decisions per signature (see
+     * {@link SignatureCache}). By default - false.
+     * 
+     * @return whether the eligibility depends only on the users' citizenships and tags.
+     */
+    public default boolean isSignatureBased() {
+        return false;
+    }
+
     /**
      * Returns, whether the admission controller should signal the entry point
      * to back-off from this cloud site.
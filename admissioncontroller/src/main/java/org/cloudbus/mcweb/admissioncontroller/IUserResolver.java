@@ -3,6 +3,8 @@ package org.cloudbus.mcweb.admissioncontroller;
 import org.cloudbus.mcweb.User;
 
 /**
+ * Resolves the metadata of the users. Must be thread safe - the admission
+ * controller resolves concurrent enquiries in parallel.
  * 
  * @author nikolay.grozev
  *
@@ -11,9 +11,12 @@ import org.cloudbus.mcweb.DataCentre;
 import org.cloudbus.mcweb.ServerFarm;
 import org.cloudbus.mcweb.util.Configs;
 import org.cloudbus.mcweb.util.Jsons;
+import org.cloudbus.mcweb.util.ThreadPools;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.thread.ExecutorThreadPool;
 
 import com.google.common.base.Preconditions;
 
@@ -67,7 +70,7 @@ public class Main {
         LOG.warning("Loaded DC definition:" + dataCenre.toString());
         
         // The server to start
-        Server jettyServer = new Server(jettyPort);
+        Server jettyServer = newServer(jettyPort);
 
         try (AutoCloseable serverClosable = jettyServer::destroy;
                 AdmissionController controller = AdmissionController.getInstance()) {
@@ -81,6 +84,8 @@ public class Main {
             jettyServer.setHandler(context);
             ServletHolder jerseyServlet = context.addServlet(org.glassfish.jersey.servlet.ServletContainer.class, "/*");
             jerseyServlet.setInitOrder(0);
+            // The update streams are written after the resource method returns
+            jerseyServlet.setAsyncSupported(true);
             ServletHolder webServlet = context.addServlet(PingServelet.class, "/ping/*");
             webServlet.setInitOrder(0);
 
@@ -93,4 +98,25 @@ public class Main {
             jettyServer.join();
         }
     }
+
+    /**
+     * Creates the jetty server. If virtual threads are enabled (see
+     * {@link ThreadPools#VIRTUAL_THREADS_PROP}), the connectors and the
+     * servlets run on virtual threads instead of a bounded platform pool.
+     * 
+     * @param port
+     *            - the port to listen to.
+     * @return the jetty server.
+     */
+    private static Server newServer(final int port) {
+        if (!ThreadPools.isVirtualThreadsEnabled()) {
+            return new Server(port);
+        }
+        LOG.warning("Running on virtual threads");
+        Server server = new Server(new ExecutorThreadPool(ThreadPools.newVirtualThreadPerTaskExecutor()));
+        ServerConnector connector = new ServerConnector(server);
+        connector.setPort(port);
+        server.addConnector(connector);
+        return server;
+    }
 }
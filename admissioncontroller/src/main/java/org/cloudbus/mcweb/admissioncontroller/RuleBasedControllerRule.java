@@ -1,5 +1,6 @@
 package org.cloudbus.mcweb.admissioncontroller;
 
+import java.util.List;
 import java.util.Set;
 
 import org.cloudbus.mcweb.DataCentre;
@@ -32,6 +33,30 @@ public class RuleBasedControllerRule implements IAdmissionControllerRule {
         return !nonApplicable.contains(user.getUserId());
     }
 
+    /**
+     * Checks all users in a single run of the rule engine.
+     */
+    @Override
+    public boolean[] areEligible(final List<User> users, final DataCentre dataCentre) {
+        Preconditions.checkNotNull(users);
+        Preconditions.checkNotNull(dataCentre);
+        boolean[] eligible = new boolean[users.size()];
+        if (users.isEmpty()) {
+            return eligible;
+        }
+
+        Set<String> nonApplicable = RuleEngine.determineUsersApplicability(dataCentre, users.toArray(new User[users.size()]));
+        for (int i = 0; i < eligible.length; i++) {
+            eligible[i] = !nonApplicable.contains(users.get(i).getUserId());
+        }
+        return eligible;
+    }
+
+    @Override
+    public boolean isSignatureBased() {
+        return true;
+    }
+
     @Override
     public boolean backOff() {
         // TODO Auto-generated method stub
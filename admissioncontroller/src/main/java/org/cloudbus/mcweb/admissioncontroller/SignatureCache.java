@@ -0,0 +1,172 @@
+package org.cloudbus.mcweb.admissioncontroller;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.cloudbus.mcweb.DataCentre;
+import org.cloudbus.mcweb.User;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * Caches the eligibility of the users in a data centre by their signature -
+ * i.e. their citizenships and tags. An admission controller serves a single
+ * data centre, and the rules, which do not depend on the user ids (see
+ * {@link IAdmissionControllerRule#isSignatureBased()}), make the same
+ * decision for all users with the same signature. As there are only a few
+ * distinct signatures, the rule is evaluated only a few times, regardless of
+ * the number of users.
+ *
+ * <br>
+ * <br>
+ *
+ * A cache is bound to a rule and a data centre. When either of them changes
+ * (e.g. the admission controller is reconfigured), a new cache must be
+ * used.
+ *
+ * @author nikolay.grozev
+ *
+ */
+public class SignatureCache {
+
+    /** The default max number of cached signatures. */
+    public static final long DEFAULT_MAX_SIZE = 10_000;
+
+    private final IAdmissionControllerRule rule;
+    private final DataCentre dataCentre;
+    private final Cache<String, Boolean> cache;
+
+    /**
+     * Constr.
+     *
+     * @param rule
+     *            - the rule. Must not be null. Must be signature based.
+     * @param dataCentre
+     *            - the data centre. Must not be null.
+     * @param maxSize
+     *            - the max number of cached signatures. Must be positive.
+     */
+    public SignatureCache(final IAdmissionControllerRule rule, final DataCentre dataCentre, final long maxSize) {
+        Preconditions.checkNotNull(rule);
+        Preconditions.checkArgument(rule.isSignatureBased());
+        Preconditions.checkNotNull(dataCentre);
+        Preconditions.checkArgument(maxSize > 0);
+
+        this.rule = rule;
+        this.dataCentre = dataCentre;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Returns if this cache is for the specified rule and data centre.
+     *
+     * @param rule
+     *            - the rule.
+     * @param dataCentre
+     *            - the data centre.
+     * @return if this cache is for the specified rule and data centre.
+     */
+    public boolean isFor(final IAdmissionControllerRule rule, final DataCentre dataCentre) {
+        return this.rule == rule && this.dataCentre == dataCentre;
+    }
+
+    /**
+     * Returns, whether each of the users is eligible in the data centre. The
+     * users, whose signatures are not cached, are checked with a single call
+     * to {@link IAdmissionControllerRule#areEligible(List, DataCentre)} - once
+     * per distinct signature.
+     *
+     * @param users
+     *            - the users to check for. Must not be null. Elements must not
+     *            be null.
+     * @return whether each user is eligible, in the order of the users.
+     */
+    public boolean[] areEligible(final List<User> users) {
+        Preconditions.checkNotNull(users);
+        boolean[] eligible = new boolean[users.size()];
+        String[] signatures = new String[users.size()];
+        // The first user with each of the missing signatures
+        Map<String, User> misses = new LinkedHashMap<>();
+        for (int i = 0; i < eligible.length; i++) {
+            signatures[i] = signature(users.get(i));
+            Boolean cached = cache.getIfPresent(signatures[i]);
+            if (cached != null) {
+                eligible[i] = cached;
+            } else {
+                misses.putIfAbsent(signatures[i], users.get(i));
+            }
+        }
+        if (misses.isEmpty()) {
+            return eligible;
+        }
+
+        List<String> missedSignatures = new ArrayList<>(misses.keySet());
+        boolean[] evaluated = rule.areEligible(new ArrayList<>(misses.values()), dataCentre);
+        Map<String, Boolean> results = new LinkedHashMap<>();
+        for (int j = 0; j < evaluated.length; j++) {
+            results.put(missedSignatures.get(j), evaluated[j]);
+        }
+        cache.putAll(results);
+        for (int i = 0; i < eligible.length; i++) {
+            Boolean result = results.get(signatures[i]);
+            if (result != null) {
+                eligible[i] = result;
+            }
+        }
+        return eligible;
+    }
+
+    /**
+     * Returns the number of cached signatures.
+     *
+     * @return the number of cached signatures.
+     */
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * Returns the hit/miss statistics of the cache.
+     *
+     * @return the hit/miss statistics of the cache.
+     */
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    /**
+     * Returns the canonical signature of the user - its sorted citizenships
+     * and tags. Each code is prefixed with its length, so that the signatures
+     * are unambiguous regardless of the characters in the codes.
+     *
+     * @param user
+     *            - the user. Must not be null.
+     * @return the canonical signature of the user.
+     */
+    public static String signature(final User user) {
+        Preconditions.checkNotNull(user);
+        StringBuilder result = new StringBuilder();
+        appendCanonical(result, user.getCitizenships());
+        result.append('|');
+        appendCanonical(result, user.getTags());
+        return result.toString();
+    }
+
+    private static void appendCanonical(final StringBuilder result, final Set<String> codes) {
+        String[] sorted = codes.toArray(new String[codes.size()]);
+        Arrays.sort(sorted);
+        for (String code : sorted) {
+            result.append(code.length()).append(':').append(code);
+        }
+    }
+}
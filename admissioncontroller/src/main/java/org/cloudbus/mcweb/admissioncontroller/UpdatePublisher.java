@@ -0,0 +1,179 @@
+package org.cloudbus.mcweb.admissioncontroller;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.cloudbus.mcweb.AdmissionControllerUpdate;
+import org.cloudbus.mcweb.util.Jsons;
+import org.glassfish.jersey.server.ChunkedOutput;
+
+import com.google.common.base.Preconditions;
+
+import static org.cloudbus.mcweb.util.Configs.*;
+
+/**
+ * Pushes the state of the admission controller (see
+ * {@link AdmissionControllerUpdate}) to the subscribed entry points, over
+ * long-lived chunked HTTP responses. The state is checked every few
+ * milliseconds and is published as soon as it changes - e.g. the data centre
+ * cost is modified or the rule backs off. Even if nothing changes, the state
+ * is published every {@link #HEARTBEAT_MILLIS}, so that the subscribers can
+ * detect a broken stream by their read timeout.
+ *
+ * <br>
+ * <br>
+ *
+ * The checks run in a single daemon thread, started with the first
+ * subscription. Subscribers, which can not be written to, are dropped.
+ *
+ * @author nikolay.grozev
+ *
+ */
+public class UpdatePublisher implements AutoCloseable {
+
+    /** Logger. */
+    private static final Logger LOG = Logger.getLogger(UpdatePublisher.class.getCanonicalName());
+
+    /** How often to check for changes. */
+    public static final long POLL_MILLIS = 10;
+    /** How often to publish the state, even if it has not changed. */
+    public static final long HEARTBEAT_MILLIS = 500;
+
+    /** Returns the current state, or null if it is not known yet. */
+    private final Supplier<AdmissionControllerUpdate> state;
+    private final Set<ChunkedOutput<String>> subscribers = new CopyOnWriteArraySet<>();
+
+    private ScheduledExecutorService scheduler;
+    /** The last published json. */
+    private String lastPublished;
+    private long lastPublishedMillis;
+
+    /**
+     * Constr.
+     *
+     * @param state
+     *            - returns the current state, or null if it is not known yet.
+     *            Must not be null.
+     */
+    public UpdatePublisher(final Supplier<AdmissionControllerUpdate> state) {
+        Preconditions.checkNotNull(state);
+        this.state = state;
+    }
+
+    /**
+     * Creates a new stream of updates, starting with the current state.
+     *
+     * @return the new stream of updates.
+     */
+    public ChunkedOutput<String> subscribe() {
+        ChunkedOutput<String> output = new ChunkedOutput<>(String.class, AC_UPDATES_DELIMITER);
+        AdmissionControllerUpdate update = state.get();
+        synchronized (this) {
+            if (update == null || write(output, Jsons.toJson(update))) {
+                subscribers.add(output);
+            }
+            if (scheduler == null) {
+                scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r, "Admission Controller Update Publisher");
+                    t.setDaemon(true);
+                    return t;
+                });
+                scheduler.scheduleWithFixedDelay(this::publish, POLL_MILLIS, POLL_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Checks the state without waiting for the next poll - e.g. after a
+     * reconfiguration. Does not block.
+     */
+    public synchronized void publishSoon() {
+        if (scheduler != null) {
+            scheduler.execute(this::publish);
+        }
+    }
+
+    /**
+     * Returns the number of subscribers.
+     *
+     * @return the number of subscribers.
+     */
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    /**
+     * Publishes the state, if it has changed or the heartbeat is due.
+     */
+    private void publish() {
+        try {
+            // Get the state outside of this lock - it may need another one
+            AdmissionControllerUpdate update = state.get();
+            if (update == null) {
+                return;
+            }
+            String json = Jsons.toJson(update);
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                if (json.equals(lastPublished) && now - lastPublishedMillis < HEARTBEAT_MILLIS) {
+                    return;
+                }
+                lastPublished = json;
+                lastPublishedMillis = now;
+                for (ChunkedOutput<String> output : subscribers) {
+                    if (!write(output, json)) {
+                        subscribers.remove(output);
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            // Do not let the exception cancel the periodic checks
+            LOG.log(Level.SEVERE, "Could not publish the state of the admission controller", e);
+        }
+    }
+
+    /**
+     * Writes the json to the stream. Returns false, if it is closed.
+     */
+    private static boolean write(final ChunkedOutput<String> output, final String json) {
+        if (output.isClosed()) {
+            return false;
+        }
+        try {
+            output.write(json);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            LOG.log(Level.FINE, "Dropping an update subscriber", e);
+            closeQuietly(output);
+            return false;
+        }
+    }
+
+    private static void closeQuietly(final ChunkedOutput<String> output) {
+        try {
+            output.close();
+        } catch (IOException | RuntimeException e) {
+            LOG.log(Level.FINE, "Could not close an update stream", e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        for (ChunkedOutput<String> output : subscribers) {
+            closeQuietly(output);
+        }
+        subscribers.clear();
+    }
+}
@@ -0,0 +1,104 @@
+package org.cloudbus.mcweb.admissioncontroller;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.cloudbus.mcweb.AdmissionControllerResponse;
+import org.cloudbus.mcweb.AdmissionControllerResponseCodec;
+import org.cloudbus.mcweb.DataCentre;
+import org.cloudbus.mcweb.ServerFarm;
+import org.cloudbus.mcweb.util.Jsons;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.servlet.ServletContainer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.cloudbus.mcweb.util.Configs.*;
+
+public class AdmissionControllerServiceTest {
+
+    private static final String JSON = MediaType.APPLICATION_JSON;
+    private static final String BINARY = AC_BINARY_MEDIA_TYPE;
+
+    private Server server;
+    private Client client;
+
+    @Before
+    public void setUp() throws Exception {
+        AdmissionController.getInstance().configure(new DataCentre("DE", "AWS", Collections.emptySet(), 1),
+                new PromiscuousAdmissionControllerRule(), new TestUserResolver(), ServerFarm.DUMMY_FARM);
+
+        ServletContextHandler context = new ServletContextHandler();
+        context.setContextPath("/");
+        context.addServlet(new ServletHolder(new ServletContainer(
+                new ResourceConfig(AdmissionControllerService.class))), "/*");
+        server = new Server(0);
+        server.setHandler(context);
+        server.start();
+        client = ClientBuilder.newClient();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.close();
+        server.stop();
+        AdmissionController.getInstance().close();
+    }
+
+    @Test
+    public void testPreferredBinary() throws IOException {
+        assertEnquiry(BINARY, BINARY, JSON + ";q=0.5");
+        assertEnquiry(BINARY, JSON + ";q=0.5", BINARY);
+        assertEnquiry(BINARY, BINARY);
+    }
+
+    @Test
+    public void testPreferredJson() throws IOException {
+        // Binary is acceptable, but not preferred
+        assertEnquiry(JSON, BINARY + ";q=0.5", JSON);
+        assertEnquiry(JSON, JSON, BINARY + ";q=0.9");
+        assertEnquiry(JSON, JSON);
+    }
+
+    @Test
+    public void testWildcardGetsJson() throws IOException {
+        assertEnquiry(JSON, MediaType.WILDCARD);
+        assertEnquiry(JSON, MediaType.WILDCARD, BINARY + ";q=0.5");
+    }
+
+    /** Enquires about two users and checks the type and the content of the response. */
+    private void assertEnquiry(final String expectedType, final String... accepted) throws IOException {
+        int port = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+        WebTarget target = client.target("http://127.0.0.1:" + port).path(AC_PATH).path(AC_SERVICE_PATH);
+        Response r = target.request(accepted).post(Entity.json("[\"a\", \"b\"]"));
+        try {
+            assertEquals(Response.Status.OK.getStatusCode(), r.getStatus());
+            assertTrue(r.getMediaType().toString(), r.getMediaType().isCompatible(MediaType.valueOf(expectedType)));
+
+            AdmissionControllerResponse[] responses = BINARY.equals(expectedType) ?
+                    AdmissionControllerResponseCodec.read(r.readEntity(InputStream.class)) :
+                    Jsons.fromJson(r.readEntity(String.class), AdmissionControllerResponse[].class);
+            assertEquals(2, responses.length);
+            assertEquals("a", responses[0].getUserToken());
+            assertEquals("b", responses[1].getUserToken());
+            assertTrue(responses[0].isEligible());
+        } finally {
+            r.close();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.cloudbus.mcweb.admissioncontroller;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.cloudbus.mcweb.AdmissionControllerResponse;
+import org.cloudbus.mcweb.DataCentre;
+import org.cloudbus.mcweb.ServerFarm;
+import org.cloudbus.mcweb.User;
+import org.cloudbus.mcweb.rules.RuleEngine;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.cloudbus.mcweb.util.Tests.*;
+
+public class RuleBasedControllerRuleTest {
+
+    private final RuleBasedControllerRule rule = new RuleBasedControllerRule();
+
+    @After
+    public void tearDown() throws Exception {
+        AdmissionController.getInstance().close();
+        RuleEngine.dispose();
+    }
+
+    /** The batch, with duplicates and mixed decisions, is checked as the users one by one. */
+    @Test
+    public void testBatchSameAsPerUser() {
+        Random random = new Random(42);
+        for (String code : CODES) {
+            DataCentre dc = new DataCentre(code, "AWS", new HashSet<>(Arrays.asList("PCI-DSS")), 1);
+            List<User> users = randomUsers(random, 50);
+            // The same user twice, and an equal user
+            User duplicate = users.get(0);
+            users.add(duplicate);
+            users.add(10, duplicate);
+            users.add(new User(duplicate.getUserId(), duplicate.getCitizenships(), duplicate.getTags()));
+
+            boolean[] expected = new boolean[users.size()];
+            for (int i = 0; i < expected.length; i++) {
+                expected[i] = rule.isEligible(users.get(i), dc);
+            }
+            assertEquals(dc.toString(), Arrays.toString(expected), Arrays.toString(rule.areEligible(users, dc)));
+        }
+    }
+
+    @Test
+    public void testBatchWithEligibleAndIneligibleUsers() {
+        DataCentre usDC = new DataCentre("USA", "AWS", new HashSet<>(Arrays.asList("PCI-DSS")), 1);
+        User euUser = new User("EU-User", new HashSet<>(Arrays.asList("BG")), new HashSet<>(Arrays.asList("PCI-DSS")));
+        User usUser = new User("US-User", new HashSet<>(Arrays.asList("USA-AZ")), new HashSet<>(Arrays.asList("PCI-DSS")));
+        List<User> users = Arrays.asList(euUser, usUser, euUser, usUser);
+
+        boolean[] eligible = rule.areEligible(users, usDC);
+        assertEquals("[false, true, false, true]", Arrays.toString(eligible));
+        for (int i = 0; i < eligible.length; i++) {
+            assertEquals(rule.isEligible(users.get(i), usDC), eligible[i]);
+        }
+    }
+
+    /** The admission controller answers duplicate tokens, as if they were enquired separately. */
+    @Test
+    public void testEnquiryWithDuplicateTokens() {
+        DataCentre dc = new DataCentre("DE", "AWS", new HashSet<>(Arrays.asList("PCI-DSS")), 1);
+        IUserResolver resolver = new TestUserResolver();
+        AdmissionController ac = AdmissionController.getInstance();
+        ac.configure(dc, rule, resolver, ServerFarm.DUMMY_FARM);
+
+        List<String> userTokens = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            userTokens.add("User-" + i);
+            userTokens.add("User-" + (i / 2));
+        }
+        List<AdmissionControllerResponse> responses = ac.enquire(userTokens);
+        assertEquals(userTokens.size(), responses.size());
+
+        boolean anyEligible = false;
+        boolean anyIneligible = false;
+        for (int i = 0; i < userTokens.size(); i++) {
+            boolean expected = rule.isEligible(resolver.resolve(userTokens.get(i)), dc);
+            assertEquals(userTokens.get(i), responses.get(i).getUserToken());
+            assertEquals(userTokens.get(i), expected, responses.get(i).isEligible());
+            anyEligible |= expected;
+            anyIneligible |= !expected;
+        }
+        assertTrue(anyEligible);
+        assertTrue(anyIneligible);
+    }
+}
@@ -0,0 +1,118 @@
+package org.cloudbus.mcweb.admissioncontroller;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cloudbus.mcweb.DataCentre;
+import org.cloudbus.mcweb.ServerFarm;
+import org.cloudbus.mcweb.User;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.cloudbus.mcweb.util.Tests.*;
+
+public class SignatureCacheTest {
+
+    @After
+    public void tearDown() throws Exception {
+        AdmissionController.getInstance().close();
+    }
+
+    @Test
+    public void testSignatureIgnoresOrderAndId() {
+        User user1 = new User("User1", new LinkedHashSet<>(Arrays.asList("DE", "BG")),
+                new LinkedHashSet<>(Arrays.asList("PCI-DSS", "US-GOV")));
+        User user2 = new User("User2", new LinkedHashSet<>(Arrays.asList("BG", "DE")),
+                new LinkedHashSet<>(Arrays.asList("US-GOV", "PCI-DSS")));
+        assertEquals(SignatureCache.signature(user1), SignatureCache.signature(user2));
+    }
+
+    @Test
+    public void testSignatureIsUnambiguous() {
+        // Concatenated codes
+        assertNotEquals(signature(set("AB"), set()), signature(set("A", "B"), set()));
+        // Citizenships vs tags
+        assertNotEquals(signature(set("A"), set()), signature(set(), set("A")));
+        // Codes with the separators
+        assertNotEquals(signature(set("A|"), set()), signature(set("A"), set("|")));
+        assertNotEquals(signature(set("1:A"), set()), signature(set("1", "A"), set()));
+    }
+
+    /** Differential test over generated users - the uncached rule is the reference. */
+    @Test
+    public void testSameAsUncachedRule() {
+        IAdmissionControllerRule rule = new CompiledAdmissionControllerRule();
+        Random random = new Random(42);
+        for (String code : CODES) {
+            DataCentre dc = new DataCentre(code, "AWS", set("PCI-DSS"), 1);
+            SignatureCache cache = new SignatureCache(rule, dc, SignatureCache.DEFAULT_MAX_SIZE);
+            for (int batch = 0; batch < 5; batch++) {
+                List<User> users = randomUsers(random, 100);
+                boolean[] expected = new boolean[users.size()];
+                for (int i = 0; i < expected.length; i++) {
+                    expected[i] = rule.isEligible(users.get(i), dc);
+                }
+                assertEquals(dc.toString(), Arrays.toString(expected), Arrays.toString(cache.areEligible(users)));
+            }
+            // The later batches are served mostly from the cache
+            assertTrue(cache.getStats().hitCount() > 0);
+            assertTrue(cache.size() < 500);
+        }
+    }
+
+    @Test
+    public void testCacheDroppedOnConfigure() {
+        CountingRule rule = new CountingRule();
+        DataCentre dc = new DataCentre("DE", "AWS", set(), 1);
+        List<String> userTokens = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            userTokens.add("User-" + i);
+        }
+
+        AdmissionController ac = AdmissionController.getInstance();
+        ac.configure(dc, rule, new TestUserResolver(), ServerFarm.DUMMY_FARM);
+        ac.enquire(userTokens);
+        int checked = rule.checkedUsers.get();
+        assertTrue(checked > 0);
+        assertTrue(checked < userTokens.size());
+
+        // All signatures are cached
+        ac.enquire(userTokens);
+        assertEquals(checked, rule.checkedUsers.get());
+        assertEquals(userTokens.size(), ac.getSignatureCacheStats().hitCount());
+
+        // Even for the same rule and data centre
+        ac.configure(dc, rule, new TestUserResolver(), ServerFarm.DUMMY_FARM);
+        assertEquals(0, ac.getSignatureCacheStats().requestCount());
+        ac.enquire(userTokens);
+        assertEquals(2 * checked, rule.checkedUsers.get());
+    }
+
+    private static String signature(final Set<String> citizenships, final Set<String> tags) {
+        return SignatureCache.signature(new User("User", citizenships, tags));
+    }
+
+    private static Set<String> set(final String... codes) {
+        return codes.length == 0 ? Collections.emptySet() : new HashSet<>(Arrays.asList(codes));
+    }
+
+    /** Counts the users it checks in batches. */
+    private static class CountingRule extends CompiledAdmissionControllerRule {
+        private final AtomicInteger checkedUsers = new AtomicInteger(0);
+
+        @Override
+        public boolean[] areEligible(final List<User> users, final DataCentre dataCentre) {
+            checkedUsers.addAndGet(users.size());
+            return super.areEligible(users, dataCentre);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package org.cloudbus.mcweb.admissioncontroller;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.cloudbus.mcweb.AdmissionControllerUpdate;
+import org.cloudbus.mcweb.DataCentre;
+import org.cloudbus.mcweb.util.Jsons;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.glassfish.jersey.client.ChunkedInput;
+import org.glassfish.jersey.server.ChunkedOutput;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.servlet.ServletContainer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.cloudbus.mcweb.util.Configs.*;
+
+public class UpdatePublisherTest {
+
+    private final AtomicReference<AdmissionControllerUpdate> state = new AtomicReference<>(update(5));
+    private final UpdatePublisher publisher = new UpdatePublisher(state::get);
+    private Server server;
+    private Client client;
+
+    @Before
+    public void setUp() throws Exception {
+        ServletContextHandler context = new ServletContextHandler();
+        context.setContextPath("/");
+        ServletHolder holder = new ServletHolder(new ServletContainer(
+                new ResourceConfig().register(new UpdatesResource(publisher))));
+        holder.setAsyncSupported(true);
+        context.addServlet(holder, "/*");
+        server = new Server(0);
+        server.setHandler(context);
+        server.start();
+        client = ClientBuilder.newClient();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        publisher.close();
+        client.close();
+        server.stop();
+    }
+
+    @Test
+    public void testChangesArePublished() {
+        try (ChunkedInput<String> input = subscribe()) {
+            // Starts with the current state
+            assertEquals(5, read(input).getCostEstimation(), 0);
+
+            state.set(update(7));
+            long start = System.currentTimeMillis();
+            // Skip the heartbeats, if any
+            AdmissionControllerUpdate update;
+            do {
+                update = read(input);
+            } while (update.getCostEstimation() != 7);
+            assertTrue(System.currentTimeMillis() - start < UpdatePublisher.HEARTBEAT_MILLIS);
+        }
+    }
+
+    @Test
+    public void testHeartbeat() {
+        try (ChunkedInput<String> input = subscribe()) {
+            read(input);
+            read(input);
+            // Nothing changes - the state is published again after the heartbeat period
+            long start = System.currentTimeMillis();
+            assertEquals(5, read(input).getCostEstimation(), 0);
+            long period = System.currentTimeMillis() - start;
+            assertTrue(period >= UpdatePublisher.HEARTBEAT_MILLIS - 100);
+            assertTrue(period < UpdatePublisher.HEARTBEAT_MILLIS * 3);
+        }
+    }
+
+    @Test
+    public void testClosedSubscribersAreDropped() throws InterruptedException {
+        ChunkedInput<String> input = subscribe();
+        read(input);
+        assertEquals(1, publisher.getSubscriberCount());
+
+        try (ChunkedInput<String> other = subscribe()) {
+            read(other);
+            assertEquals(2, publisher.getSubscriberCount());
+
+            // The write after the disconnection fails
+            input.close();
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (publisher.getSubscriberCount() > 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals(1, publisher.getSubscriberCount());
+
+            // The other subscriber is still served
+            state.set(update(9));
+            AdmissionControllerUpdate update;
+            do {
+                update = read(other);
+            } while (update.getCostEstimation() != 9);
+        }
+    }
+
+    private ChunkedInput<String> subscribe() {
+        int port = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+        Response r = client.target("http://127.0.0.1:" + port).request(MediaType.APPLICATION_JSON).get();
+        assertEquals(Response.Status.OK.getStatusCode(), r.getStatus());
+        ChunkedInput<String> input = r.readEntity(new GenericType<ChunkedInput<String>>() {});
+        input.setParser(ChunkedInput.createParser(AC_UPDATES_DELIMITER));
+        return input;
+    }
+
+    private static AdmissionControllerUpdate read(final ChunkedInput<String> input) {
+        String chunk = input.read();
+        assertNotNull(chunk);
+        return Jsons.fromJson(chunk, AdmissionControllerUpdate.class);
+    }
+
+    private static AdmissionControllerUpdate update(final double cost) {
+        return new AdmissionControllerUpdate(cost, new DataCentre("DC", "P", Collections.emptySet(), cost));
+    }
+
+    @Path("/")
+    public static class UpdatesResource {
+        private final UpdatePublisher publisher;
+
+        public UpdatesResource(final UpdatePublisher publisher) {
+            this.publisher = publisher;
+        }
+
+        @GET
+        @Produces(MediaType.APPLICATION_JSON)
+        public ChunkedOutput<String> updates() {
+            return publisher.subscribe();
+        }
+    }
+}
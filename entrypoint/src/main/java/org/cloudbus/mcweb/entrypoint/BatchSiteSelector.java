@@ -0,0 +1,140 @@
+package org.cloudbus.mcweb.entrypoint;
+
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Selects the cloud sites of all requests from a batch at once, after all
+ * cloud sites have answered about it. The eligibility, cost and latency of
+ * every (request, cloud site) pair are laid out in flat primitive arrays
+ * (request x cloud site, row by row) and every request's choice is computed
+ * in a single pass over them. The selected cloud site is then handed to each
+ * request (see {@link EPUserRequest#setBatchSelection(CloudSite)}), so that
+ * the woken threads do not repeat the selection.
+ *
+ * <br>
+ * <br>
+ *
+ * The choice is the same as the one of {@link EPUserRequest#selectCloudSite()}
+ * - the cheapest eligible cloud site, which meets the latency SLA, or
+ * otherwise the eligible one with the lowest latency. Ties are broken in
+ * favour of the cheaper cloud site and then of the one configured first.
+ *
+ * <br>
+ * <br>
+ *
+ * The selection runs in the cloud sites pool, not in the dispatcher thread
+ * (see {@link RequestDispatcher}), and the batches in flight are selected
+ * concurrently. Hence, the arrays are allocated per batch and instances are
+ * thread safe.
+ *
+ * @author nikolay.grozev
+ *
+ */
+public class BatchSiteSelector {
+
+    private static final int NONE = -1;
+
+    /** The cloud sites - the columns of the matrices. */
+    private final List<CloudSite> cloudSites;
+
+    /**
+     * Constr.
+     *
+     * @param cloudSites
+     *            - the cloud sites to select from. Must not be null.
+     */
+    public BatchSiteSelector(final List<CloudSite> cloudSites) {
+        Preconditions.checkNotNull(cloudSites);
+        this.cloudSites = cloudSites;
+    }
+
+    /**
+     * Selects the cloud sites of all requests from the batch and hands the
+     * selection to each of them.
+     *
+     * @param batch
+     *            - the batch, whose cloud sites have answered. Must not be
+     *            null.
+     */
+    public void select(final List<EPUserRequest> batch) {
+        Preconditions.checkNotNull(batch);
+        int rows = batch.size();
+        int columns = cloudSites.size();
+        boolean[] eligible = new boolean[rows * columns];
+        double[] costs = new double[rows * columns];
+        double[] latencies = new double[rows * columns];
+        double[] latencySLAs = new double[rows];
+
+        for (int row = 0; row < rows; row++) {
+            latencySLAs[row] = batch.get(row).fillSelectionRow(this, row * columns, eligible, costs, latencies);
+        }
+
+        int[] selection = select(rows, columns, eligible, costs, latencies, latencySLAs);
+
+        for (int row = 0; row < rows; row++) {
+            batch.get(row).setBatchSelection(selection[row] == NONE ? null : cloudSites.get(selection[row]));
+        }
+    }
+
+    /**
+     * Computes the selected column of each row.
+     */
+    private static int[] select(final int rows, final int columns, final boolean[] eligible, final double[] costs,
+            final double[] latencies, final double[] latencySLAs) {
+        int[] selection = new int[rows];
+        for (int row = 0, offset = 0; row < rows; row++, offset += columns) {
+            double sla = latencySLAs[row];
+            int selected = NONE;
+            for (int i = offset; i < offset + columns; i++) {
+                if (eligible[i] && (selected == NONE
+                        || isPreferred(latencies[i], costs[i], latencies[selected], costs[selected], sla))) {
+                    selected = i;
+                }
+            }
+            selection[row] = selected == NONE ? NONE : selected - offset;
+        }
+        return selection;
+    }
+
+    /**
+     * Returns if an eligible cloud site is preferable to another one - if
+     * only the former meets the SLA, or both do and the former is cheaper, or
+     * none does and the former is faster (or as fast and cheaper).
+     *
+     * @param latency
+     *            - the latency to the cloud site.
+     * @param cost
+     *            - the cost of the cloud site.
+     * @param otherLatency
+     *            - the latency to the other cloud site.
+     * @param otherCost
+     *            - the cost of the other cloud site.
+     * @param latencySLA
+     *            - the latency SLA.
+     * @return if the cloud site is preferable to the other one.
+     */
+    static boolean isPreferred(final double latency, final double cost, final double otherLatency,
+            final double otherCost, final double latencySLA) {
+        boolean meetsSLA = latency < latencySLA;
+        if (meetsSLA != otherLatency < latencySLA) {
+            return meetsSLA;
+        }
+        if (meetsSLA) {
+            return cost < otherCost;
+        }
+        return latency < otherLatency || (latency == otherLatency && cost < otherCost);
+    }
+
+    /**
+     * Returns the column of the cloud site.
+     *
+     * @param cloudSite
+     *            - the cloud site. Must not be null.
+     * @return the column of the cloud site, or -1 if it is not selected from.
+     */
+    int column(final CloudSite cloudSite) {
+        return CloudSite.indexOf(cloudSites, cloudSite);
+    }
+}
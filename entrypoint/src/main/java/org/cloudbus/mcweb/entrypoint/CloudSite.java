@@ -3,6 +3,7 @@ package org.cloudbus.mcweb.entrypoint;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.List;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -36,6 +37,10 @@ public class CloudSite implements AutoCloseable {
     private final String loadBalancerAddress;
     /** The IP address of the load balancer, extracted after DNS resolution. */
     private final String ipAddress;
+    /** The index of the cloud site in the entry point configuration, or -1. */
+    private volatile int ordinal = -1;
+    /** Notified when the cloud site becomes unreachable. May be null. */
+    private volatile Consumer<CloudSite> unreachableListener;
 
     /**
      * Constr.
@@ -106,10 +111,87 @@ public class CloudSite implements AutoCloseable {
         Preconditions.checkNotNull(requests);
         Preconditions.checkArgument(!requests.isEmpty());
         for (EPUserRequest userRequest : requests) {
-            userRequest.addResponseFromCloudSite(new EPAdmissionControllerResponse(userRequest.getUserToken(), true, 0, this));
+            userRequest.addResponseFromCloudSite(this, true, 0);
         }
     }
 
+    /**
+     * Returns if the cloud site is reachable at the moment. This
+     * implementation answers locally and is always connected.
+     * 
+     * @return if the cloud site is reachable at the moment.
+     */
+    public boolean isConnected() {
+        return true;
+    }
+
+    /**
+     * Returns the index of this cloud site in the configuration of the entry
+     * point, or -1 if it is not configured in one.
+     * 
+     * @return the index of this cloud site, or -1.
+     */
+    public int getOrdinal() {
+        return ordinal;
+    }
+
+    /**
+     * Sets the index of this cloud site in the configuration of the entry point.
+     * 
+     * @param ordinal
+     *            - the index. Must not be negative.
+     */
+    void setOrdinal(final int ordinal) {
+        Preconditions.checkArgument(ordinal >= 0);
+        this.ordinal = ordinal;
+    }
+
+    /**
+     * Sets the listener, which is notified when the cloud site becomes
+     * unreachable - e.g. to evict the decisions made with its answers.
+     * 
+     * @param unreachableListener
+     *            - the listener. May be null.
+     */
+    void setUnreachableListener(final Consumer<CloudSite> unreachableListener) {
+        this.unreachableListener = unreachableListener;
+    }
+
+    /**
+     * Notifies the listener, if any, that the cloud site has become
+     * unreachable. Subclasses, which communicate with the actual clouds, must
+     * call it when the connection is lost.
+     */
+    protected void unreachable() {
+        Consumer<CloudSite> listener = unreachableListener;
+        if (listener != null) {
+            try {
+                listener.accept(this);
+            } catch (RuntimeException e) {
+                LOG.log(Level.SEVERE, "Unreachable listener of " + name + " has failed", e);
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the cloud site in the list. Looks it up by its
+     * ordinal first, so that it is O(1) for the cloud sites of an entry point.
+     * 
+     * @param cloudSites
+     *            - the list of cloud sites. Must not be null.
+     * @param cloudSite
+     *            - the cloud site to look for. Must not be null.
+     * @return the index of the cloud site in the list, or -1 if it is not
+     *         there.
+     */
+    static int indexOf(final List<CloudSite> cloudSites, final CloudSite cloudSite) {
+        int ordinal = cloudSite.getOrdinal();
+        if (ordinal >= 0 && ordinal < cloudSites.size() && cloudSites.get(ordinal) == cloudSite) {
+            return ordinal;
+        }
+        return cloudSites.indexOf(cloudSite);
+    }
+
     /**
      * Returns the IP address (not a DNS name) in the proper format.
      * 
@@ -0,0 +1,129 @@
+package org.cloudbus.mcweb.entrypoint;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * Caches the cloud sites, selected for the users. The users are identified by
+ * their token and network prefix (as in {@link LatencyCache}), since the
+ * selection depends on both - the admission controllers' answers depend on
+ * the user and the latencies on the network. A repeat user, whose decision is cached, can be
+ * redirected straight away, without waiting for a batch and enquiring the
+ * admission controllers again.
+ *
+ * <br>
+ * <br>
+ *
+ * A decision is as fresh as the costs of the admission controllers it is
+ * based on. Thus, the entries expire after a TTL since the selection and are
+ * not refreshed by cache hits. The decisions for a cloud site are evicted as
+ * soon as it becomes unreachable (see {@link #invalidate(CloudSite)}). Only
+ * the selected cloud sites are cached - refused users are enquired again.
+ *
+ * @author nikolay.grozev
+ *
+ */
+public class DecisionCache {
+
+    private final int ipv4PrefixLength;
+    private final int ipv6PrefixLength;
+    private final Cache<String, CloudSite> cache;
+
+    /**
+     * Constr.
+     *
+     * @param maxSize
+     *            - the max number of cached decisions. Must be positive.
+     * @param ttlMillis
+     *            - how long to keep a decision. Should not exceed the period,
+     *            in which the costs of the admission controllers change. Must
+     *            be positive.
+     * @param ipv4PrefixLength
+     *            - the number of leading bits of an IPv4 address, which
+     *            identify its network. Must be in the interval [0; 32].
+     * @param ipv6PrefixLength
+     *            - the number of leading bits of an IPv6 address, which
+     *            identify its network. Must be in the interval [0; 128].
+     */
+    public DecisionCache(final long maxSize, final long ttlMillis, final int ipv4PrefixLength,
+            final int ipv6PrefixLength) {
+        Preconditions.checkArgument(maxSize > 0);
+        Preconditions.checkArgument(ttlMillis > 0);
+        Preconditions.checkArgument(ipv4PrefixLength >= 0 && ipv4PrefixLength <= 32);
+        Preconditions.checkArgument(ipv6PrefixLength >= 0 && ipv6PrefixLength <= 128);
+
+        this.ipv4PrefixLength = ipv4PrefixLength;
+        this.ipv6PrefixLength = ipv6PrefixLength;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Returns the cloud site, selected for the user of the request.
+     *
+     * @param req
+     *            - the request. Must not be null.
+     * @return the cloud site, selected for the user, or null if there is no
+     *         fresh decision.
+     */
+    public CloudSite get(final EPUserRequest req) {
+        Preconditions.checkNotNull(req);
+        return cache.getIfPresent(key(req));
+    }
+
+    /**
+     * Caches the cloud site, selected for the user of the request.
+     *
+     * @param req
+     *            - the request. Must not be null.
+     * @param cloudSite
+     *            - the selected cloud site. Must not be null.
+     */
+    public void put(final EPUserRequest req, final CloudSite cloudSite) {
+        Preconditions.checkNotNull(req);
+        Preconditions.checkNotNull(cloudSite);
+        cache.put(key(req), cloudSite);
+    }
+
+    /**
+     * Evicts all decisions for the cloud site - e.g. because it has become
+     * unreachable.
+     *
+     * @param cloudSite
+     *            - the cloud site. Must not be null.
+     */
+    public void invalidate(final CloudSite cloudSite) {
+        Preconditions.checkNotNull(cloudSite);
+        cache.asMap().values().removeIf(cs -> cs == cloudSite);
+    }
+
+    /**
+     * Returns the number of cached decisions.
+     *
+     * @return the number of cached decisions.
+     */
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * Returns the hit/miss statistics of the cache.
+     *
+     * @return the hit/miss statistics of the cache.
+     */
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    private String key(final EPUserRequest req) {
+        return req.getUserToken() + ' '
+                + LatencyCache.networkPrefix(req.getIpAddress(), ipv4PrefixLength, ipv6PrefixLength);
+    }
+}
@@ -0,0 +1,146 @@
+package org.cloudbus.mcweb.entrypoint;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+
+/**
+ * Statistics about the batches, which the {@link RequestDispatcher} has
+ * actually dispatched - their sizes and how long their oldest requests have
+ * lingered in the queue.
+ *
+ * @author nikolay.grozev
+ *
+ */
+public class DispatchStatistics {
+
+    private long batchCount = 0;
+    private long requestCount = 0;
+    private int minBatchSize = Integer.MAX_VALUE;
+    private int maxBatchSize = 0;
+    private long totalLingerMillis = 0;
+    private long minLingerMillis = Long.MAX_VALUE;
+    private long maxLingerMillis = 0;
+    private long sizeTriggeredCount = 0;
+
+    /**
+     * Records a dispatched batch.
+     *
+     * @param batchSize
+     *            - the number of requests in the batch. Must be positive.
+     * @param lingerMillis
+     *            - how long the oldest request has waited before dispatch.
+     *            Must not be negative.
+     * @param sizeTriggered
+     *            - whether the batch was flushed because of its size, rather
+     *            than because of its linger deadline.
+     */
+    public synchronized void record(final int batchSize, final long lingerMillis, final boolean sizeTriggered) {
+        Preconditions.checkArgument(batchSize > 0);
+        Preconditions.checkArgument(lingerMillis >= 0);
+
+        batchCount++;
+        requestCount += batchSize;
+        minBatchSize = Math.min(minBatchSize, batchSize);
+        maxBatchSize = Math.max(maxBatchSize, batchSize);
+        totalLingerMillis += lingerMillis;
+        minLingerMillis = Math.min(minLingerMillis, lingerMillis);
+        maxLingerMillis = Math.max(maxLingerMillis, lingerMillis);
+        if (sizeTriggered) {
+            sizeTriggeredCount++;
+        }
+    }
+
+    /**
+     * Returns the number of dispatched batches.
+     *
+     * @return the number of dispatched batches.
+     */
+    public synchronized long getBatchCount() {
+        return batchCount;
+    }
+
+    /**
+     * Returns the number of dispatched requests.
+     *
+     * @return the number of dispatched requests.
+     */
+    public synchronized long getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     * Returns how many of the batches were flushed because of their size.
+     *
+     * @return how many of the batches were flushed because of their size.
+     */
+    public synchronized long getSizeTriggeredCount() {
+        return sizeTriggeredCount;
+    }
+
+    /**
+     * Returns the smallest batch size, or 0 if nothing has been dispatched.
+     *
+     * @return the smallest batch size, or 0 if nothing has been dispatched.
+     */
+    public synchronized int getMinBatchSize() {
+        return batchCount == 0 ? 0 : minBatchSize;
+    }
+
+    /**
+     * Returns the largest batch size.
+     *
+     * @return the largest batch size.
+     */
+    public synchronized int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Returns the mean batch size, or NaN if nothing has been dispatched.
+     *
+     * @return the mean batch size, or NaN if nothing has been dispatched.
+     */
+    public synchronized double getMeanBatchSize() {
+        return batchCount == 0 ? Double.NaN : (double) requestCount / batchCount;
+    }
+
+    /**
+     * Returns the shortest linger time in millis, or 0 if nothing has been
+     * dispatched.
+     *
+     * @return the shortest linger time in millis.
+     */
+    public synchronized long getMinLingerMillis() {
+        return batchCount == 0 ? 0 : minLingerMillis;
+    }
+
+    /**
+     * Returns the longest linger time in millis.
+     *
+     * @return the longest linger time in millis.
+     */
+    public synchronized long getMaxLingerMillis() {
+        return maxLingerMillis;
+    }
+
+    /**
+     * Returns the mean linger time in millis, or NaN if nothing has been
+     * dispatched.
+     *
+     * @return the mean linger time in millis.
+     */
+    public synchronized double getMeanLingerMillis() {
+        return batchCount == 0 ? Double.NaN : (double) totalLingerMillis / batchCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return Objects.toStringHelper(getClass())
+                .add("Batches", batchCount)
+                .add("Requests", requestCount)
+                .add("SizeTriggered", sizeTriggeredCount)
+                .add("BatchSize[min/mean/max]", String.format("%d/%.2f/%d", getMinBatchSize(), getMeanBatchSize(), maxBatchSize))
+                .add("Linger[min/mean/max]", String.format("%d/%.2f/%d", getMinLingerMillis(), getMeanLingerMillis(), maxLingerMillis))
+                .toString();
+    }
+}
@@ -1,16 +1,20 @@
 package org.cloudbus.mcweb.entrypoint;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.cloudbus.cloudsim.ex.geolocation.IGeolocationService;
 import org.cloudbus.mcweb.UserRequest;
-import org.eclipse.jetty.util.ConcurrentHashSet;
 
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
@@ -35,8 +39,9 @@ import com.google.common.base.Preconditions;
  * 
  * <br>
  * 
- * As some of these run in different threads, all methods of this class are
- * synchronised.
+ * As some of these run in different threads, the methods of this class are
+ * synchronised. The only exception is the registration of the cloud sites'
+ * responses - each cloud site writes its own response slot without locking.
  * 
  * @author nikolay.grozev
  *
@@ -46,10 +51,46 @@ public class EPUserRequest extends UserRequest {
     /** Logger. */
     private static final Logger LOG = Logger.getLogger(EPUserRequest.class.getCanonicalName());
 
-    final List<EPAdmissionControllerResponse> viableCloudSiteResponses;
-    private boolean processed = false;
+    /** A response slot of a cloud site, which has not responded. */
+    private static final long NO_RESPONSE = 0x7ff0000000000001L;
+    /** A response slot of a cloud site, which has refused the user. */
+    private static final long INELIGIBLE = 0x7ff0000000000002L;
+
+    /** The cloud sites, which can respond about this request. */
+    private volatile List<CloudSite> cloudSites = Collections.emptyList();
+    /**
+     * The response of each cloud site, at the same index as the cloud site -
+     * the bits of the cost estimation, if the user is eligible, or
+     * {@link #NO_RESPONSE} or {@link #INELIGIBLE}. The two are NaNs, which
+     * {@link Double#doubleToLongBits(double)} never returns. Each cloud site
+     * writes only its own slot, so no locking is needed.
+     */
+    private volatile AtomicLongArray responses = new AtomicLongArray(0);
+    private volatile boolean processed = false;
     private double latencySLA = -1;
     private IGeolocationService geoLocationService;
+    /** Caches the latencies from the geo-location service. May be null. */
+    private LatencyCache latencyCache;
+    /** The latencies to the cloud sites from the latency cache, looked up once. */
+    private LatencyCache.NetworkLatencies cachedLatencies;
+    /** Completed when the batch, containing this request, has been served. */
+    private final CompletableFuture<EPUserRequest> completion = new CompletableFuture<>();
+    /** When the request was submitted for dispatch, as per System.nanoTime(). */
+    private long submissionTime;
+    /** The cloud sites, which have not answered yet. Null, if not tracked. */
+    private Set<CloudSite> pendingCloudSites;
+    /** Whether the cloud site has been selected together with the whole batch. */
+    private boolean batchSelected = false;
+    /** The cloud site, selected together with the whole batch. May be null. */
+    private CloudSite batchSelection;
+    /** Where to cache the selected cloud site, once served. Null, if not to be cached. */
+    private volatile DecisionCache decisionCache;
+
+    /** By default, remember up to that many logged addresses per window. */
+    static final int DEFAULT_LOGGED_ADDRESSES_CAPACITY = 100_000;
+    /** By default, log the latency of an address at most once a day. */
+    static final long DEFAULT_LOGGED_ADDRESSES_WINDOW = TimeUnit.DAYS.toMillis(1);
+    private static final double LOGGED_ADDRESSES_FALSE_POSITIVE_RATE = 0.01;
 
     private static final Comparator<EPAdmissionControllerResponse> COST_CMP = new Comparator<EPAdmissionControllerResponse>() {
         @Override
@@ -70,7 +111,24 @@ public class EPUserRequest extends UserRequest {
      */
     public EPUserRequest(final String ipAddress, final String userToken) {
         super(ipAddress, userToken);
-        this.viableCloudSiteResponses = new ArrayList<>();
+    }
+
+    /**
+     * Sets the cloud sites, which will be enquired about this request, and
+     * allocates a response slot for each of them. Must be called before the
+     * cloud sites respond.
+     * 
+     * @param cloudSites
+     *            - the cloud sites. Must not be null.
+     */
+    public synchronized void setCloudSites(final List<CloudSite> cloudSites) {
+        Preconditions.checkNotNull(cloudSites);
+        AtomicLongArray newResponses = new AtomicLongArray(cloudSites.size());
+        for (int i = 0; i < cloudSites.size(); i++) {
+            newResponses.set(i, NO_RESPONSE);
+        }
+        this.cloudSites = cloudSites;
+        this.responses = newResponses;
     }
 
     /**
@@ -79,33 +137,76 @@ public class EPUserRequest extends UserRequest {
      * @param response
      *            - the new response. Must no be null.
      */
-    public synchronized void addResponseFromCloudSite(final EPAdmissionControllerResponse response) {
+    public void addResponseFromCloudSite(final EPAdmissionControllerResponse response) {
         Preconditions.checkNotNull(response);
         Preconditions.checkArgument(response.getUserToken().equals(getUserToken()));
-        LOG.log(Level.INFO, "User {0}, Receiving response from {1}, Eligibility={2}, Cost={3} ", 
-                new Object[] {toString(),
-                    response.getCloudSite().getName(),
-                    response.isEligible(),
-                    response.getCostEstimation() });
-
-        if (response.isEligible()) {
-            // Keep it sorted
-            int pos = Collections.binarySearch(viableCloudSiteResponses, response, COST_CMP);
-            if (pos < 0) {
-                pos = -pos - 1;
-            }
-            viableCloudSiteResponses.add(pos, response);
+        addResponseFromCloudSite(response.getCloudSite(), response.isEligible(), response.getCostEstimation());
+    }
+
+    /**
+     * Registers the response of the cloud site to this request. Does not lock
+     * or allocate.
+     * 
+     * @param cloudSite
+     *            - the cloud site, which responds. Responses from cloud sites,
+     *            which are not set with {@link #setCloudSites(List)}, are
+     *            ignored.
+     * @param eligible
+     *            - whether the user is eligible.
+     * @param costEstimation
+     *            - the cost estimation.
+     */
+    public void addResponseFromCloudSite(final CloudSite cloudSite, final boolean eligible,
+            final double costEstimation) {
+        AtomicLongArray currentResponses = responses;
+        int slot = CloudSite.indexOf(cloudSites, cloudSite);
+        if (slot < 0 || slot >= currentResponses.length()) {
+            // E.g. the entry point has been reconfigured meanwhile
+            LOG.log(Level.WARNING, "Ignoring the response of {0} - it is not enquired about {1}",
+                    new Object[] { cloudSite.getName(), this });
+            return;
+        }
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.log(Level.FINE, "User {0}, Receiving response from {1}, Eligibility={2}, Cost={3} ", 
+                    new Object[] {toString(),
+                        cloudSite.getName(),
+                        eligible,
+                        costEstimation });
         }
+
+        currentResponses.set(slot, eligible ? Double.doubleToLongBits(costEstimation) : INELIGIBLE);
         setProcessed(true);
     }
 
+    /**
+     * Returns the responses of the cloud sites, which have accepted the user,
+     * ordered by cost. Meant for diagnostics - the selection does not need
+     * them ordered.
+     * 
+     * @return the responses of the cloud sites, which have accepted the user.
+     */
+    List<EPAdmissionControllerResponse> getViableCloudSiteResponses() {
+        List<CloudSite> currentCloudSites = cloudSites;
+        AtomicLongArray currentResponses = responses;
+        List<EPAdmissionControllerResponse> result = new ArrayList<>();
+        for (int i = 0; i < currentResponses.length(); i++) {
+            long response = currentResponses.get(i);
+            if (response != NO_RESPONSE && response != INELIGIBLE) {
+                result.add(new EPAdmissionControllerResponse(getUserToken(), true, Double.longBitsToDouble(response),
+                        currentCloudSites.get(i)));
+            }
+        }
+        Collections.sort(result, COST_CMP);
+        return result;
+    }
+
     /**
      * Sets this request as processed.
      * 
      * @param processed
      *            - the processed flag.
      */
-    public synchronized void setProcessed(final boolean processed) {
+    public void setProcessed(final boolean processed) {
         this.processed = processed;
     }
 
@@ -114,10 +215,107 @@ public class EPUserRequest extends UserRequest {
      * 
      * @return if this request is processed.
      */
-    public synchronized boolean isProcessed() {
+    public boolean isProcessed() {
         return processed;
     }
 
+    /**
+     * Returns a future, which is completed once the batch containing this
+     * request has been served (or abandoned on shutdown).
+     * 
+     * @return a future, which is completed once the request has been served.
+     */
+    public CompletableFuture<EPUserRequest> getCompletion() {
+        return completion;
+    }
+
+    /**
+     * Marks the request as served by its batch and releases whoever waits for
+     * it. Subsequent calls have no effect.
+     */
+    void complete() {
+        completion.complete(this);
+    }
+
+    /**
+     * Returns when the request was submitted for dispatch.
+     * 
+     * @return when the request was submitted, as per {@link System#nanoTime()}.
+     */
+    synchronized long getSubmissionTime() {
+        return submissionTime;
+    }
+
+    /**
+     * Sets when the request was submitted for dispatch.
+     * 
+     * @param submissionTime
+     *            - the submission time, as per {@link System#nanoTime()}.
+     */
+    synchronized void setSubmissionTime(final long submissionTime) {
+        this.submissionTime = submissionTime;
+    }
+
+    /**
+     * Starts tracking which of the specified cloud sites have answered, so
+     * that {@link #isDecided()} can tell if the selection can still change.
+     * 
+     * @param cloudSites
+     *            - the cloud sites, which will be enquired. Must not be null.
+     */
+    synchronized void expectResponsesFrom(final Collection<CloudSite> cloudSites) {
+        Preconditions.checkNotNull(cloudSites);
+        this.pendingCloudSites = new LinkedHashSet<>(cloudSites);
+    }
+
+    /**
+     * Marks that the cloud site has answered about this request (it may have
+     * not sent any response, e.g. if it failed).
+     * 
+     * @param cloudSite
+     *            - the cloud site. Must not be null.
+     * @return if the selection of a cloud site can not change anymore.
+     */
+    synchronized boolean cloudSiteAnswered(final CloudSite cloudSite) {
+        Preconditions.checkNotNull(cloudSite);
+        if (pendingCloudSites != null) {
+            pendingCloudSites.remove(cloudSite);
+        }
+        return isDecided();
+    }
+
+    /**
+     * Returns if the result of {@link #selectCloudSite()} can not change,
+     * regardless of what the cloud sites, which have not answered yet,
+     * respond. This is the case when every pending cloud site is either
+     * slower than the SLA while a viable cloud site meets it, or slower than
+     * every viable cloud site so far.
+     * 
+     * @return if the selection of a cloud site can not change anymore.
+     */
+    synchronized boolean isDecided() {
+        if (pendingCloudSites == null || pendingCloudSites.isEmpty()) {
+            return true;
+        }
+        CloudSite selected = selectCloudSite(false);
+        if (selected == null) {
+            // Any of the pending ones may turn out to be viable
+            return false;
+        }
+
+        double selectedLatency = latency(selected, false);
+        for (CloudSite pending : pendingCloudSites) {
+            double latency = latency(pending, false);
+            // A pending site, which meets the SLA can be cheaper than the
+            // selected one. If none of the viable ones meets the SLA, a
+            // pending site can be selected as the one with the lowest latency
+            if (latency < latencySLA || latency <= selectedLatency) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Returns the latency SLA.
      * 
@@ -150,8 +348,58 @@ public class EPUserRequest extends UserRequest {
         this.geoLocationService = geoLocationService;
     }
 
-    static Set<String> loggedAddresses = new ConcurrentHashSet<String>();
-    
+    /**
+     * Returns where to cache the cloud site, selected for this request.
+     * 
+     * @return the decision cache, or null if the decision should not be
+     *         cached - e.g. it has been served from the cache.
+     */
+    DecisionCache getDecisionCache() {
+        return decisionCache;
+    }
+
+    /**
+     * Sets where to cache the cloud site, selected for this request.
+     * 
+     * @param decisionCache
+     *            - the decision cache. May be null.
+     */
+    void setDecisionCache(final DecisionCache decisionCache) {
+        this.decisionCache = decisionCache;
+    }
+
+    /**
+     * Sets the cache of the latencies to the cloud sites.
+     * 
+     * @param latencyCache
+     *            - the cache. If null, the geo-location service is used
+     *            directly.
+     */
+    public synchronized void setLatencyCache(final LatencyCache latencyCache) {
+        this.latencyCache = latencyCache;
+        this.cachedLatencies = null;
+    }
+
+    /** The addresses, whose latency has been logged recently. */
+    private static volatile RotatingBloomFilter loggedAddresses = new RotatingBloomFilter(
+            DEFAULT_LOGGED_ADDRESSES_CAPACITY, LOGGED_ADDRESSES_FALSE_POSITIVE_RATE, DEFAULT_LOGGED_ADDRESSES_WINDOW);
+
+    /**
+     * Resets which addresses have had their latency logged recently. The
+     * latency of an address is logged at most once within a window (up to
+     * two, if it is seen at its end), and the memory used for that does not
+     * depend on the number of addresses.
+     * 
+     * @param capacity
+     *            - how many addresses to remember per window. Must be
+     *            positive.
+     * @param windowMillis
+     *            - the window. Must be positive.
+     */
+    static void configureLoggedAddresses(final int capacity, final long windowMillis) {
+        loggedAddresses = new RotatingBloomFilter(capacity, LOGGED_ADDRESSES_FALSE_POSITIVE_RATE, windowMillis);
+    }
+
     /**
      * Returns the best cloud site, or null if the user should be refused
      * access.
@@ -160,44 +408,118 @@ public class EPUserRequest extends UserRequest {
      *         access.
      */
     public synchronized CloudSite selectCloudSite() {
+        return batchSelected ? batchSelection : selectCloudSite(true);
+    }
+
+    /**
+     * Sets the cloud site, selected by a {@link BatchSiteSelector} together
+     * with the rest of the batch. Subsequent calls to
+     * {@link #selectCloudSite()} return it, rather than selecting again.
+     * 
+     * @param cloudSite
+     *            - the selected cloud site, or null if the user should be
+     *            refused access.
+     */
+    synchronized void setBatchSelection(final CloudSite cloudSite) {
+        this.batchSelection = cloudSite;
+        this.batchSelected = true;
+    }
+
+    /**
+     * Writes the eligibility, cost and latency of every cloud site, which
+     * has accepted this request, into the row of the selector's matrices. The
+     * latencies are computed only for the eligible ones.
+     * 
+     * @param selector
+     *            - determines the column of each cloud site. Must not be
+     *            null.
+     * @param offset
+     *            - the index of the row's first cell.
+     * @param eligible
+     *            - the eligibility matrix. Only the eligible cells are set.
+     * @param costs
+     *            - the cost matrix.
+     * @param latencies
+     *            - the latency matrix.
+     * @return the latency SLA of this request.
+     */
+    synchronized double fillSelectionRow(final BatchSiteSelector selector, final int offset,
+            final boolean[] eligible, final double[] costs, final double[] latencies) {
         Preconditions.checkArgument(latencySLA > 0);
         Preconditions.checkNotNull(geoLocationService);
 
+        for (int i = 0; i < responses.length(); i++) {
+            long response = responses.get(i);
+            if (response != NO_RESPONSE && response != INELIGIBLE) {
+                CloudSite cloudSite = cloudSites.get(i);
+                int column = selector.column(cloudSite);
+                if (column >= 0) {
+                    eligible[offset + column] = true;
+                    costs[offset + column] = Double.longBitsToDouble(response);
+                    latencies[offset + column] = latency(cloudSite, true);
+                }
+            }
+        }
+        return latencySLA;
+    }
+
+    private CloudSite selectCloudSite(final boolean log) {
+        Preconditions.checkArgument(latencySLA > 0);
+        Preconditions.checkNotNull(geoLocationService);
+
+        // A single pass - the responses need not be ordered by cost
         CloudSite selectedCloud = null;
-        double selectedLatency = Double.MAX_VALUE;
+        double selectedLatency = Double.NaN;
+        double selectedCost = Double.NaN;
+        for (int i = 0; i < responses.length(); i++) {
+            long response = responses.get(i);
+            if (response != NO_RESPONSE && response != INELIGIBLE) {
+                CloudSite cloudSite = cloudSites.get(i);
+                double cost = Double.longBitsToDouble(response);
+                double latency = latency(cloudSite, log);
+                if (selectedCloud == null
+                        || BatchSiteSelector.isPreferred(latency, cost, selectedLatency, selectedCost, latencySLA)) {
+                    selectedCloud = cloudSite;
+                    selectedLatency = latency;
+                    selectedCost = cost;
+                }
+            }
+        }
+        return selectedCloud;
+    }
 
-        for (EPAdmissionControllerResponse cloudSiteResponse : viableCloudSiteResponses) {
-            double latency = geoLocationService
-                    .latency(getIpAddress(), cloudSiteResponse.getCloudSite().getIPAddress());
-            if (Double.isNaN(latency)) {
+    /**
+     * Returns the latency to the cloud site, or the SLA if it is unknown.
+     */
+    private double latency(final CloudSite cloudSite, final boolean log) {
+        double latency;
+        if (latencyCache != null && latencyCache.contains(cloudSite)) {
+            if (cachedLatencies == null) {
+                cachedLatencies = latencyCache.latencies(getIpAddress());
+            }
+            latency = cachedLatencies.get(cloudSite.getOrdinal());
+        } else {
+            latency = geoLocationService.latency(getIpAddress(), cloudSite.getIPAddress());
+        }
+        if (Double.isNaN(latency)) {
+            if (log) {
                 LOG.log(Level.WARNING, 
                         "Could not find the latency between {0} and {1} Considering the latency to be the SLA: {2}", 
                         new Object[] { getIpAddress(),
-                                       cloudSiteResponse.getCloudSite().getIPAddress(),
+                                       cloudSite.getIPAddress(),
                                        latencySLA });
-                latency = latencySLA;
-            } else {
-                if(!loggedAddresses.contains(getIpAddress())) {
-                    LOG.log(Level.WARNING, 
-                        "-->> Latency between {0} and {1} is: {2}", 
-                        new Object[] { getIpAddress(),
-                                       cloudSiteResponse.getCloudSite().getIPAddress(),
-                                       latency });
-                    loggedAddresses.add(getIpAddress());
-                }
             }
-            
-            if (latency < latencySLA) {
-                selectedCloud = cloudSiteResponse.getCloudSite();
-                selectedLatency = latency;
-                break;
-            } else if (selectedLatency > latency) {
-                selectedCloud = cloudSiteResponse.getCloudSite();
-                selectedLatency = latency;
+            latency = latencySLA;
+        } else {
+            if(log && loggedAddresses.add(getIpAddress())) {
+                LOG.log(Level.WARNING, 
+                    "-->> Latency between {0} and {1} is: {2}", 
+                    new Object[] { getIpAddress(),
+                                   cloudSite.getIPAddress(),
+                                   latency });
             }
         }
-        
-        return selectedCloud;
+        return latency;
     }
 
     @Override
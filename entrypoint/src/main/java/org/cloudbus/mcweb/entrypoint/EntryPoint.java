@@ -5,20 +5,21 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.cloudbus.cloudsim.ex.geolocation.IGeolocationService;
 import org.cloudbus.cloudsim.ex.geolocation.geoip2.GeoIP2PingERService;
+import org.cloudbus.mcweb.util.ThreadPools;
 
 import com.google.common.base.Preconditions;
+import com.google.common.cache.CacheStats;
 
 import static org.cloudbus.mcweb.entrypoint.EntryPointConfigUtil.*;
 import static org.cloudbus.mcweb.util.Closeables.*;
@@ -36,33 +37,46 @@ public final class EntryPoint implements AutoCloseable {
     private static final Logger LOG = Logger.getLogger(EntryPoint.class.getCanonicalName());
 
     /** List of all cloud sites in the multi-cloud env. */
-    private List<CloudSite> cloudSites = new ArrayList<>();
-    /** List of the incoming users, which have not been redirected yet. */
-    private List<EPUserRequest> userRequests = new ArrayList<>();
+    private volatile List<CloudSite> cloudSites = new ArrayList<>();
     /** ThreadPool for connecting to admission controllers asynch. */
-    private ExecutorService cloudSitesThreadPool;
+    private volatile ExecutorService cloudSitesThreadPool;
+    /** Batches the incoming users, which have not been redirected yet. */
+    private volatile RequestDispatcher dispatcher;
 
     /** A geo-location services to determine the latencies between hosts. */
-    private IGeolocationService geoLocationService;
+    private volatile IGeolocationService geoLocationService;
+    /** Caches the latencies from the geo-location service, or null. */
+    private volatile LatencyCache latencyCache;
+    /** Caches the cloud sites, selected for repeat users, or null. */
+    private volatile DecisionCache decisionCache;
 
-    /** A lock obj to synch the access to the not yet served user requests. */
+    /** How many times a reported latency can exceed the latency SLA. */
+    public static final double MAX_REPORTED_SLA_MULTIPLE = 10;
+
+    /** A lock obj to synch the (re)configuration of the entry point. */
     private final Object lock = new Object();
-    /** Periodically submits requests to cloud sites (admission controllers). */
-    private Timer bacthRequestTimer = null;
-    /** The thread, submitting requests to cloud sites (admission controllers). */
-    private TimerTask bacthRequestTimerTask = null;
 
     /*
      * Members below are read from configuration
      */
     /** The target latency SLA. */
-    private double latencySLA = -1;
-    /** Period for the Timer. */
-    private long periodBetweenBatchUserDispatch = -1;
+    private volatile double latencySLA = -1;
+    /** Max number of requests in a batch. */
+    private volatile int maxBatchSize = -1;
+    /** Max time a request can wait for its batch to be flushed. */
+    private volatile long maxBatchLinger = -1;
     /** How long to wait for a cloud sites (admission controller) to respond. */
-    private long cloudSiteResponseTimeout = -1;
+    private volatile long cloudSiteResponseTimeout = -1;
+    /** Whether to release requests as soon as their selection is decided. */
+    private volatile boolean incrementalSelection = false;
+    /** In incremental mode - max time between submission and release. */
+    private volatile long requestBudget = -1;
     /** How long can a request wait. */
-    private long maxRequestPeriod = -1;
+    private volatile long maxRequestPeriod = -1;
+    /** Whether to suspend the servlet requests, rather than block their threads. */
+    private volatile boolean asyncServlets = false;
+    /** The proxies, whose forwarding headers are trusted. Null, if all are. */
+    private volatile IPPrefixTrie<Boolean> trustedProxies = null;
 
     /** Singleton instance. */
     private static final EntryPoint instance = new EntryPoint();
@@ -116,16 +130,103 @@ public final class EntryPoint implements AutoCloseable {
             LOG.info("Configure the entry point.");
             
             this.cloudSites = Collections.unmodifiableList(parseCloudSites(cloudSitesStream, cloudSiteFactory));
+            for (int i = 0; i < cloudSites.size(); i++) {
+                cloudSites.get(i).setOrdinal(i);
+            }
     
             Properties props = parseConfig(configStream);
             this.latencySLA = Double.parseDouble(props.getProperty(LATENCY_SLA_PROP));
-            this.periodBetweenBatchUserDispatch = Long.parseLong(props.getProperty(PERIOD_BETWEEN_BATCH_USER_DISPATCH_PROP));
+            this.maxBatchSize = Integer.parseInt(props.getProperty(MAX_BATCH_SIZE_PROP, String.valueOf(Integer.MAX_VALUE)));
+            this.maxBatchLinger = Long.parseLong(props.getProperty(MAX_BATCH_LINGER_PROP, 
+                    props.getProperty(PERIOD_BETWEEN_BATCH_USER_DISPATCH_PROP)));
             this.cloudSiteResponseTimeout = Long.parseLong(props.getProperty(CLOUD_SITE_RESPONSE_TIMEOUT_PROP));
+            this.incrementalSelection = Boolean.parseBoolean(props.getProperty(INCREMENTAL_SELECTION_PROP, "false"));
+            this.requestBudget = Long.parseLong(props.getProperty(REQUEST_BUDGET_PROP,
+                    String.valueOf(maxBatchLinger + cloudSiteResponseTimeout)));
             this.maxRequestPeriod = Long.parseLong(props.getProperty(MAX_REQUEST_PERIOD_PROP));
+            this.asyncServlets = Boolean.parseBoolean(props.getProperty(ASYNC_SERVLETS_PROP, "false"));
+            this.trustedProxies = parseTrustedProxies(props.getProperty(TRUSTED_PROXIES_PROP));
     
             this.geoLocationService = geoLocationService;
-            this.cloudSitesThreadPool = Executors.newCachedThreadPool();
+            this.cloudSitesThreadPool = ThreadPools.newCachedThreadPool();
+            this.latencyCache = newLatencyCache(props);
+            this.decisionCache = newDecisionCache(props);
+            EPUserRequest.configureLoggedAddresses(
+                    Integer.parseInt(props.getProperty(LOGGED_ADDRESSES_CAPACITY_PROP,
+                            String.valueOf(EPUserRequest.DEFAULT_LOGGED_ADDRESSES_CAPACITY))),
+                    Long.parseLong(props.getProperty(LOGGED_ADDRESSES_WINDOW_PROP,
+                            String.valueOf(EPUserRequest.DEFAULT_LOGGED_ADDRESSES_WINDOW))));
+            this.dispatcher = new RequestDispatcher(cloudSites, cloudSitesThreadPool,
+                    maxBatchSize, maxBatchLinger, cloudSiteResponseTimeout, incrementalSelection, requestBudget,
+                    new BatchSiteSelector(cloudSites));
+        }
+    }
+
+    /**
+     * Creates the latency cache, as per the configuration, and starts warming
+     * it up in the background if enabled. Returns null if the cache is
+     * disabled.
+     */
+    private LatencyCache newLatencyCache(final Properties props) {
+        long size = Long.parseLong(props.getProperty(LATENCY_CACHE_SIZE_PROP, "100000"));
+        if (size == 0) {
+            return null;
+        }
+        LatencyCache cache = new LatencyCache(geoLocationService, cloudSites, size,
+                Long.parseLong(props.getProperty(LATENCY_CACHE_TTL_PROP, String.valueOf(TimeUnit.HOURS.toMillis(1)))),
+                Integer.parseInt(props.getProperty(LATENCY_CACHE_IPV4_PREFIX_PROP,
+                        String.valueOf(LatencyCache.DEFAULT_IPV4_PREFIX_LENGTH))),
+                Integer.parseInt(props.getProperty(LATENCY_CACHE_IPV6_PREFIX_PROP,
+                        String.valueOf(LatencyCache.DEFAULT_IPV6_PREFIX_LENGTH))),
+                Double.parseDouble(props.getProperty(LATENCY_EWMA_WEIGHT_PROP,
+                        String.valueOf(LatencyCache.DEFAULT_EWMA_WEIGHT))),
+                Integer.parseInt(props.getProperty(LATENCY_MIN_SAMPLES_PROP,
+                        String.valueOf(LatencyCache.DEFAULT_MIN_SAMPLES))));
+
+        InputStream monitoringSites = EntryPoint.class.getResourceAsStream(LatencyCache.MONITORING_SITES_RESOURCE);
+        if (Boolean.parseBoolean(props.getProperty(LATENCY_CACHE_WARM_UP_PROP, "false")) && monitoringSites != null) {
+            cloudSitesThreadPool.execute(() -> cache.warmUp(monitoringSites));
+        }
+        return cache;
+    }
+
+    /**
+     * Parses the comma separated addresses and prefixes of the trusted
+     * proxies. Returns null if not specified, i.e. if all are trusted.
+     */
+    private static IPPrefixTrie<Boolean> parseTrustedProxies(final String proxies) {
+        if (proxies == null) {
+            return null;
+        }
+        IPPrefixTrie<Boolean> trie = new IPPrefixTrie<>();
+        for (String proxy : proxies.split(",")) {
+            if (!proxy.trim().isEmpty()) {
+                trie.put(proxy.trim(), Boolean.TRUE);
+            }
+        }
+        return trie;
+    }
+
+    /**
+     * Creates the decision cache, as per the configuration, and subscribes it
+     * for the cloud sites becoming unreachable. Returns null if the cache is
+     * disabled.
+     */
+    private DecisionCache newDecisionCache(final Properties props) {
+        long ttl = Long.parseLong(props.getProperty(DECISION_CACHE_TTL_PROP, "0"));
+        if (ttl == 0) {
+            return null;
+        }
+        DecisionCache cache = new DecisionCache(
+                Long.parseLong(props.getProperty(DECISION_CACHE_SIZE_PROP, "100000")), ttl,
+                Integer.parseInt(props.getProperty(LATENCY_CACHE_IPV4_PREFIX_PROP,
+                        String.valueOf(LatencyCache.DEFAULT_IPV4_PREFIX_LENGTH))),
+                Integer.parseInt(props.getProperty(LATENCY_CACHE_IPV6_PREFIX_PROP,
+                        String.valueOf(LatencyCache.DEFAULT_IPV6_PREFIX_LENGTH))));
+        for (CloudSite cloudSite : cloudSites) {
+            cloudSite.setUnreachableListener(cache::invalidate);
         }
+        return cache;
     }
 
     /**
@@ -148,73 +249,202 @@ public final class EntryPoint implements AutoCloseable {
         configure(cloudSitesStream, configStream, cloudSiteFactory, new GeoIP2PingERService());
     }
     
-    private void processRequests() {
-        synchronized (lock) {
-            final CountDownLatch latch = new CountDownLatch(cloudSites.size());
-            final List<EPUserRequest> userRequestsDeepCopy = new ArrayList<EPUserRequest>(userRequests);
-            for (CloudSite cloudSite : cloudSites) {
-                cloudSitesThreadPool.execute(new Runnable() {
-                    @Override
-                    public void run() {
-                        try {
-                            if(!userRequestsDeepCopy.isEmpty()) {
-                                cloudSite.enquire(userRequestsDeepCopy);
-                            }
-                        } finally {
-                            latch.countDown();
-                        }
-                    }
-                });
-            }
+    /**
+     * Submits the request for the next batch and blocks until the request is
+     * served or the max request period expires.
+     * 
+     * @param req
+     *            - the request. Must not be null.
+     */
+    public void request(final EPUserRequest req) {
+        CompletableFuture<EPUserRequest> completion = requestAsync(req);
 
-            try {
-                latch.await(cloudSiteResponseTimeout, TimeUnit.MILLISECONDS);
-            } catch (InterruptedException e) {
-                LOG.log(Level.SEVERE, "Could not get the results of all clouds", e);
+        // Blocks until the request is served.
+        try {
+            completion.get(maxRequestPeriod, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            LOG.log(Level.SEVERE, "Waiting interrupted", e);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            LOG.log(Level.SEVERE, "Request has not been served: " + req, e);
+        }
+    }
+
+    /**
+     * Submits the request for the next batch without blocking. If the
+     * decision cache is enabled and has a fresh decision for the user, the
+     * request is served straight away instead.
+     * 
+     * @param req
+     *            - the request. Must not be null.
+     * @return a future, completed when the request has been served.
+     */
+    public CompletableFuture<EPUserRequest> requestAsync(final EPUserRequest req) {
+        Preconditions.checkNotNull(req);
+
+        // Set the latency SLA of the request and geolocation service
+        req.setLatencySLA(latencySLA);
+        req.setGeoLocationService(geoLocationService);
+        req.setLatencyCache(latencyCache);
+        req.setCloudSites(cloudSites);
+
+        // Repeat users are served from the cached decision, if any
+        DecisionCache currentDecisions = decisionCache;
+        if (currentDecisions != null) {
+            CloudSite cloudSite = currentDecisions.get(req);
+            if (cloudSite != null) {
+                req.setBatchSelection(cloudSite);
+                req.setProcessed(true);
+                req.complete();
+                return req.getCompletion();
             }
+            // Cached once the service has selected the cloud site
+            req.setDecisionCache(currentDecisions);
+        }
 
-            userRequests.clear();
-            lock.notifyAll();
+        // Add the request to the queue of requests to send
+        RequestDispatcher currentDispatcher = dispatcher;
+        if (currentDispatcher == null) {
+            req.complete();
+        } else {
+            currentDispatcher.submit(req);
         }
+        return req.getCompletion();
     }
 
-    public void request(final EPUserRequest req) {
+    /**
+     * Selects the cloud site for a served request, and caches the decision if
+     * the decision cache is enabled. The services select through it, so that
+     * the selection is made only once and on their own thread, rather than
+     * again on the thread, which completes the request. The decision is not
+     * cached, if the request has not been processed (e.g. it has timed out)
+     * or the cloud site is not connected at the moment.
+     * 
+     * @param req
+     *            - the served request. Must not be null.
+     * @return the best cloud site, or null if the user should be refused
+     *         access.
+     */
+    public CloudSite selectCloudSite(final EPUserRequest req) {
         Preconditions.checkNotNull(req);
+        CloudSite cloudSite = req.selectCloudSite();
+        DecisionCache cache = req.getDecisionCache();
+        if (cache != null && cloudSite != null && req.isProcessed() && cloudSite.isConnected()) {
+            cache.put(req, cloudSite);
+        }
+        return cloudSite;
+    }
 
-        synchronized (lock) {
-            // Set the latency SLA of the request and geolocation service
-            req.setLatencySLA(latencySLA);
-            req.setGeoLocationService(geoLocationService);
-
-            // Start the timer, which submits the requests to the admission
-            // controller, if it has not been started
-            ensureTimerIsRunning();
-            
-            // Add the request to the queue of requests to send
-            userRequests.add(req);
+    /**
+     * Records the latency, which a user has measured to a cloud site (e.g.
+     * after being redirected to it). Subsequent selections for the user's
+     * network use the moving average of the measurements, rather than the
+     * geo-location estimate.
+     * 
+     * @param userIp
+     *            - the address of the user. Must not be null.
+     * @param cloudSiteName
+     *            - the name of the cloud site. Must not be null.
+     * @param latency
+     *            - the measured latency in millis. Must be plausible (see
+     *            {@link #isPlausibleLatency(double)}).
+     * @return if the measurement has been recorded - i.e. the cloud site is
+     *         known and the latency cache is enabled.
+     */
+    public boolean reportLatency(final String userIp, final String cloudSiteName, final double latency) {
+        Preconditions.checkNotNull(userIp);
+        Preconditions.checkNotNull(cloudSiteName);
+        Preconditions.checkArgument(isPlausibleLatency(latency), "Implausible latency %s", latency);
 
-            // Blocks until the request is served.
-            try {
-                if (!req.isProcessed()) {
-                    lock.wait(maxRequestPeriod);
+        LatencyCache currentCache = latencyCache;
+        if (currentCache != null) {
+            for (CloudSite cloudSite : cloudSites) {
+                if (cloudSite.getName().equals(cloudSiteName)) {
+                    return currentCache.record(userIp, cloudSite, latency);
                 }
-            } catch (InterruptedException e) {
-                LOG.log(Level.SEVERE, "Waiting interrupted", e);
             }
         }
+        return false;
     }
 
-    private void ensureTimerIsRunning() {
-        if (bacthRequestTimer == null || bacthRequestTimerTask == null) {
-            bacthRequestTimer = new Timer("Entry Point Batch Request Timer", true);
-            bacthRequestTimerTask = new TimerTask() {
-                @Override
-                public void run() {
-                    processRequests();
-                }
-            };
-            bacthRequestTimer.schedule(bacthRequestTimerTask, 10, periodBetweenBatchUserDispatch);
-        }
+    /**
+     * Returns if a reported latency is plausible - i.e. finite, not negative
+     * and at most {@link #MAX_REPORTED_SLA_MULTIPLE} times the latency SLA.
+     * 
+     * @param latency
+     *            - the reported latency in millis.
+     * @return if a reported latency is plausible.
+     */
+    public boolean isPlausibleLatency(final double latency) {
+        return Double.isFinite(latency) && latency >= 0
+                && (latencySLA <= 0 || latency <= MAX_REPORTED_SLA_MULTIPLE * latencySLA);
+    }
+
+    /**
+     * Returns how long a request can wait to be served in millis.
+     * 
+     * @return how long a request can wait to be served in millis.
+     */
+    public long getMaxRequestPeriod() {
+        return maxRequestPeriod;
+    }
+
+    /**
+     * Returns whether the servlets should suspend the incoming requests until
+     * they are served, rather than block a container thread.
+     * 
+     * @return whether the servlets should suspend the incoming requests.
+     */
+    public boolean isAsyncServlets() {
+        return asyncServlets;
+    }
+
+    /**
+     * Returns if the forwarding headers (e.g. X-Forwarded-For) of the requests
+     * from the specified address can be trusted - i.e. if it is a trusted
+     * proxy, or if all are trusted (see {@link EntryPointConfigUtil#TRUSTED_PROXIES_PROP}).
+     * 
+     * @param ip
+     *            - the address of the connection. Must not be null.
+     * @return if the forwarding headers of the address can be trusted.
+     */
+    public boolean isTrustedProxy(final String ip) {
+        Preconditions.checkNotNull(ip);
+        IPPrefixTrie<Boolean> currentProxies = trustedProxies;
+        return currentProxies == null || currentProxies.get(ip) != null;
+    }
+
+    /**
+     * Returns statistics about the batches dispatched since the last
+     * configuration, or null if the entry point is not configured.
+     * 
+     * @return statistics about the dispatched batches, or null.
+     */
+    public DispatchStatistics getDispatchStatistics() {
+        RequestDispatcher currentDispatcher = dispatcher;
+        return currentDispatcher == null ? null : currentDispatcher.getStatistics();
+    }
+
+    /**
+     * Returns the hit/miss statistics of the latency cache, or null if the
+     * entry point is not configured or the cache is disabled.
+     * 
+     * @return the statistics of the latency cache, or null.
+     */
+    public CacheStats getLatencyCacheStats() {
+        LatencyCache currentCache = latencyCache;
+        return currentCache == null ? null : currentCache.getStats();
+    }
+
+    /**
+     * Returns the hit/miss statistics of the decision cache, or null if the
+     * entry point is not configured or the cache is disabled.
+     * 
+     * @return the statistics of the decision cache, or null.
+     */
+    public CacheStats getDecisionCacheStats() {
+        DecisionCache currentCache = decisionCache;
+        return currentCache == null ? null : currentCache.getStats();
     }
 
     /**
@@ -228,12 +458,8 @@ public final class EntryPoint implements AutoCloseable {
         synchronized (EntryPoint.class) {
             List<AutoCloseable> closeables = new ArrayList<AutoCloseable>();
             
-            // Stop the request timer thread
-            closeables.add(maybeCloseable(bacthRequestTimer, () -> bacthRequestTimer.purge()));
-            closeables.add(maybeCloseable(bacthRequestTimerTask, () -> bacthRequestTimerTask.cancel()));
-            
-            // Notify all waiting threads
-            closeables.add(notifyAllCloseable(lock));
+            // Stop the dispatcher and release all waiting requests
+            closeables.add(dispatcher);
             
             // Stop all threads from the pool
             closeables.add(maybeCloseable(cloudSitesThreadPool, () -> cloudSitesThreadPool.shutdown()));
@@ -248,8 +474,9 @@ public final class EntryPoint implements AutoCloseable {
                 closeAll(closeables);
             } finally {
                 cloudSites = new ArrayList<>();
-                bacthRequestTimer = null;
-                bacthRequestTimerTask = null;
+                dispatcher = null;
+                latencyCache = null;
+                decisionCache = null;
             }
         }
     }
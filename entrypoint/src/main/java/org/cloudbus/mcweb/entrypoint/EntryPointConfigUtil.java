@@ -32,10 +32,49 @@ public final class EntryPointConfigUtil {
     public static final String LATENCY_SLA_PROP = "latenctSLA";
     /** Config prop key. */
     public static final String PERIOD_BETWEEN_BATCH_USER_DISPATCH_PROP = "periodBetweenBatchUserDispatch";
+    /** Config prop key. Optional - defaults to no size limit. */
+    public static final String MAX_BATCH_SIZE_PROP = "maxBatchSize";
+    /** Config prop key. Optional - defaults to the period between batches. */
+    public static final String MAX_BATCH_LINGER_PROP = "maxBatchLinger";
     /** Config prop key. */
     public static final String CLOUD_SITE_RESPONSE_TIMEOUT_PROP = "cloudSiteResponseTimeout";
     /** Config prop key. */
     public static final String MAX_REQUEST_PERIOD_PROP = "maxRequestPeriod";
+    /** Config prop key. Optional - defaults to false (wait for all cloud sites). */
+    public static final String INCREMENTAL_SELECTION_PROP = "incrementalSelection";
+    /** Config prop key. Optional - defaults to max batch linger + cloud site response timeout. */
+    public static final String REQUEST_BUDGET_PROP = "requestBudget";
+    /** Config prop key. Optional - defaults to false (blocking servlets). */
+    public static final String ASYNC_SERVLETS_PROP = "asyncServlets";
+    /** Config prop key. Optional - defaults to 100000 networks. If 0, the latencies are not cached. */
+    public static final String LATENCY_CACHE_SIZE_PROP = "latencyCacheSize";
+    /** Config prop key. Optional - defaults to 1 hour. */
+    public static final String LATENCY_CACHE_TTL_PROP = "latencyCacheTtl";
+    /** Config prop key. Optional - defaults to 24 bits. */
+    public static final String LATENCY_CACHE_IPV4_PREFIX_PROP = "latencyCacheIPv4Prefix";
+    /** Config prop key. Optional - defaults to 48 bits. */
+    public static final String LATENCY_CACHE_IPV6_PREFIX_PROP = "latencyCacheIPv6Prefix";
+    /** Config prop key. Optional - defaults to false (do not warm up from the PingER monitoring sites). */
+    public static final String LATENCY_CACHE_WARM_UP_PROP = "latencyCacheWarmUp";
+    /** Config prop key. Optional - defaults to 0.3 (the weight of a new measured latency). */
+    public static final String LATENCY_EWMA_WEIGHT_PROP = "latencyEwmaWeight";
+    /** Config prop key. Optional - defaults to 3 (measurements, before they replace the estimate). */
+    public static final String LATENCY_MIN_SAMPLES_PROP = "latencyMinSamples";
+    /** Config prop key. Optional - defaults to 0 (no caching). Should not exceed how long the costs stay valid. */
+    public static final String DECISION_CACHE_TTL_PROP = "decisionCacheTtl";
+    /** Config prop key. Optional - defaults to 100000 decisions. */
+    public static final String DECISION_CACHE_SIZE_PROP = "decisionCacheSize";
+    /** Config prop key. Optional - defaults to 100000 addresses per window. */
+    public static final String LOGGED_ADDRESSES_CAPACITY_PROP = "loggedAddressesCapacity";
+    /** Config prop key. Optional - defaults to 1 day. */
+    public static final String LOGGED_ADDRESSES_WINDOW_PROP = "loggedAddressesWindow";
+    /**
+     * Config prop key. Optional - comma separated addresses or CIDR prefixes
+     * of the proxies, whose forwarding headers (e.g. X-Forwarded-For) are
+     * trusted. If not set, the headers of all requests are trusted. If empty,
+     * of none.
+     */
+    public static final String TRUSTED_PROXIES_PROP = "trustedProxies";
 
     /** Suppress instantiation. */
     private EntryPointConfigUtil() {
@@ -1,6 +1,9 @@
 package org.cloudbus.mcweb.entrypoint;
 
 import java.io.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javax.servlet.*;
 import javax.servlet.http.*;
@@ -16,6 +19,9 @@ public class EntryPointRedirectServelet extends HttpServlet {
     /** Default Serial Version UID. */
     private static final long serialVersionUID = 1L;
 
+    /** Logger. */
+    private static final Logger LOG = Logger.getLogger(EntryPointRedirectServelet.class.getCanonicalName());
+
     public void init() throws ServletException {
     }
 
@@ -26,8 +32,66 @@ public class EntryPointRedirectServelet extends HttpServlet {
         
         // Do the algorithm
         EPUserRequest req = new EPUserRequest(sourceIP, userToken);
-        EntryPoint.getInstance().request(req);
-        CloudSite cs = req.selectCloudSite();
+        EntryPoint ep = EntryPoint.getInstance();
+        if (ep.isAsyncServlets() && request.isAsyncSupported()) {
+            // Release the container thread, until the request is served
+            AsyncContext asyncContext = request.startAsync();
+            asyncContext.setTimeout(ep.getMaxRequestPeriod());
+            AtomicBoolean done = new AtomicBoolean(false);
+            asyncContext.addListener(new AsyncListener() {
+                @Override
+                public void onTimeout(final AsyncEvent event) throws IOException {
+                    redirect(req, asyncContext, done);
+                }
+
+                @Override
+                public void onStartAsync(final AsyncEvent event) throws IOException {
+                }
+
+                @Override
+                public void onError(final AsyncEvent event) throws IOException {
+                    done.set(true);
+                }
+
+                @Override
+                public void onComplete(final AsyncEvent event) throws IOException {
+                }
+            });
+            // Select the cloud site on a container thread, not the dispatcher.
+            // The timeout may have already completed the context.
+            ep.requestAsync(req).whenComplete((r, e) -> {
+                if (!done.get()) {
+                    try {
+                        asyncContext.start(() -> redirect(req, asyncContext, done));
+                    } catch (IllegalStateException ex) {
+                        LOG.log(Level.FINE, "Request completed before it was served " + req, ex);
+                    }
+                }
+            });
+        } else {
+            ep.request(req);
+            redirect(req, response);
+        }
+    }
+
+    /**
+     * Redirects and completes the suspended request, unless it has already
+     * been completed (e.g. timeout and completion racing).
+     */
+    private static void redirect(final EPUserRequest req, final AsyncContext asyncContext, final AtomicBoolean done) {
+        if (done.compareAndSet(false, true)) {
+            try {
+                redirect(req, (HttpServletResponse) asyncContext.getResponse());
+            } catch (IOException | RuntimeException e) {
+                LOG.log(Level.SEVERE, "Could not redirect " + req, e);
+            } finally {
+                asyncContext.complete();
+            }
+        }
+    }
+
+    private static void redirect(final EPUserRequest req, final HttpServletResponse response) throws IOException {
+        CloudSite cs = EntryPoint.getInstance().selectCloudSite(req);
         String redirectAddress = cs == null ? null : cs.getLoadBalancerAddress();
 
         if(redirectAddress != null) {
@@ -40,8 +104,34 @@ public class EntryPointRedirectServelet extends HttpServlet {
         // do nothing.
     }
 
+    /**
+     * Returns the address of the client. The forwarding headers (e.g.
+     * X-Forwarded-For) are only used, if the request comes from a trusted
+     * proxy (see {@link EntryPoint#isTrustedProxy(String)}). Of the addresses
+     * in X-Forwarded-For, the client is the last one, which is not a trusted
+     * proxy.
+     * 
+     * @param request
+     *            - the request. Must not be null.
+     * @return the address of the client.
+     */
     public static String getClientIpAddr(HttpServletRequest request) {
+        EntryPoint ep = EntryPoint.getInstance();
+        if (!ep.isTrustedProxy(request.getRemoteAddr())) {
+            // The client connects directly, and may have forged the headers
+            return request.getRemoteAddr();
+        }
+
         String ip = request.getHeader("X-Forwarded-For");
+        if (ip != null && ip.contains(",")) {
+            // Client, Proxy1, Proxy2 ... - each proxy appends its peer
+            String[] hops = ip.split(",");
+            int i = hops.length - 1;
+            while (i > 0 && ep.isTrustedProxy(hops[i].trim())) {
+                i--;
+            }
+            ip = hops[i].trim();
+        }
         if (ip == null || ip.length() == 0 || "unknown".equalsIgnoreCase(ip)) {
             ip = request.getHeader("Proxy-Client-IP");
         }
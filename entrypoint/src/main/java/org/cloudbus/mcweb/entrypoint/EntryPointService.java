@@ -1,14 +1,20 @@
 package org.cloudbus.mcweb.entrypoint;
 
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.GET;
+import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
 
 import org.cloudbus.mcweb.EntryPointResponse;
 import org.cloudbus.mcweb.util.Jsons;
@@ -17,29 +23,96 @@ import static org.cloudbus.mcweb.util.Configs.*;
 
 @Path(EP_PATH)
 public class EntryPointService {
-    
+
     @GET
     @Path(EP_FULL_SERVICE_PATH)
     @Produces(MediaType.TEXT_PLAIN)
-    public String service(@PathParam(SOURCE_IP_PARAM) final String sourceIP, @PathParam(USER_TOKEN_PARAM) final String userToken) {
-        EPUserRequest req = new EPUserRequest(sourceIP, userToken);
-        EntryPoint.getInstance().request(req);
-        CloudSite cs = req.selectCloudSite();
-        String redirectAddress = cs == null ? null : cs.getLoadBalancerAddress();
-
-        return Objects.toString(redirectAddress);
+    public void service(@PathParam(SOURCE_IP_PARAM) final String sourceIP,
+            @PathParam(USER_TOKEN_PARAM) final String userToken,
+            @Suspended final AsyncResponse asyncResponse) {
+        serve(new EPUserRequest(sourceIP, userToken), asyncResponse, EntryPointService::toRedirectAddress);
     }
 
     @GET
     @Path(EP_SERVICE_PATH)
     @Produces(MediaType.APPLICATION_JSON)
-    public String service(@Context HttpServletRequest request, @PathParam(USER_TOKEN_PARAM) final String userToken) {
+    public void service(@Context HttpServletRequest request,
+            @PathParam(USER_TOKEN_PARAM) final String userToken,
+            @Suspended final AsyncResponse asyncResponse) {
         String sourceIP = EntryPointRedirectServelet.getClientIpAddr(request);
-        EPUserRequest req = new EPUserRequest(sourceIP, userToken);
-        EntryPoint.getInstance().request(req);
-        CloudSite cs = req.selectCloudSite();
+        serve(new EPUserRequest(sourceIP, userToken), asyncResponse, EntryPointService::toJsonResponse);
+    }
+
+    /**
+     * Records the latency, which the calling client has measured to the cloud
+     * site, where it has been redirected. The report is attributed to the
+     * same client address, which the cloud sites are selected for (see
+     * {@link EntryPointRedirectServelet#getClientIpAddr(HttpServletRequest)}).
+     * Hence, the forwarding headers (e.g. X-Forwarded-For) are only used if
+     * the request comes from a trusted proxy.
+     *
+     * @param request
+     *            - the client's request.
+     * @param cloudSite
+     *            - the name of the cloud site.
+     * @param latency
+     *            - the measured latency in millis.
+     * @return 204 if recorded, 404 if the cloud site is unknown (or the
+     *         latencies are not cached), 400 if the latency is not finite,
+     *         negative or implausibly large.
+     */
+    @POST
+    @Path(EP_LATENCY_REPORT_PATH)
+    public Response reportLatency(@Context HttpServletRequest request,
+            @PathParam(CLOUD_SITE_PARAM) final String cloudSite,
+            @PathParam(LATENCY_PARAM) final double latency) {
+        EntryPoint ep = EntryPoint.getInstance();
+        if (!ep.isPlausibleLatency(latency)) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        boolean recorded = ep.reportLatency(EntryPointRedirectServelet.getClientIpAddr(request), cloudSite, latency);
+        return recorded ? Response.noContent().build() : Response.status(Response.Status.NOT_FOUND).build();
+    }
+
+    /**
+     * Serves the request and resumes the suspended response with the result.
+     * If the entry point is configured with async servlets, the calling
+     * container thread is released immediately. Otherwise it is blocked until
+     * the request is served.
+     *
+     * @param req
+     *            - the request to serve. Must not be null.
+     * @param asyncResponse
+     *            - the suspended response. Must not be null.
+     * @param toEntity
+     *            - converts the served request to the response entity.
+     */
+    private static void serve(final EPUserRequest req, final AsyncResponse asyncResponse,
+            final Function<EPUserRequest, String> toEntity) {
+        EntryPoint ep = EntryPoint.getInstance();
+        if (ep.isAsyncServlets()) {
+            // Whatever happens first - completion or timeout, resumes the
+            // response. AsyncResponse.resume ignores subsequent attempts.
+            asyncResponse.setTimeout(ep.getMaxRequestPeriod(), TimeUnit.MILLISECONDS);
+            asyncResponse.setTimeoutHandler(ar -> ar.resume(toEntity.apply(req)));
+            // Select the cloud site outside of the dispatcher thread
+            ep.requestAsync(req).whenCompleteAsync((r, e) -> asyncResponse.resume(toEntity.apply(req)));
+        } else {
+            ep.request(req);
+            asyncResponse.resume(toEntity.apply(req));
+        }
+    }
+
+    private static String toRedirectAddress(final EPUserRequest req) {
+        CloudSite cs = EntryPoint.getInstance().selectCloudSite(req);
+        String redirectAddress = cs == null ? null : cs.getLoadBalancerAddress();
+        return Objects.toString(redirectAddress);
+    }
+
+    private static String toJsonResponse(final EPUserRequest req) {
+        CloudSite cs = EntryPoint.getInstance().selectCloudSite(req);
         //String redirectAddress = cs == null ? null : cs.getLoadBalancerAddress();
-        
+
         EntryPointResponse response = new EntryPointResponse(cs == null ? null : cs.getName(), cs == null? null : cs.getLoadBalancerAddress());
         if(cs instanceof RESTCloudSite) {
         	RESTCloudSite rcs = (RESTCloudSite)cs;
@@ -47,5 +120,5 @@ public class EntryPointService {
         }
         return Jsons.toJson(response);
     }
-    
-}
\ No newline at end of file
+
+}
@@ -0,0 +1,150 @@
+package org.cloudbus.mcweb.entrypoint;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.cloudbus.cloudsim.ex.geolocation.IGeolocationService;
+import org.cloudbus.cloudsim.ex.geolocation.IPMetadata;
+import org.cloudbus.cloudsim.ex.geolocation.geoip2.GeoIP2PingERService;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.net.InetAddresses;
+import com.maxmind.geoip2.DatabaseReader;
+import com.maxmind.geoip2.exception.GeoIp2Exception;
+import com.maxmind.geoip2.model.CityResponse;
+
+/**
+ * A geo-location service, which resolves the coordinates of the addresses
+ * from a GeoIP2 (GeoLite2) database only. Unlike {@link GeoIP2PingERService},
+ * it does not load the PingER data, and is hence created quickly. It is meant
+ * as the delegate of {@link MappedPingERService}, which estimates the
+ * latencies from its own index.
+ *
+ * <br>
+ * <br>
+ *
+ * This service does not estimate latencies. The address descriptions, meta
+ * data and map urls, which the entry point does not use, are served by a
+ * {@link GeoIP2PingERService}, created on first use.
+ *
+ * @author nikolay.grozev
+ *
+ */
+public class GeoIP2LocationService implements IGeolocationService {
+
+    /** Logger. */
+    private static final Logger LOG = Logger.getLogger(GeoIP2LocationService.class.getCanonicalName());
+
+    /** System property with the path to the database, e.g. -Dmcweb.geoIP2Db=/opt/mcweb/GeoLite2-City.mmdb */
+    public static final String DB_PATH_PROP = "mcweb.geoIP2Db";
+    /** The class path resource of the database. */
+    public static final String DB_RESOURCE = "/GeoLite2-City.mmdb";
+
+    /** The mean radius of the Earth in km. */
+    private static final double EARTH_RADIUS = 6371;
+
+    private final DatabaseReader reader;
+    private final Supplier<IGeolocationService> fullService = Suppliers.memoize(GeoIP2PingERService::new);
+
+    /**
+     * Constr.
+     *
+     * @param dbFile
+     *            - the GeoIP2 city database. Must not be null.
+     * @throws IOException
+     *             - if the database can not be read.
+     */
+    public GeoIP2LocationService(final File dbFile) throws IOException {
+        Preconditions.checkNotNull(dbFile);
+        this.reader = new DatabaseReader.Builder(dbFile).build();
+    }
+
+    /**
+     * Returns the database specified with {@link #DB_PATH_PROP}, or the one on
+     * the class path if it is a file, or null if there is none.
+     *
+     * @return the database file, or null.
+     */
+    public static File locateDb() {
+        String prop = System.getProperty(DB_PATH_PROP);
+        if (prop != null) {
+            return new File(prop);
+        }
+        URL url = GeoIP2LocationService.class.getResource(DB_RESOURCE);
+        if (url == null || !"file".equals(url.getProtocol())) {
+            return null;
+        }
+        try {
+            return new File(url.toURI());
+        } catch (URISyntaxException e) {
+            LOG.log(Level.WARNING, "Could not locate the GeoIP2 database", e);
+            return null;
+        }
+    }
+
+    @Override
+    public double[] getCoordinates(final String ip) {
+        try {
+            CityResponse response = reader.city(InetAddresses.forString(ip));
+            Double lat = response.getLocation().getLatitude();
+            Double lon = response.getLocation().getLongitude();
+            return lat == null || lon == null ? null : new double[] { lat, lon };
+        } catch (IllegalArgumentException | IOException | GeoIp2Exception e) {
+            LOG.log(Level.FINE, "Could not locate " + ip, e);
+            return null;
+        }
+    }
+
+    @Override
+    public double distance(final double[] coord1, final double[] coord2) {
+        double lat1 = Math.toRadians(coord1[0]);
+        double lat2 = Math.toRadians(coord2[0]);
+        double sinLat = Math.sin((lat2 - lat1) / 2);
+        double sinLon = Math.sin(Math.toRadians(coord2[1] - coord1[1]) / 2);
+        double a = sinLat * sinLat + Math.cos(lat1) * Math.cos(lat2) * sinLon * sinLon;
+        return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    @Override
+    public double distance(final String ip1, final String ip2) {
+        double[] coord1 = getCoordinates(ip1);
+        double[] coord2 = getCoordinates(ip2);
+        return coord1 == null || coord2 == null ? Double.NaN : distance(coord1, coord2);
+    }
+
+    @Override
+    public double latency(final String ip1, final String ip2) {
+        return Double.NaN;
+    }
+
+    @Override
+    public String getTxtAddress(final String ip) {
+        return fullService.get().getTxtAddress(ip);
+    }
+
+    @Override
+    public IPMetadata getMetaData(final String ip) {
+        return fullService.get().getMetaData(ip);
+    }
+
+    @Override
+    public String getLocationMapUrl(final Double lat, final Double lon) {
+        return fullService.get().getLocationMapUrl(lat, lon);
+    }
+
+    @Override
+    public String getLocationMapUrl(final String ip) {
+        return fullService.get().getLocationMapUrl(ip);
+    }
+
+    @Override
+    public void close() throws Exception {
+        reader.close();
+    }
+}
@@ -0,0 +1,189 @@
+package org.cloudbus.mcweb.entrypoint;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+import com.google.common.net.InetAddresses;
+
+/**
+ * A binary trie of IPv4 and IPv6 prefixes in the CIDR notation (e.g.
+ * 23.20.0.0/14). Finds the longest prefix, which matches an address, in at
+ * most as many steps as the bits of the address, regardless of the number of
+ * prefixes. The nodes are kept in flat int arrays.
+ *
+ * <br>
+ * <br>
+ *
+ * Not thread safe while being built. Lookups are thread safe, once all
+ * prefixes have been added.
+ *
+ * @author nikolay.grozev
+ *
+ * @param <T>
+ *            - the type of the values, associated with the prefixes.
+ */
+public class IPPrefixTrie<T> {
+
+    private static final int NONE = -1;
+
+    /** The children of node i are at 2i (bit 0) and 2i + 1 (bit 1). */
+    private int[] children = new int[64];
+    /** The index of the value of each node in {@link #values}, or NONE. */
+    private int[] valueIndices = new int[32];
+    private final List<T> values = new ArrayList<>();
+    private int size = 0;
+
+    private final int ipv4Root;
+    private final int ipv6Root;
+
+    /**
+     * Constr.
+     */
+    public IPPrefixTrie() {
+        Arrays.fill(children, NONE);
+        Arrays.fill(valueIndices, NONE);
+        ipv4Root = newNode();
+        ipv6Root = newNode();
+    }
+
+    /**
+     * Associates the value with the prefix. If the prefix is already in the
+     * trie, its value is replaced.
+     *
+     * @param cidr
+     *            - the prefix in the CIDR notation - e.g. 23.20.0.0/14. An
+     *            address without a length is a prefix of all its bits. Must
+     *            not be null.
+     * @param value
+     *            - the value. Must not be null.
+     * @throws IllegalArgumentException
+     *             - if the prefix is invalid.
+     */
+    public void put(final String cidr, final T value) {
+        Preconditions.checkNotNull(value);
+        int node = node(cidr);
+        if (valueIndices[node] == NONE) {
+            valueIndices[node] = values.size();
+            values.add(value);
+        } else {
+            values.set(valueIndices[node], value);
+        }
+    }
+
+    /**
+     * Associates the value with the prefix, unless the prefix is already in
+     * the trie.
+     *
+     * @param cidr
+     *            - the prefix in the CIDR notation. Must not be null.
+     * @param value
+     *            - the value. Must not be null.
+     * @return if the value has been added.
+     * @throws IllegalArgumentException
+     *             - if the prefix is invalid.
+     */
+    public boolean putIfAbsent(final String cidr, final T value) {
+        Preconditions.checkNotNull(value);
+        int node = node(cidr);
+        if (valueIndices[node] != NONE) {
+            return false;
+        }
+        valueIndices[node] = values.size();
+        values.add(value);
+        return true;
+    }
+
+    /** Returns the node of the prefix, creating the missing nodes on its path. */
+    private int node(final String cidr) {
+        Preconditions.checkNotNull(cidr);
+        int slash = cidr.indexOf('/');
+        byte[] address = InetAddresses.forString(slash < 0 ? cidr.trim() : cidr.substring(0, slash).trim()).getAddress();
+        int length = slash < 0 ? address.length * 8 : Integer.parseInt(cidr.substring(slash + 1).trim());
+        Preconditions.checkArgument(length >= 0 && length <= address.length * 8, "Invalid prefix length in %s", cidr);
+
+        int node = address.length == 4 ? ipv4Root : ipv6Root;
+        for (int i = 0; i < length; i++) {
+            int child = 2 * node + bit(address, i);
+            if (children[child] == NONE) {
+                int newNode = newNode();
+                children[child] = newNode;
+            }
+            node = children[child];
+        }
+        return node;
+    }
+
+    /**
+     * Returns the value of the longest prefix, which matches the address.
+     *
+     * @param ip
+     *            - the address. Must not be null.
+     * @return the value of the longest matching prefix, or null if none
+     *         matches or the address is invalid.
+     */
+    public T get(final String ip) {
+        Preconditions.checkNotNull(ip);
+        byte[] address;
+        try {
+            address = InetAddresses.forString(ip).getAddress();
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return get(address);
+    }
+
+    /**
+     * Returns the value of the longest prefix, which matches the address.
+     *
+     * @param address
+     *            - the address. Must not be null.
+     * @return the value of the longest matching prefix, or null if none
+     *         matches.
+     */
+    public T get(final InetAddress address) {
+        Preconditions.checkNotNull(address);
+        return get(address.getAddress());
+    }
+
+    private T get(final byte[] address) {
+        int node = address.length == 4 ? ipv4Root : ipv6Root;
+        int match = valueIndices[node];
+        for (int i = 0; i < address.length * 8; i++) {
+            node = children[2 * node + bit(address, i)];
+            if (node == NONE) {
+                break;
+            }
+            if (valueIndices[node] != NONE) {
+                match = valueIndices[node];
+            }
+        }
+        return match == NONE ? null : values.get(match);
+    }
+
+    /**
+     * Returns the number of prefixes in the trie.
+     *
+     * @return the number of prefixes in the trie.
+     */
+    public int size() {
+        return values.size();
+    }
+
+    private int newNode() {
+        if (size == valueIndices.length) {
+            int oldLength = valueIndices.length;
+            valueIndices = Arrays.copyOf(valueIndices, oldLength * 2);
+            children = Arrays.copyOf(children, oldLength * 4);
+            Arrays.fill(valueIndices, oldLength, valueIndices.length, NONE);
+            Arrays.fill(children, oldLength * 2, children.length, NONE);
+        }
+        return size++;
+    }
+
+    private static int bit(final byte[] address, final int index) {
+        return (address[index >>> 3] >>> (7 - (index & 7))) & 1;
+    }
+}
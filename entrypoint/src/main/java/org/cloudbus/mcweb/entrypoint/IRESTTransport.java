@@ -0,0 +1,95 @@
+package org.cloudbus.mcweb.entrypoint;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.glassfish.jersey.apache.connector.ApacheClientProperties;
+import org.glassfish.jersey.apache.connector.ApacheConnectorProvider;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Creates the HTTP clients, which {@link RESTCloudSite}-s use to call the
+ * admission controllers. Allows the underlying connector to be replaced
+ * without changing the enquiry logic.
+ *
+ * @author nikolay.grozev
+ *
+ */
+@FunctionalInterface
+public interface IRESTTransport {
+
+    /** The default size of the connection pool of a cloud site. */
+    public static final int DEFAULT_MAX_CONNECTIONS = 20;
+
+    /**
+     * Uses the JDK HttpURLConnection. It only keeps a few idle connections
+     * per host alive, which is not configurable per client.
+     */
+    public static final IRESTTransport JDK = timeout -> ClientBuilder.newClient(config(timeout));
+
+    /**
+     * Creates a new client. The caller is responsible for closing it.
+     *
+     * @param connectionTimeoutMillis
+     *            - the connect and read timeouts in milliseconds.
+     * @return a new client.
+     */
+    public Client newClient(int connectionTimeoutMillis);
+
+    /**
+     * Returns a transport, which keeps up to the specified number of
+     * persistent (keep-alive) connections to the admission controller. Thus,
+     * the TCP connections are reused by the subsequent enquiries. Concurrent
+     * enquiries beyond the pool size wait for a free connection.
+     *
+     * @param maxConnections
+     *            - the size of the pool. Must be positive.
+     * @return a pooled transport.
+     */
+    public static IRESTTransport pooled(final int maxConnections) {
+        Preconditions.checkArgument(maxConnections > 0);
+        return timeout -> {
+            // Every client talks to a single admission controller - i.e. a single route
+            PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+            connectionManager.setMaxTotal(maxConnections);
+            connectionManager.setDefaultMaxPerRoute(maxConnections);
+
+            ClientConfig configuration = config(timeout);
+            configuration.property(ApacheClientProperties.CONNECTION_MANAGER, connectionManager);
+            configuration.property(ClientProperties.ASYNC_THREADPOOL_SIZE, maxConnections);
+            configuration.connectorProvider(new ApacheConnectorProvider());
+            return ClientBuilder.newClient(configuration);
+        };
+    }
+
+    /**
+     * Returns a transport for the specified pool size - {@link #JDK} if 0,
+     * or a pooled transport otherwise.
+     *
+     * @param maxConnections
+     *            - the size of the pool. Must not be negative.
+     * @return a transport for the specified pool size.
+     */
+    public static IRESTTransport forMaxConnections(final int maxConnections) {
+        Preconditions.checkArgument(maxConnections >= 0);
+        return maxConnections == 0 ? JDK : pooled(maxConnections);
+    }
+
+    /**
+     * Creates a configuration with the specified connect and read timeouts.
+     *
+     * @param connectionTimeoutMillis
+     *            - the timeouts in milliseconds.
+     * @return a configuration with the specified timeouts.
+     */
+    public static ClientConfig config(final int connectionTimeoutMillis) {
+        ClientConfig configuration = new ClientConfig();
+        configuration.property(ClientProperties.CONNECT_TIMEOUT, connectionTimeoutMillis);
+        configuration.property(ClientProperties.READ_TIMEOUT, connectionTimeoutMillis);
+        return configuration;
+    }
+}
@@ -0,0 +1,431 @@
+package org.cloudbus.mcweb.entrypoint;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.cloudbus.cloudsim.ex.geolocation.IGeolocationService;
+
+import au.com.bytecode.opencsv.CSVReader;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.net.InetAddresses;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import static org.cloudbus.mcweb.util.Configs.QUOTE_SYMBOL;
+
+/**
+ * Caches the latencies between the users' networks and the cloud sites. For
+ * every network prefix (e.g. /24), the latencies to all cloud sites are
+ * computed at once with the geo-location service and kept in an array,
+ * indexed by the ordinal of the cloud site. Thus, selecting a cloud site for
+ * a cached network takes a few array reads, rather than a geo-location
+ * lookup per cloud site.
+ *
+ * <br>
+ * <br>
+ *
+ * The latencies of a network are computed from the first user address seen
+ * in it. The cache is bounded - the least recently used networks are evicted
+ * first, and entries expire after a TTL, so that updated geo-location data is
+ * eventually picked up.
+ *
+ * <br>
+ * <br>
+ *
+ * Besides the estimates of the geo-location service, every network keeps an
+ * exponentially weighted moving average (EWMA) of the latencies actually
+ * measured to each cloud site (e.g. reported by the clients after a
+ * redirect). Once there are enough measurements, they take precedence over
+ * the estimate. Both are in the same entry, so that using the measurements
+ * takes no additional look up. The measurements expire with their entry.
+ *
+ * <br>
+ * <br>
+ *
+ * The measurements are reported by the clients, and can not be trusted.
+ * Hence, a single report does not replace the estimate, and every report is
+ * clamped to within {@link #MAX_ESTIMATE_MULTIPLE} times of the estimate (if
+ * known), so that a few forged reports can not move the average arbitrarily.
+ *
+ * @author nikolay.grozev
+ *
+ */
+public class LatencyCache {
+
+    /** Logger. */
+    private static final Logger LOG = Logger.getLogger(LatencyCache.class.getCanonicalName());
+
+    /** The PingER monitoring sites, which can be used to warm up the cache. */
+    public static final String MONITORING_SITES_RESOURCE = "/MonitoringSitesPingER.csv";
+
+    /**
+     * By default, the IPv4 networks are /24 - the smallest blocks, which are
+     * routed on the internet. All addresses in a network get the latencies
+     * of the first one seen, which is inaccurate for the networks split among
+     * distant locations (e.g. anycast or VPN ranges). A prefix of 32 keys on
+     * the exact address instead, at the cost of a miss for every new client.
+     */
+    public static final int DEFAULT_IPV4_PREFIX_LENGTH = 24;
+    /**
+     * By default, the IPv6 networks are /48 - the usual assignment to a site.
+     * See {@link #DEFAULT_IPV4_PREFIX_LENGTH}.
+     */
+    public static final int DEFAULT_IPV6_PREFIX_LENGTH = 48;
+
+    /** The PingER files are comma separated. */
+    private static final char PINGER_CSV_SEP = ',';
+
+    /** The default weight of a new measurement in the moving average. */
+    public static final double DEFAULT_EWMA_WEIGHT = 0.3;
+    /** The default number of measurements, needed to replace the estimate. */
+    public static final int DEFAULT_MIN_SAMPLES = 3;
+    /**
+     * How many times a measurement can be larger (or smaller) than the
+     * estimate. The measurements outside of this range are clamped.
+     */
+    public static final double MAX_ESTIMATE_MULTIPLE = 10;
+
+    private final IGeolocationService geoLocationService;
+    /** The cloud sites, indexed by their ordinals. */
+    private final List<CloudSite> cloudSites;
+    private final int ipv4PrefixLength;
+    private final int ipv6PrefixLength;
+    /** The weight of a new measurement in the moving average. */
+    private final double ewmaWeight;
+    /** The number of measurements, needed to replace the estimate. */
+    private final int minSamples;
+    private final Cache<String, NetworkLatencies> cache;
+
+    /**
+     * Constr.
+     *
+     * @param geoLocationService
+     *            - computes the latencies on a cache miss. Must not be null.
+     * @param cloudSites
+     *            - the cloud sites. The ordinal of each must be its index in
+     *            the list. Must not be null.
+     * @param maxSize
+     *            - the max number of cached networks. Must be positive.
+     * @param ttlMillis
+     *            - how long to keep an entry. Must be positive.
+     * @param ipv4PrefixLength
+     *            - the number of leading bits of an IPv4 address, which
+     *            identify its network. Must be in the interval [0; 32].
+     * @param ipv6PrefixLength
+     *            - the number of leading bits of an IPv6 address, which
+     *            identify its network. Must be in the interval [0; 128].
+     */
+    public LatencyCache(final IGeolocationService geoLocationService, final List<CloudSite> cloudSites,
+            final long maxSize, final long ttlMillis, final int ipv4PrefixLength, final int ipv6PrefixLength) {
+        this(geoLocationService, cloudSites, maxSize, ttlMillis, ipv4PrefixLength, ipv6PrefixLength,
+                DEFAULT_EWMA_WEIGHT, DEFAULT_MIN_SAMPLES);
+    }
+
+    /**
+     * Constr.
+     *
+     * @param geoLocationService
+     *            - computes the latencies on a cache miss. Must not be null.
+     * @param cloudSites
+     *            - the cloud sites. The ordinal of each must be its index in
+     *            the list. Must not be null.
+     * @param maxSize
+     *            - the max number of cached networks. Must be positive.
+     * @param ttlMillis
+     *            - how long to keep an entry. Must be positive.
+     * @param ipv4PrefixLength
+     *            - the number of leading bits of an IPv4 address, which
+     *            identify its network. Must be in the interval [0; 32].
+     * @param ipv6PrefixLength
+     *            - the number of leading bits of an IPv6 address, which
+     *            identify its network. Must be in the interval [0; 128].
+     * @param ewmaWeight
+     *            - the weight of a new measurement in the moving average of
+     *            the measured latencies. Must be in the interval (0; 1].
+     * @param minSamples
+     *            - the number of measurements from a network to a cloud site,
+     *            needed to replace the estimate. Must be positive.
+     */
+    public LatencyCache(final IGeolocationService geoLocationService, final List<CloudSite> cloudSites,
+            final long maxSize, final long ttlMillis, final int ipv4PrefixLength, final int ipv6PrefixLength,
+            final double ewmaWeight, final int minSamples) {
+        Preconditions.checkNotNull(geoLocationService);
+        Preconditions.checkNotNull(cloudSites);
+        Preconditions.checkArgument(maxSize > 0);
+        Preconditions.checkArgument(ttlMillis > 0);
+        Preconditions.checkArgument(ipv4PrefixLength >= 0 && ipv4PrefixLength <= 32);
+        Preconditions.checkArgument(ipv6PrefixLength >= 0 && ipv6PrefixLength <= 128);
+        Preconditions.checkArgument(ewmaWeight > 0 && ewmaWeight <= 1);
+        Preconditions.checkArgument(minSamples > 0);
+        for (int i = 0; i < cloudSites.size(); i++) {
+            Preconditions.checkArgument(cloudSites.get(i).getOrdinal() == i, "Invalid ordinal of %s", cloudSites.get(i));
+        }
+
+        this.geoLocationService = geoLocationService;
+        this.cloudSites = new ArrayList<>(cloudSites);
+        this.ipv4PrefixLength = ipv4PrefixLength;
+        this.ipv6PrefixLength = ipv6PrefixLength;
+        this.ewmaWeight = ewmaWeight;
+        this.minSamples = minSamples;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Returns the latencies from the network of the specified address to all
+     * cloud sites, indexed by their ordinals.
+     *
+     * @param userIp
+     *            - the address of the user. Must not be null.
+     * @return the latencies to all cloud sites.
+     */
+    NetworkLatencies latencies(final String userIp) {
+        Preconditions.checkNotNull(userIp);
+        try {
+            return cache.get(networkPrefix(userIp), () -> computeLatencies(userIp));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * Returns the latency between the user and the cloud site - the measured
+     * one, if there are enough measurements from the user's network, or
+     * otherwise the estimate of the geo-location service. Returns NaN if it is
+     * unknown.
+     *
+     * @param userIp
+     *            - the address of the user. Must not be null.
+     * @param cloudSite
+     *            - the cloud site. Must not be null.
+     * @return the latency between the user and the cloud site, or NaN.
+     */
+    public double latency(final String userIp, final CloudSite cloudSite) {
+        Preconditions.checkNotNull(cloudSite);
+        if (!contains(cloudSite)) {
+            return geoLocationService.latency(userIp, cloudSite.getIPAddress());
+        }
+        return latencies(userIp).get(cloudSite.getOrdinal());
+    }
+
+    /**
+     * Records a latency, measured between the user and the cloud site, into
+     * the moving average of the user's network. If the latency is more than
+     * {@link #MAX_ESTIMATE_MULTIPLE} times larger or smaller than the
+     * estimate, it is clamped.
+     *
+     * @param userIp
+     *            - the address of the user. Must not be null.
+     * @param cloudSite
+     *            - the cloud site. Must not be null.
+     * @param latency
+     *            - the measured latency in millis, in the same sense as the
+     *            geo-location service's. Must be finite and not negative.
+     * @return if the measurement has been recorded - i.e. if the cloud site
+     *         is cached.
+     */
+    public boolean record(final String userIp, final CloudSite cloudSite, final double latency) {
+        Preconditions.checkNotNull(cloudSite);
+        Preconditions.checkArgument(Double.isFinite(latency) && latency >= 0, "Invalid latency %s", latency);
+        if (!contains(cloudSite)) {
+            return false;
+        }
+        latencies(userIp).record(cloudSite.getOrdinal(), latency, ewmaWeight);
+        return true;
+    }
+
+    /**
+     * Returns if the latencies of the specified cloud site are cached, i.e.
+     * if it can be looked up by ordinal in {@link #latencies(String)}.
+     */
+    boolean contains(final CloudSite cloudSite) {
+        int ordinal = cloudSite.getOrdinal();
+        return ordinal >= 0 && ordinal < cloudSites.size() && cloudSites.get(ordinal) == cloudSite;
+    }
+
+    private NetworkLatencies computeLatencies(final String userIp) {
+        double[] estimated = new double[cloudSites.size()];
+        for (int i = 0; i < estimated.length; i++) {
+            estimated[i] = geoLocationService.latency(userIp, cloudSites.get(i).getIPAddress());
+        }
+        return new NetworkLatencies(estimated, minSamples);
+    }
+
+    /**
+     * Returns the network of the address, as per the configured prefix
+     * lengths. If the address can not be parsed, it is used as is.
+     */
+    String networkPrefix(final String ip) {
+        return networkPrefix(ip, ipv4PrefixLength, ipv6PrefixLength);
+    }
+
+    /**
+     * Returns the network of the address - e.g. 10.0.16.0/20. If the address
+     * can not be parsed, it is used as is.
+     *
+     * @param ip
+     *            - the address. Must not be null.
+     * @param ipv4PrefixLength
+     *            - the number of leading bits of an IPv4 address, which
+     *            identify its network.
+     * @param ipv6PrefixLength
+     *            - the number of leading bits of an IPv6 address, which
+     *            identify its network.
+     * @return the network of the address.
+     */
+    static String networkPrefix(final String ip, final int ipv4PrefixLength, final int ipv6PrefixLength) {
+        byte[] address;
+        try {
+            address = InetAddresses.forString(ip).getAddress();
+        } catch (IllegalArgumentException e) {
+            return ip;
+        }
+
+        int prefixLength = address.length == 4 ? ipv4PrefixLength : ipv6PrefixLength;
+        for (int i = 0; i < address.length; i++) {
+            int bits = Math.max(0, Math.min(8, prefixLength - i * 8));
+            address[i] &= (byte) (0xFF << (8 - bits));
+        }
+        try {
+            return InetAddresses.toAddrString(InetAddress.getByAddress(address)) + "/" + prefixLength;
+        } catch (UnknownHostException e) {
+            // Can not happen - the address has a valid length
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Computes the latencies for the networks of the nodes listed in the
+     * PingER monitoring sites csv (the first column). Only the nodes, listed
+     * by address, are used - the host names are not resolved, so that the
+     * warm up does not wait for DNS. Few nodes are listed by address, and few
+     * clients share a network with them, so the entry point does not warm up
+     * by default. Closes the stream.
+     *
+     * @param monitoringSites
+     *            - the PingER monitoring sites csv. Must not be null.
+     * @return the number of networks, whose latencies have been computed.
+     */
+    public int warmUp(final InputStream monitoringSites) {
+        Preconditions.checkNotNull(monitoringSites);
+        int count = 0;
+        try (InputStream stream = monitoringSites;
+                InputStreamReader reader = new InputStreamReader(stream, StandardCharsets.UTF_8);
+                CSVReader csv = new CSVReader(reader, PINGER_CSV_SEP, QUOTE_SYMBOL)) {
+            // Skip the header
+            String[] lineElems = csv.readNext();
+            while ((lineElems = csv.readNext()) != null) {
+                String ip = lineElems[0].trim();
+                if (!ip.isEmpty() && InetAddresses.isInetAddress(ip)) {
+                    latencies(ip);
+                    count++;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.log(Level.WARNING, "Could not warm up the latency cache", e);
+        }
+        LOG.log(Level.INFO, "Warmed up the latency cache with {0} networks", count);
+        return count;
+    }
+
+    /**
+     * Returns the hit/miss statistics of the cache.
+     *
+     * @return the hit/miss statistics of the cache.
+     */
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    /**
+     * Returns the number of cached networks.
+     *
+     * @return the number of cached networks.
+     */
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * The latencies from a network to all cloud sites, indexed by their
+     * ordinals - the estimated ones, and the moving averages of the measured
+     * ones. The measurements are updated without locking.
+     */
+    static final class NetworkLatencies {
+        private final double[] estimated;
+        /** The bits of the moving averages, NaN if there are no measurements. */
+        private final AtomicLongArray measured;
+        /** The number of measurements, up to {@link #minSamples}. */
+        private final AtomicIntegerArray samples;
+        private final int minSamples;
+
+        NetworkLatencies(final double[] estimated, final int minSamples) {
+            this.estimated = estimated;
+            this.measured = new AtomicLongArray(estimated.length);
+            this.samples = new AtomicIntegerArray(estimated.length);
+            this.minSamples = minSamples;
+            for (int i = 0; i < estimated.length; i++) {
+                measured.set(i, Double.doubleToLongBits(Double.NaN));
+            }
+        }
+
+        /**
+         * Returns the latency to the cloud site - the measured one if there
+         * are enough measurements, or otherwise the estimated one. NaN if
+         * unknown.
+         */
+        double get(final int ordinal) {
+            if (samples.get(ordinal) < minSamples) {
+                return estimated[ordinal];
+            }
+            return Double.longBitsToDouble(measured.get(ordinal));
+        }
+
+        /**
+         * Returns the moving average of the latencies measured to the cloud
+         * site, or NaN if there are none.
+         */
+        double getMeasured(final int ordinal) {
+            return Double.longBitsToDouble(measured.get(ordinal));
+        }
+
+        void record(final int ordinal, final double latency, final double weight) {
+            double clamped = latency;
+            if (!Double.isNaN(estimated[ordinal])) {
+                clamped = Math.max(estimated[ordinal] / MAX_ESTIMATE_MULTIPLE,
+                        Math.min(estimated[ordinal] * MAX_ESTIMATE_MULTIPLE, latency));
+            }
+            long current;
+            double updated;
+            do {
+                current = measured.get(ordinal);
+                double average = Double.longBitsToDouble(current);
+                updated = Double.isNaN(average) ? clamped : average + weight * (clamped - average);
+            } while (!measured.compareAndSet(ordinal, current, Double.doubleToLongBits(updated)));
+
+            int count;
+            do {
+                count = samples.get(ordinal);
+            } while (count < minSamples && !samples.compareAndSet(ordinal, count, count + 1));
+        }
+    }
+}
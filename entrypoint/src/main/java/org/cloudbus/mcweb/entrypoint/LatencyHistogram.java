@@ -0,0 +1,200 @@
+package org.cloudbus.mcweb.entrypoint;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+
+/**
+ * A lock-free histogram of recent response times in milliseconds, used to
+ * estimate percentiles of the latency of a cloud site (e.g. for hedging).
+ *
+ * <br>
+ * <br>
+ *
+ * Values below 16ms have their own buckets. Above that, every power of two
+ * is split into 16 linear buckets. Hence the reported percentiles are within
+ * about 6% of the actual ones, while the whole histogram takes a few KB.
+ * Values above {@link #MAX_VALUE} are recorded as {@link #MAX_VALUE}.
+ *
+ * <br>
+ * <br>
+ *
+ * The values are recorded in the current window, and the percentiles are
+ * computed over the current and the previous windows. When a window is over,
+ * the previous one is dropped. Hence, the percentiles follow the changes of
+ * the latency within one to two windows, rather than averaging over the whole
+ * history.
+ *
+ * @author nikolay.grozev
+ *
+ */
+public class LatencyHistogram {
+
+    /** The biggest value, which can be recorded - about 18 minutes. */
+    public static final long MAX_VALUE = (1L << 20) - 1;
+    /** The default length of a window - a minute. */
+    public static final long DEFAULT_WINDOW_MILLIS = 60_000;
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = bucketIndex(MAX_VALUE) + 1;
+
+    private final long windowMillis;
+    private final LongSupplier clock;
+    /** The current and the previous windows. Replaced, not modified, on rotation. */
+    private volatile Window[] windows;
+
+    /**
+     * Constr. with the default window length.
+     */
+    public LatencyHistogram() {
+        this(DEFAULT_WINDOW_MILLIS);
+    }
+
+    /**
+     * Constr.
+     *
+     * @param windowMillis
+     *            - the length of a window. Must be positive.
+     */
+    public LatencyHistogram(final long windowMillis) {
+        this(windowMillis, System::currentTimeMillis);
+    }
+
+    /**
+     * Constr.
+     *
+     * @param windowMillis
+     *            - the length of a window. Must be positive.
+     * @param clock
+     *            - returns the current time in millis. Must not be null.
+     */
+    LatencyHistogram(final long windowMillis, final LongSupplier clock) {
+        Preconditions.checkArgument(windowMillis > 0);
+        Preconditions.checkNotNull(clock);
+        this.windowMillis = windowMillis;
+        this.clock = clock;
+        long now = clock.getAsLong();
+        this.windows = new Window[] { new Window(now), new Window(now) };
+    }
+
+    /**
+     * Records a response time.
+     *
+     * @param millis
+     *            - the response time in millis. Must not be negative.
+     */
+    public void record(final long millis) {
+        Preconditions.checkArgument(millis >= 0);
+        Window current = currentWindows()[0];
+        current.counts.incrementAndGet(bucketIndex(Math.min(millis, MAX_VALUE)));
+        current.totalCount.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of recent values - i.e. recorded in the current and
+     * the previous windows.
+     *
+     * @return the number of recent values.
+     */
+    public long getCount() {
+        Window[] current = currentWindows();
+        return current[0].totalCount.get() + current[1].totalCount.get();
+    }
+
+    /**
+     * Returns an upper estimate of the specified percentile of the recent
+     * values, or -1 if nothing has been recorded recently.
+     *
+     * @param percentile
+     *            - the percentile. Must be in the interval (0; 1].
+     * @return an upper estimate of the percentile, or -1 if nothing has been
+     *         recorded recently.
+     */
+    public long getPercentile(final double percentile) {
+        Preconditions.checkArgument(percentile > 0 && percentile <= 1);
+
+        Window[] current = currentWindows();
+        long total = current[0].totalCount.get() + current[1].totalCount.get();
+        if (total == 0) {
+            return -1;
+        }
+        long target = (long) Math.ceil(percentile * total);
+        long cumulative = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            cumulative += current[0].counts.get(i) + current[1].counts.get(i);
+            if (cumulative >= target) {
+                return bucketUpperBound(i);
+            }
+        }
+        // Values recorded concurrently with the scan
+        return MAX_VALUE;
+    }
+
+    /**
+     * Returns the current and the previous windows, rotating them if the
+     * current one is over.
+     */
+    private Window[] currentWindows() {
+        Window[] current = windows;
+        long now = clock.getAsLong();
+        if (now - current[0].startMillis < windowMillis) {
+            return current;
+        }
+        synchronized (this) {
+            current = windows;
+            if (now - current[0].startMillis >= windowMillis) {
+                // A window, which has been over for more than a window, is too old to be the previous one
+                Window previous = now - current[0].startMillis < 2 * windowMillis ? current[0] : new Window(now);
+                windows = current = new Window[] { new Window(now), previous };
+            }
+            return current;
+        }
+    }
+
+    static int bucketIndex(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+    }
+
+    static long bucketUpperBound(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        int subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        long lowerBound = (long) (SUB_BUCKETS + subBucket) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(getClass())
+                .add("Count", getCount())
+                .add("p50", getPercentile(0.5))
+                .add("p95", getPercentile(0.95))
+                .add("p99", getPercentile(0.99))
+                .toString();
+    }
+
+    /**
+     * The counts of the values, recorded in a window.
+     */
+    private static final class Window {
+        final long startMillis;
+        final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        final AtomicLong totalCount = new AtomicLong(0);
+
+        Window(final long startMillis) {
+            this.startMillis = startMillis;
+        }
+    }
+}
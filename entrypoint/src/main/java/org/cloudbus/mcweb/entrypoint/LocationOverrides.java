@@ -0,0 +1,171 @@
+package org.cloudbus.mcweb.entrypoint;
+
+import java.io.InputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.cloudbus.mcweb.util.Jsons;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * The locations of address ranges, which the geo-location databases do not
+ * resolve correctly (e.g. the cloud providers' ranges), as defined in
+ * ip-override-rules.json. The rules are compiled into an {@link IPPrefixTrie},
+ * so resolving an address takes at most as many steps as its bits, rather than
+ * a scan over all rules. If the ranges of several rules contain an address,
+ * the most specific one is used. Of several rules with the same range, the
+ * first one is used.
+ *
+ * @author nikolay.grozev
+ *
+ */
+public class LocationOverrides {
+
+    /** Logger. */
+    private static final Logger LOG = Logger.getLogger(LocationOverrides.class.getCanonicalName());
+
+    /** The class path resource with the rules. */
+    public static final String RULES_RESOURCE = "/ip-override-rules.json";
+
+    /** No overrides. */
+    public static final LocationOverrides NONE = new LocationOverrides(new Rule[0]);
+
+    private final IPPrefixTrie<Rule> trie = new IPPrefixTrie<>();
+
+    /**
+     * Constr.
+     *
+     * @param rules
+     *            - the rules. Must not be null. Rules with invalid or
+     *            duplicate prefixes are ignored.
+     */
+    public LocationOverrides(final Rule[] rules) {
+        Preconditions.checkNotNull(rules);
+        for (Rule rule : rules) {
+            try {
+                trie.putIfAbsent(rule.getIpPrefix(), rule);
+            } catch (IllegalArgumentException | NullPointerException e) {
+                LOG.log(Level.WARNING, "Invalid override rule {0}", rule);
+            }
+        }
+    }
+
+    /**
+     * Parses the rules in the json format of ip-override-rules.json.
+     *
+     * @param rules
+     *            - the json stream. Must not be null. Will be closed.
+     * @return the parsed rules.
+     */
+    public static LocationOverrides parse(final InputStream rules) {
+        Preconditions.checkNotNull(rules);
+        return new LocationOverrides(Jsons.fromJson(rules, Rule[].class));
+    }
+
+    /**
+     * Returns the rule of the most specific range containing the address.
+     *
+     * @param ip
+     *            - the address. Must not be null.
+     * @return the rule of the most specific range containing the address, or
+     *         null if there is none.
+     */
+    public Rule getRule(final String ip) {
+        return trie.get(ip);
+    }
+
+    /**
+     * Returns the overridden [latitude, longitude] of the address.
+     *
+     * @param ip
+     *            - the address. Must not be null.
+     * @return the overridden coordinates of the address, or null if it is not
+     *         overridden.
+     */
+    public double[] getCoordinates(final String ip) {
+        Rule rule = trie.get(ip);
+        return rule == null ? null : new double[] { rule.getLat(), rule.getLon() };
+    }
+
+    /**
+     * Returns the number of rules.
+     *
+     * @return the number of rules.
+     */
+    public int size() {
+        return trie.size();
+    }
+
+    /**
+     * A single rule from ip-override-rules.json.
+     */
+    public static class Rule {
+        @SerializedName("ip_prefix")
+        private String ipPrefix;
+        private String location;
+        private double lat;
+        private double lon;
+        private String details;
+
+        /** Used by the json parser. */
+        Rule() {
+        }
+
+        /**
+         * Constr.
+         *
+         * @param ipPrefix
+         *            - the range in the CIDR notation - e.g. 23.20.0.0/14.
+         * @param location
+         *            - the name of the location.
+         * @param lat
+         *            - the latitude.
+         * @param lon
+         *            - the longitude.
+         * @param details
+         *            - e.g. the provider.
+         */
+        public Rule(final String ipPrefix, final String location, final double lat, final double lon,
+                final String details) {
+            this.ipPrefix = ipPrefix;
+            this.location = location;
+            this.lat = lat;
+            this.lon = lon;
+            this.details = details;
+        }
+
+        public String getIpPrefix() {
+            return ipPrefix;
+        }
+
+        public String getLocation() {
+            return location;
+        }
+
+        public double getLat() {
+            return lat;
+        }
+
+        public double getLon() {
+            return lon;
+        }
+
+        public String getDetails() {
+            return details;
+        }
+
+        @Override
+        public String toString() {
+            return Objects.toStringHelper(getClass())
+                    .add("Prefix", ipPrefix)
+                    .add("Location", location)
+                    .add("Lat", lat)
+                    .add("Lon", lon)
+                    .add("Details", details)
+                    .toString();
+        }
+    }
+}
@@ -2,8 +2,11 @@ package org.cloudbus.mcweb.entrypoint;
 
 import static org.cloudbus.mcweb.util.Configs.EP_PATH;
 
+import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.logging.Handler;
 import java.util.logging.Level;
@@ -16,9 +19,12 @@ import org.cloudbus.cloudsim.ex.geolocation.geoip2.GeolocationServiceWithOverrid
 import org.cloudbus.cloudsim.ex.geolocation.geoip2.OverrideRule;
 import org.cloudbus.mcweb.util.Configs;
 import org.cloudbus.mcweb.util.Jsons;
+import org.cloudbus.mcweb.util.ThreadPools;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.thread.ExecutorThreadPool;
 
 /**
  * Starts the entry point web service.
@@ -36,6 +42,9 @@ public class Main {
         }
     }
 
+    /** Logger. */
+    private static final Logger LOG = Logger.getLogger(Main.class.getCanonicalName());
+
     /**
      * Starts the entry point service.
      * The arguements should be in the form:
@@ -57,15 +66,12 @@ public class Main {
         int jettyPort = args.length > 2 ? Integer.parseInt(args[2]) : Configs.DEFAULT_EP_PORT;
         
         // The server to start
-        Server jettyServer = new Server(jettyPort);
+        Server jettyServer = newServer(jettyPort);
 
         try (AutoCloseable serverClosable = jettyServer::destroy;
                 EntryPoint ep = EntryPoint.getInstance()) {
             // Configure the entry point
-            IGeolocationService service = new GeolocationServiceWithOverrides(new GeoIP2PingERService(), 
-                    Arrays.asList(Jsons.fromJson(
-                            Main.class.getResourceAsStream("/ip-override-rules.json"), 
-                            OverrideRule[].class)));
+            IGeolocationService service = newGeolocationService();
             EntryPoint.getInstance().configure(cloudSiteStream, configStream, RESTCloudSite.FACTORY, service);
 
             // Configure the servelet context
@@ -74,8 +80,10 @@ public class Main {
             jettyServer.setHandler(context);
             ServletHolder jerseyServlet = context.addServlet(org.glassfish.jersey.servlet.ServletContainer.class, "/*");
             jerseyServlet.setInitOrder(0);
+            jerseyServlet.setAsyncSupported(true);
             ServletHolder webServlet = context.addServlet(EntryPointRedirectServelet.class, EP_PATH + "/redirect/*");
             webServlet.setInitOrder(0);
+            webServlet.setAsyncSupported(true);
 
             // Tells the Jersey Servlet which REST service/class to load.
             jerseyServlet.setInitParameter("jersey.config.server.provider.classnames",
@@ -86,4 +94,54 @@ public class Main {
             jettyServer.join();
         }
     }
+
+    /**
+     * Creates the geo-location service with the location overrides, resolved
+     * through an {@link OverridingLocationService}. If the PingER index is
+     * enabled (see {@link MappedPingERService#locateIndex()}) and there is a
+     * GeoIP2 database (see {@link GeoIP2LocationService#locateDb()}), the
+     * latencies are read from the index.
+     */
+    private static IGeolocationService newGeolocationService() throws IOException {
+        LocationOverrides overrides = LocationOverrides.parse(
+                Main.class.getResourceAsStream(LocationOverrides.RULES_RESOURCE));
+        Path index = MappedPingERService.locateIndex();
+        File geoIP2Db = index != null ? GeoIP2LocationService.locateDb() : null;
+        if (index != null && geoIP2Db != null) {
+            LOG.log(Level.INFO, "Using the PingER index {0}", index);
+            return new MappedPingERService(
+                    new OverridingLocationService(new GeoIP2LocationService(geoIP2Db), overrides), index);
+        } else if (index != null) {
+            LOG.warning("The PingER index is enabled, but there is no GeoIP2 database - not using it");
+        }
+
+        // Only GeolocationServiceWithOverrides can estimate the PingER latencies of the overridden addresses
+        GeoIP2PingERService pingERService = new GeoIP2PingERService();
+        return new OverridingLocationService(pingERService, overrides,
+                new GeolocationServiceWithOverrides(pingERService, 
+                        Arrays.asList(Jsons.fromJson(
+                                Main.class.getResourceAsStream(LocationOverrides.RULES_RESOURCE), 
+                                OverrideRule[].class))));
+    }
+
+    /**
+     * Creates the jetty server. If virtual threads are enabled (see
+     * {@link ThreadPools#VIRTUAL_THREADS_PROP}), the connectors and the
+     * servlets run on virtual threads instead of a bounded platform pool.
+     * 
+     * @param port
+     *            - the port to listen to.
+     * @return the jetty server.
+     */
+    private static Server newServer(final int port) {
+        if (!ThreadPools.isVirtualThreadsEnabled()) {
+            return new Server(port);
+        }
+        LOG.warning("Running on virtual threads");
+        Server server = new Server(new ExecutorThreadPool(ThreadPools.newVirtualThreadPerTaskExecutor()));
+        ServerConnector connector = new ServerConnector(server);
+        connector.setPort(port);
+        server.addConnector(connector);
+        return server;
+    }
 }
@@ -0,0 +1,329 @@
+package org.cloudbus.mcweb.entrypoint;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.cloudbus.cloudsim.ex.geolocation.IGeolocationService;
+import org.cloudbus.cloudsim.ex.geolocation.IPMetadata;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.primitives.Ints;
+
+/**
+ * A geo-location service, which estimates the latencies from a memory-mapped
+ * PingER index, compiled by {@link PingERIndexCompiler}. The index is read in
+ * place, without parsing it into heap objects. Hence, it is opened instantly
+ * and the entry points on a host share it through the page cache.
+ *
+ * <br>
+ * <br>
+ *
+ * The latency between two addresses is the measured latency between the
+ * PingER monitoring node nearest to the first one, and the node nearest to
+ * the second one (among those, whose latency to the former is known). The
+ * coordinates of the addresses are taken from a delegate service (e.g. an
+ * {@link OverridingLocationService} over a {@link GeoIP2LocationService}),
+ * which also provides all other operations. The estimates may differ from the
+ * ones of GeoIP2PingERService, so the index is only used if enabled with
+ * {@link #INDEX_PROP}.
+ *
+ * <br>
+ * <br>
+ *
+ * The second addresses are usually the few cloud sites. Hence, for each of
+ * their locations the latencies from all monitoring nodes are computed once
+ * and cached, and a query only looks up the monitoring node nearest to the
+ * first address.
+ *
+ * <br>
+ * <br>
+ *
+ * The index format is: magic, version, number of nodes n (ints); n pairs of
+ * latitude and longitude (floats); n monitoring flags (bytes, padded to 4);
+ * n x n latencies in millis (floats, NaN if unknown).
+ *
+ * @author nikolay.grozev
+ *
+ */
+public class MappedPingERService implements IGeolocationService {
+
+    /** Logger. */
+    private static final Logger LOG = Logger.getLogger(MappedPingERService.class.getCanonicalName());
+
+    /** System property, which enables the index, e.g. -Dmcweb.pingerIndex=true */
+    public static final String INDEX_PROP = "mcweb.pingerIndex";
+    /** System property with the path to the index, e.g. -Dmcweb.pingerIndexPath=/opt/mcweb/PingERIndex.bin */
+    public static final String INDEX_PATH_PROP = "mcweb.pingerIndexPath";
+    /** The class path resource of the index, generated during the build. */
+    public static final String INDEX_RESOURCE = "/PingERIndex.bin";
+
+    static final int MAGIC = 0x50494E47; // PING
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+
+    /**
+     * The default path of the index, shared by the entry points on the host.
+     * The index is extracted there from the jar, if not already present.
+     */
+    public static final Path DEFAULT_INDEX_PATH = Paths.get(System.getProperty("java.io.tmpdir"), "mcweb",
+            "PingERIndex-v" + VERSION + ".bin");
+
+    /** How many locations of second addresses to cache the latencies to. */
+    private static final int MAX_CACHED_LOCATIONS = 1024;
+
+    private final IGeolocationService delegate;
+    private final ByteBuffer index;
+    private final int n;
+    private final int matrixOffset;
+
+    /** The coordinates of the nodes in radians, and the cosines of the latitudes. */
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final double[] latitudeCosines;
+    /** The indices of the monitoring nodes. */
+    private final int[] monitors;
+    /** Location of a second address -> the latencies to it from each of the {@link #monitors}. */
+    private final LoadingCache<List<Double>, float[]> latenciesFromMonitors;
+
+    /**
+     * Constr.
+     *
+     * @param delegate
+     *            - resolves the coordinates of the addresses and serves all
+     *            other calls. Must not be null.
+     * @param indexPath
+     *            - the index file. Must not be null.
+     * @throws IOException
+     *             - if the index can not be mapped or is invalid.
+     */
+    public MappedPingERService(final IGeolocationService delegate, final Path indexPath) throws IOException {
+        Preconditions.checkNotNull(delegate);
+        Preconditions.checkNotNull(indexPath);
+        this.delegate = delegate;
+
+        try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (channel.size() < HEADER_SIZE || mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION) {
+                throw new IOException("Not a PingER index: " + indexPath);
+            }
+            this.index = mapped;
+        }
+        this.n = index.getInt(8);
+        int flagsOffset = HEADER_SIZE + n * 8;
+        this.matrixOffset = flagsOffset + (n + 3) / 4 * 4;
+        if (n < 0 || index.capacity() != matrixOffset + (long) n * n * 4) {
+            throw new IOException("Corrupted PingER index: " + indexPath);
+        }
+
+        this.latitudes = new double[n];
+        this.longitudes = new double[n];
+        this.latitudeCosines = new double[n];
+        List<Integer> monitorsList = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            latitudes[i] = Math.toRadians(index.getFloat(HEADER_SIZE + i * 8));
+            longitudes[i] = Math.toRadians(index.getFloat(HEADER_SIZE + i * 8 + 4));
+            latitudeCosines[i] = Math.cos(latitudes[i]);
+            if (index.get(flagsOffset + i) != 0) {
+                monitorsList.add(i);
+            }
+        }
+        this.monitors = Ints.toArray(monitorsList);
+        this.latenciesFromMonitors = CacheBuilder.newBuilder()
+                .maximumSize(MAX_CACHED_LOCATIONS)
+                .build(new CacheLoader<List<Double>, float[]>() {
+                    @Override
+                    public float[] load(final List<Double> location) {
+                        return computeLatenciesFromMonitors(location.get(0), location.get(1));
+                    }
+                });
+        LOG.log(Level.INFO, "Mapped PingER index {0} with {1} nodes", new Object[] { indexPath, n });
+    }
+
+    /**
+     * Returns the index, if enabled with {@link #INDEX_PROP}, or null
+     * otherwise. The index is at the path specified with
+     * {@link #INDEX_PATH_PROP}, or at {@link #DEFAULT_INDEX_PATH}. If there is
+     * no index of the size of the one generated during the build, the latter
+     * is extracted there first, so that all entry points on the host map the
+     * same file.
+     *
+     * @return the path of the index, or null.
+     */
+    public static Path locateIndex() {
+        if (!Boolean.getBoolean(INDEX_PROP)) {
+            return null;
+        }
+        String prop = System.getProperty(INDEX_PATH_PROP);
+        Path path = prop != null ? Paths.get(prop) : DEFAULT_INDEX_PATH;
+
+        URL url = MappedPingERService.class.getResource(INDEX_RESOURCE);
+        try {
+            if (url == null || (Files.isRegularFile(path) && Files.size(path) == contentLength(url))) {
+                return Files.isRegularFile(path) ? path : null;
+            }
+            // Extract next to the target and move it, so that the other entry
+            // points never map a partially written index
+            Path dir = path.toAbsolutePath().getParent();
+            Files.createDirectories(dir);
+            Path extracted = Files.createTempFile(dir, "PingERIndex", ".tmp");
+            try (InputStream in = url.openStream()) {
+                Files.copy(in, extracted, StandardCopyOption.REPLACE_EXISTING);
+                Files.move(extracted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(extracted);
+            }
+            return path;
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Could not locate the PingER index", e);
+            return null;
+        }
+    }
+
+    private static long contentLength(final URL url) throws IOException {
+        URLConnection connection = url.openConnection();
+        try {
+            return connection.getContentLengthLong();
+        } finally {
+            connection.getInputStream().close();
+        }
+    }
+
+    /**
+     * Returns the number of indexed PingER nodes.
+     *
+     * @return the number of indexed PingER nodes.
+     */
+    public int getNodeCount() {
+        return n;
+    }
+
+    @Override
+    public double latency(final String ip1, final String ip2) {
+        double[] coord1 = getCoordinates(ip1);
+        double[] coord2 = getCoordinates(ip2);
+        if (coord1 == null || coord2 == null) {
+            return Double.NaN;
+        }
+        return latency(coord1[0], coord1[1], coord2[0], coord2[1]);
+    }
+
+    /**
+     * Returns the latency between the PingER nodes nearest to the specified
+     * coordinates, or NaN if unknown.
+     */
+    double latency(final double lat1, final double lon1, final double lat2, final double lon2) {
+        // The monitoring node nearest to the first location
+        double latRad = Math.toRadians(lat1);
+        double lonRad = Math.toRadians(lon1);
+        double cosLat = Math.cos(latRad);
+        int from = -1;
+        double fromDistance = Double.MAX_VALUE;
+        for (int m = 0; m < monitors.length; m++) {
+            double distance = distance(latRad, lonRad, cosLat, monitors[m]);
+            if (distance < fromDistance) {
+                from = m;
+                fromDistance = distance;
+            }
+        }
+        return from < 0 ? Double.NaN : latenciesFromMonitors.getUnchecked(Arrays.asList(lat2, lon2))[from];
+    }
+
+    /**
+     * Returns the latencies from each monitoring node to the node nearest to
+     * the location (among those, whose latency to the former is known).
+     */
+    private float[] computeLatenciesFromMonitors(final double lat, final double lon) {
+        double latRad = Math.toRadians(lat);
+        double lonRad = Math.toRadians(lon);
+        double cosLat = Math.cos(latRad);
+        double[] distances = new double[n];
+        for (int j = 0; j < n; j++) {
+            distances[j] = distance(latRad, lonRad, cosLat, j);
+        }
+
+        float[] result = new float[monitors.length];
+        for (int m = 0; m < monitors.length; m++) {
+            float latency = Float.NaN;
+            double toDistance = Double.MAX_VALUE;
+            int rowOffset = matrixOffset + monitors[m] * n * 4;
+            for (int j = 0; j < n; j++) {
+                float value = index.getFloat(rowOffset + j * 4);
+                if (!Float.isNaN(value) && distances[j] < toDistance) {
+                    latency = value;
+                    toDistance = distances[j];
+                }
+            }
+            result[m] = latency;
+        }
+        return result;
+    }
+
+    /**
+     * Returns a value, which increases with the great-circle distance between
+     * the location (in radians) and the node (the haversine, without the arc
+     * sine).
+     */
+    private double distance(final double latRad, final double lonRad, final double cosLat, final int node) {
+        double sinLat = Math.sin((latitudes[node] - latRad) / 2);
+        double sinLon = Math.sin((longitudes[node] - lonRad) / 2);
+        return sinLat * sinLat + cosLat * latitudeCosines[node] * sinLon * sinLon;
+    }
+
+    @Override
+    public double[] getCoordinates(final String ip) {
+        return delegate.getCoordinates(ip);
+    }
+
+    @Override
+    public String getTxtAddress(final String ip) {
+        return delegate.getTxtAddress(ip);
+    }
+
+    @Override
+    public IPMetadata getMetaData(final String ip) {
+        return delegate.getMetaData(ip);
+    }
+
+    @Override
+    public String getLocationMapUrl(final Double lat, final Double lon) {
+        return delegate.getLocationMapUrl(lat, lon);
+    }
+
+    @Override
+    public String getLocationMapUrl(final String ip) {
+        return delegate.getLocationMapUrl(ip);
+    }
+
+    @Override
+    public double distance(final double[] coord1, final double[] coord2) {
+        return delegate.distance(coord1, coord2);
+    }
+
+    @Override
+    public double distance(final String ip1, final String ip2) {
+        return delegate.distance(ip1, ip2);
+    }
+
+    @Override
+    public void close() throws Exception {
+        delegate.close();
+    }
+}
@@ -0,0 +1,136 @@
+package org.cloudbus.mcweb.entrypoint;
+
+import org.cloudbus.cloudsim.ex.geolocation.IGeolocationService;
+import org.cloudbus.cloudsim.ex.geolocation.IPMetadata;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A geo-location service, which applies the {@link LocationOverrides} to a
+ * delegate service. The coordinates, the text addresses and the map urls of
+ * the overridden addresses are taken from their rules, and all other
+ * addresses are resolved by the delegate.
+ *
+ * <br>
+ * <br>
+ *
+ * The rules are matched through a prefix trie, and the most specific range
+ * containing an address wins. Of several rules with the same range, the first
+ * one wins. GeolocationServiceWithOverrides instead uses the first rule in the
+ * file, whose range contains the address - the two differ only for nested
+ * ranges, of which ip-override-rules.json has none with different locations.
+ *
+ * <br>
+ * <br>
+ *
+ * The delegate estimates the latencies by addresses, and can not be told the
+ * overridden coordinates. Hence, the latencies of pairs with an overridden
+ * address are estimated by a separate service, which applies the same rules
+ * on its own (e.g. GeolocationServiceWithOverrides). The other pairs are
+ * estimated by the delegate, without matching them against the rules again.
+ *
+ * @author nikolay.grozev
+ *
+ */
+public class OverridingLocationService implements IGeolocationService {
+
+    private final IGeolocationService delegate;
+    private final LocationOverrides overrides;
+    private final IGeolocationService overriddenLatencies;
+
+    /**
+     * Constr.
+     *
+     * @param delegate
+     *            - resolves the addresses, which are not overridden, and
+     *            serves all other calls. Must not be null.
+     * @param overrides
+     *            - the overrides. Must not be null.
+     */
+    public OverridingLocationService(final IGeolocationService delegate, final LocationOverrides overrides) {
+        this(delegate, overrides, delegate);
+    }
+
+    /**
+     * Constr.
+     *
+     * @param delegate
+     *            - resolves the addresses, which are not overridden, and
+     *            serves all other calls. Must not be null.
+     * @param overrides
+     *            - the overrides. Must not be null.
+     * @param overriddenLatencies
+     *            - estimates the latencies of the pairs with an overridden
+     *            address. Must not be null.
+     */
+    public OverridingLocationService(final IGeolocationService delegate, final LocationOverrides overrides,
+            final IGeolocationService overriddenLatencies) {
+        Preconditions.checkNotNull(delegate);
+        Preconditions.checkNotNull(overrides);
+        Preconditions.checkNotNull(overriddenLatencies);
+        this.delegate = delegate;
+        this.overrides = overrides;
+        this.overriddenLatencies = overriddenLatencies;
+    }
+
+    @Override
+    public double[] getCoordinates(final String ip) {
+        double[] coordinates = overrides.getCoordinates(ip);
+        return coordinates != null ? coordinates : delegate.getCoordinates(ip);
+    }
+
+    @Override
+    public String getTxtAddress(final String ip) {
+        LocationOverrides.Rule rule = overrides.getRule(ip);
+        return rule != null ? rule.getLocation() : delegate.getTxtAddress(ip);
+    }
+
+    @Override
+    public IPMetadata getMetaData(final String ip) {
+        return delegate.getMetaData(ip);
+    }
+
+    @Override
+    public String getLocationMapUrl(final Double lat, final Double lon) {
+        return delegate.getLocationMapUrl(lat, lon);
+    }
+
+    @Override
+    public String getLocationMapUrl(final String ip) {
+        LocationOverrides.Rule rule = overrides.getRule(ip);
+        return rule != null ? delegate.getLocationMapUrl(rule.getLat(), rule.getLon()) : delegate.getLocationMapUrl(ip);
+    }
+
+    @Override
+    public double distance(final double[] coord1, final double[] coord2) {
+        return delegate.distance(coord1, coord2);
+    }
+
+    @Override
+    public double distance(final String ip1, final String ip2) {
+        if (overrides.getRule(ip1) == null && overrides.getRule(ip2) == null) {
+            return delegate.distance(ip1, ip2);
+        }
+        double[] coord1 = getCoordinates(ip1);
+        double[] coord2 = getCoordinates(ip2);
+        return coord1 == null || coord2 == null ? Double.NaN : delegate.distance(coord1, coord2);
+    }
+
+    @Override
+    public double latency(final String ip1, final String ip2) {
+        if (overrides.getRule(ip1) == null && overrides.getRule(ip2) == null) {
+            return delegate.latency(ip1, ip2);
+        }
+        return overriddenLatencies.latency(ip1, ip2);
+    }
+
+    /**
+     * Closes the delegate. The service estimating the latencies of the
+     * overridden addresses is usually built on the delegate, and is not
+     * closed.
+     */
+    @Override
+    public void close() throws Exception {
+        delegate.close();
+    }
+}
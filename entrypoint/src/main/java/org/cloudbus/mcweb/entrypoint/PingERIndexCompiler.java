@@ -0,0 +1,193 @@
+package org.cloudbus.mcweb.entrypoint;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import au.com.bytecode.opencsv.CSVReader;
+
+import com.google.common.base.Preconditions;
+
+import static org.cloudbus.mcweb.util.Configs.QUOTE_SYMBOL;
+
+/**
+ * Compiles the PingER monitoring sites (csv) and ping table (tsv) into the
+ * binary index, read by {@link MappedPingERService}. Run as a build step:
+ *
+ * java ... PingERIndexCompiler [monitoring-sites-csv] [ping-table-tsv] [output-index]
+ *
+ * <br>
+ * <br>
+ *
+ * Only the nodes with known coordinates are indexed. The latency between two
+ * nodes is the average of the monthly measurements available in the table.
+ *
+ * @author nikolay.grozev
+ *
+ */
+public final class PingERIndexCompiler {
+
+    /** Logger. */
+    private static final Logger LOG = Logger.getLogger(PingERIndexCompiler.class.getCanonicalName());
+
+    private static final char PINGER_CSV_SEP = ',';
+    /** The coordinates in the end of the location - e.g. "Atlanta, GA (33.75 -84.39)". */
+    private static final Pattern COORDINATES = Pattern.compile("\\(\\s*(-?[\\d.]+)\\s+(-?[\\d.]+)\\s*\\)\\s*$");
+
+    // Columns of the ping table
+    private static final int FIRST_MONTH_COL = 3;
+    private static final int LAST_MONTH_COL = 14;
+    private static final int MONITORING_NODE_COL = 15;
+    private static final int REMOTE_NODE_COL = 18;
+    private static final String NO_MEASUREMENT = ".";
+
+    /** Suppress instantiation. */
+    private PingERIndexCompiler() {
+    }
+
+    public static void main(final String[] args) throws IOException {
+        Preconditions.checkArgument(args.length == 3,
+                "Usage: PingERIndexCompiler [monitoring-sites-csv] [ping-table-tsv] [output-index]");
+        Path out = Paths.get(args[2]);
+        if (out.getParent() != null) {
+            Files.createDirectories(out.getParent());
+        }
+        try (InputStream sites = new FileInputStream(args[0]);
+                InputStream table = new FileInputStream(args[1]);
+                OutputStream index = Files.newOutputStream(out)) {
+            int nodes = compile(sites, table, index);
+            LOG.log(Level.INFO, "Compiled {0} PingER nodes into {1}", new Object[] { nodes, out });
+        }
+    }
+
+    /**
+     * Compiles the index.
+     *
+     * @param sites
+     *            - the monitoring sites csv. Must not be null.
+     * @param table
+     *            - the ping table tsv. Must not be null.
+     * @param out
+     *            - where to write the index. Must not be null.
+     * @return the number of indexed nodes.
+     * @throws IOException
+     *             - if reading or writing fails.
+     */
+    public static int compile(final InputStream sites, final InputStream table, final OutputStream out)
+            throws IOException {
+        Preconditions.checkNotNull(sites);
+        Preconditions.checkNotNull(table);
+        Preconditions.checkNotNull(out);
+
+        // Node -> coordinates, in the order of the csv
+        Map<String, float[]> coordinates = readCoordinates(sites);
+        List<String> nodes = new ArrayList<>(coordinates.keySet());
+        Map<String, Integer> ids = new LinkedHashMap<>();
+        for (String node : nodes) {
+            ids.put(node, ids.size());
+        }
+
+        int n = nodes.size();
+        float[] sums = new float[n * n];
+        int[] counts = new int[n * n];
+        boolean[] monitoring = new boolean[n];
+        readTable(table, ids, sums, counts, monitoring);
+
+        DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(out));
+        dataOut.writeInt(MappedPingERService.MAGIC);
+        dataOut.writeInt(MappedPingERService.VERSION);
+        dataOut.writeInt(n);
+        for (String node : nodes) {
+            dataOut.writeFloat(coordinates.get(node)[0]);
+            dataOut.writeFloat(coordinates.get(node)[1]);
+        }
+        for (int i = 0; i < n; i++) {
+            dataOut.writeByte(monitoring[i] ? 1 : 0);
+        }
+        // Align the matrix to 4 bytes
+        for (int i = n; i % 4 != 0; i++) {
+            dataOut.writeByte(0);
+        }
+        for (int i = 0; i < n * n; i++) {
+            dataOut.writeFloat(counts[i] == 0 ? Float.NaN : sums[i] / counts[i]);
+        }
+        dataOut.flush();
+        return n;
+    }
+
+    private static Map<String, float[]> readCoordinates(final InputStream sites) throws IOException {
+        Map<String, float[]> coordinates = new LinkedHashMap<>();
+        try (CSVReader csv = new CSVReader(new InputStreamReader(sites, StandardCharsets.UTF_8), PINGER_CSV_SEP,
+                QUOTE_SYMBOL)) {
+            // Skip the header
+            String[] lineElems = csv.readNext();
+            while ((lineElems = csv.readNext()) != null) {
+                if (lineElems.length < 3) {
+                    continue;
+                }
+                Matcher matcher = COORDINATES.matcher(lineElems[2].trim());
+                String node = lineElems[0].trim();
+                if (matcher.find() && !coordinates.containsKey(node)) {
+                    try {
+                        coordinates.put(node, new float[] { Float.parseFloat(matcher.group(1)),
+                                Float.parseFloat(matcher.group(2)) });
+                    } catch (NumberFormatException e) {
+                        LOG.log(Level.WARNING, "Invalid coordinates of {0}", Arrays.toString(lineElems));
+                    }
+                }
+            }
+        }
+        return coordinates;
+    }
+
+    private static void readTable(final InputStream table, final Map<String, Integer> ids, final float[] sums,
+            final int[] counts, final boolean[] monitoring) throws IOException {
+        int n = monitoring.length;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(table, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith("#") || line.trim().isEmpty()) {
+                continue;
+            }
+            String[] cols = line.split("\t");
+            if (cols.length <= REMOTE_NODE_COL) {
+                continue;
+            }
+            Integer from = ids.get(cols[MONITORING_NODE_COL].trim());
+            Integer to = ids.get(cols[REMOTE_NODE_COL].trim());
+            if (from == null || to == null) {
+                continue;
+            }
+            monitoring[from] = true;
+            for (int col = FIRST_MONTH_COL; col <= LAST_MONTH_COL; col++) {
+                String value = cols[col].trim();
+                if (!value.isEmpty() && !NO_MEASUREMENT.equals(value)) {
+                    try {
+                        sums[from * n + to] += Float.parseFloat(value);
+                        counts[from * n + to]++;
+                    } catch (NumberFormatException e) {
+                        // Ignore the malformed measurements
+                    }
+                }
+            }
+        }
+    }
+}
@@ -66,7 +66,7 @@ public class PredefinedCostCloudSite extends CloudSite {
         }
         for (EPUserRequest userRequest : new ArrayList<>(requests)) {
             boolean eligible = eligibleUsers == null ? true : eligibleUsers.contains(userRequest.getUserToken());
-            userRequest.addResponseFromCloudSite(new EPAdmissionControllerResponse(userRequest.getUserToken(), eligible, cost, this));
+            userRequest.addResponseFromCloudSite(this, eligible, cost);
         }
     }
     
@@ -1,9 +1,23 @@
 package org.cloudbus.mcweb.entrypoint;
 
+import java.io.BufferedWriter;
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -12,18 +26,28 @@ import java.util.stream.Collectors;
 import javax.ws.rs.ProcessingException;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.client.Client;
-import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.client.InvocationCallback;
 import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.GenericType;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
 import org.cloudbus.mcweb.AdmissionControllerResponse;
+import org.cloudbus.mcweb.AdmissionControllerResponseCodec;
+import org.cloudbus.mcweb.AdmissionControllerUpdate;
 import org.cloudbus.mcweb.DataCentre;
 import org.cloudbus.mcweb.util.Jsons;
-import org.glassfish.jersey.client.ClientConfig;
-import org.glassfish.jersey.client.ClientProperties;
+import org.cloudbus.mcweb.util.Jsons.ChunkConsumer;
+import org.glassfish.jersey.client.ChunkedInput;
 
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Maps;
+import com.google.gson.stream.JsonWriter;
 
 import static org.cloudbus.mcweb.util.Configs.*;
 import static org.cloudbus.mcweb.util.Closeables.*;
@@ -31,7 +55,40 @@ import static org.cloudbus.mcweb.util.Closeables.*;
 
 /**
  * A cloudsite, which uses REST web services to communicate with the admission
- * controller.
+ * controller. The user tokens are posted as a streamed json array, so the
+ * batch size is not bounded by the URL length. Admission controllers, which
+ * do not support this, are queried with the user tokens in the URL. The
+ * HTTP connections are managed by an {@link IRESTTransport} - by default a
+ * pool of persistent connections, reused across the enquiries.
+ * 
+ * <br>
+ * <br>
+ * 
+ * Optionally, the enquiries can be hedged. If the admission controller has not
+ * answered within the configured percentile of its recent response times
+ * (see {@link LatencyHistogram}), a duplicate request is sent and whichever
+ * answer comes first is used. Since
+ * only the slowest few percent of the calls are duplicated, healthy admission
+ * controllers are not flooded.
+ * 
+ * <br>
+ * <br>
+ * 
+ * Optionally, the eligibility of the users can be cached. It depends only on
+ * the user and the data centre, so only the tokens missing from the cache are
+ * sent to the admission controller. The cost of the cached eligible users is
+ * refreshed from the admission controller's cost-only service, at most once
+ * in the configured interval. Thus, a batch of repeat users costs at most one
+ * lightweight call. Admission controllers, which do not support the cost-only
+ * service, are enquired about all users.
+ * 
+ * <br>
+ * <br>
+ * 
+ * Optionally, the cloud site can subscribe for the updates of the admission
+ * controller (see {@link #subscribe()}). It pushes the cost and the data
+ * centre definition as soon as they change, so the cloud site keeps an up to
+ * date view of them and the cached eligible users need no call at all.
  * 
  * @author nikolay.grozev
  *
@@ -39,6 +96,17 @@ import static org.cloudbus.mcweb.util.Closeables.*;
 public class RESTCloudSite extends CloudSite {
     
     private static final Logger LOG = Logger.getLogger(RESTCloudSite.class.getCanonicalName());
+
+    /** How many response times to observe, before starting to hedge. */
+    private static final int MIN_HEDGE_SAMPLES = 20;
+    /** The binary media type of the responses of the admission controllers. */
+    private static final MediaType BINARY_TYPE = MediaType.valueOf(AC_BINARY_MEDIA_TYPE);
+    /** Prefer the binary responses, but accept json from older admission controllers. */
+    private static final String[] BATCH_ACCEPTED_TYPES = { AC_BINARY_MEDIA_TYPE, MediaType.APPLICATION_JSON + ";q=0.5" };
+    /** Max number of users, whose eligibility is cached. */
+    private static final long MAX_CACHED_ELIGIBILITIES = 1_000_000;
+    /** Max number of json responses decoded, before they are matched to the requests. */
+    private static final int RESPONSES_CHUNK_SIZE = 256;
     
     private final Client client;
     private final WebTarget webTarget;
@@ -49,11 +117,56 @@ public class RESTCloudSite extends CloudSite {
     private final int reconnectionIntervalInMillis;
     private long connectionLostTimeMillis;
     private boolean connected;
+
+    /** Whether the admission controller supports the batch POST enquiries. */
+    private volatile boolean batchProtocol = true;
+
+    // For hedging
+    private final int connectionTimeoutMillis;
+    private final double hedgePercentile;
+    private final long minHedgeDelayMillis;
+    private final LatencyHistogram latencyHistogram = new LatencyHistogram();
+    private final AtomicLong hedgedEnquiries = new AtomicLong(0);
+
+    // For caching the eligibility
+    /** The eligibility of the users, by their tokens. Null, if not cached. */
+    private final Cache<String, Boolean> eligibilityCache;
+    private final long costRefreshIntervalMillis;
+    /** The last known cost estimation for an eligible user. */
+    private volatile double cost = Double.NaN;
+    /** When the cost was received. */
+    private volatile long costTimeMillis;
+    /** Whether the admission controller supports the cost-only service. */
+    private volatile boolean costProtocol = true;
+
+    // For the pushed updates
+    /** Receives the updates of the admission controller. Null, if not subscribed. */
+    private Thread subscription;
+    /** Whether the cost is pushed by the admission controller at the moment. */
+    private volatile boolean streaming = false;
+    private volatile boolean closed = false;
     
     /**
      * Creates cloud sites which the REST service of the admission controllers.
+     * The hedging columns (percentile and min delay) and the max connections
+     * column are optional. If the max connections is 0, the default JDK
+     * transport is used. So are the eligibility cache columns (TTL and cost
+     * refresh interval) - by default the eligibility is not cached. The last
+     * optional column specifies whether to subscribe for the updates of the
+     * admission controller - by default false.
      */
-    public static final Function<String[], CloudSite> FACTORY = s -> new RESTCloudSite(s[0], s[1], s[2], Integer.parseInt(s[3]), Integer.parseInt(s[4]));
+    public static final Function<String[], CloudSite> FACTORY = s -> {
+        RESTCloudSite site = new RESTCloudSite(s[0], s[1], s[2], Integer.parseInt(s[3]), Integer.parseInt(s[4]),
+                s.length > 5 ? Double.parseDouble(s[5]) : 0, 
+                s.length > 6 ? Long.parseLong(s[6]) : 0,
+                IRESTTransport.forMaxConnections(s.length > 7 ? Integer.parseInt(s[7]) : IRESTTransport.DEFAULT_MAX_CONNECTIONS),
+                s.length > 8 ? Long.parseLong(s[8]) : 0,
+                s.length > 9 ? Long.parseLong(s[9]) : 0);
+        if (s.length > 10 && Boolean.parseBoolean(s[10])) {
+            site.subscribe();
+        }
+        return site;
+    };
     
     /**
      * Constructor.
@@ -65,17 +178,84 @@ public class RESTCloudSite extends CloudSite {
      */
     public RESTCloudSite(final String name, final String admissionControllerAddress, final String loadBalancerAddress, 
             int connectionTimeoutMillis, int reconnectionIntervalInMillis) {
+        this(name, admissionControllerAddress, loadBalancerAddress, connectionTimeoutMillis, reconnectionIntervalInMillis, 0, 0);
+    }
+
+    /**
+     * Constructor.
+     * @param name - see superclass.
+     * @param admissionControllerAddress - see superclass.
+     * @param loadBalancerAddress - see superclass.
+     * @param connectionTimeoutMillis - time to wait for TCP/HTTP connection establishment. Measured in milliseconds. Must be greater than 1000.
+     * @param reconnectionIntervalInMillis - time to wait before attempting to reconnect. Measured in milliseconds. Must be greater than 1000.
+     * @param hedgePercentile - if an enquiry takes longer than this percentile of the recent response times, 
+     * a duplicate is sent. Must be in the interval [0; 1). If 0, enquiries are not hedged.
+     * @param minHedgeDelayMillis - never hedge before this many milliseconds. Must not be negative.
+     */
+    public RESTCloudSite(final String name, final String admissionControllerAddress, final String loadBalancerAddress, 
+            int connectionTimeoutMillis, int reconnectionIntervalInMillis, double hedgePercentile, long minHedgeDelayMillis) {
+        this(name, admissionControllerAddress, loadBalancerAddress, connectionTimeoutMillis, reconnectionIntervalInMillis,
+                hedgePercentile, minHedgeDelayMillis, IRESTTransport.pooled(IRESTTransport.DEFAULT_MAX_CONNECTIONS));
+    }
+
+    /**
+     * Constructor.
+     * @param name - see superclass.
+     * @param admissionControllerAddress - see superclass.
+     * @param loadBalancerAddress - see superclass.
+     * @param connectionTimeoutMillis - time to wait for TCP/HTTP connection establishment. Measured in milliseconds. Must be greater than 1000.
+     * @param reconnectionIntervalInMillis - time to wait before attempting to reconnect. Measured in milliseconds. Must be greater than 1000.
+     * @param hedgePercentile - if an enquiry takes longer than this percentile of the recent response times, 
+     * a duplicate is sent. Must be in the interval [0; 1). If 0, enquiries are not hedged.
+     * @param minHedgeDelayMillis - never hedge before this many milliseconds. Must not be negative.
+     * @param transport - creates the HTTP client for the admission controller. Must not be null.
+     */
+    public RESTCloudSite(final String name, final String admissionControllerAddress, final String loadBalancerAddress, 
+            int connectionTimeoutMillis, int reconnectionIntervalInMillis, double hedgePercentile, long minHedgeDelayMillis,
+            final IRESTTransport transport) {
+        this(name, admissionControllerAddress, loadBalancerAddress, connectionTimeoutMillis, reconnectionIntervalInMillis,
+                hedgePercentile, minHedgeDelayMillis, transport, 0, 0);
+    }
+
+    /**
+     * Constructor.
+     * @param name - see superclass.
+     * @param admissionControllerAddress - see superclass.
+     * @param loadBalancerAddress - see superclass.
+     * @param connectionTimeoutMillis - time to wait for TCP/HTTP connection establishment. Measured in milliseconds. Must be greater than 1000.
+     * @param reconnectionIntervalInMillis - time to wait before attempting to reconnect. Measured in milliseconds. Must be greater than 1000.
+     * @param hedgePercentile - if an enquiry takes longer than this percentile of the recent response times, 
+     * a duplicate is sent. Must be in the interval [0; 1). If 0, enquiries are not hedged.
+     * @param minHedgeDelayMillis - never hedge before this many milliseconds. Must not be negative.
+     * @param transport - creates the HTTP client for the admission controller. Must not be null.
+     * @param eligibilityCacheTtlMillis - how long to cache the eligibility of a user. Must not be negative. 
+     * If 0, the eligibility is not cached.
+     * @param costRefreshIntervalMillis - how long to use a cost, before refreshing it. Must not be negative.
+     */
+    public RESTCloudSite(final String name, final String admissionControllerAddress, final String loadBalancerAddress, 
+            int connectionTimeoutMillis, int reconnectionIntervalInMillis, double hedgePercentile, long minHedgeDelayMillis,
+            final IRESTTransport transport, long eligibilityCacheTtlMillis, long costRefreshIntervalMillis) {
         super(name, admissionControllerAddress, loadBalancerAddress);
         Preconditions.checkArgument(connectionTimeoutMillis > 1000);
         Preconditions.checkArgument(reconnectionIntervalInMillis > 1000);
+        Preconditions.checkArgument(hedgePercentile >= 0 && hedgePercentile < 1);
+        Preconditions.checkArgument(minHedgeDelayMillis >= 0);
+        Preconditions.checkNotNull(transport);
+        Preconditions.checkArgument(eligibilityCacheTtlMillis >= 0);
+        Preconditions.checkArgument(costRefreshIntervalMillis >= 0);
 
-        ClientConfig configuration = new ClientConfig();
-        configuration = configuration.property(ClientProperties.CONNECT_TIMEOUT, connectionTimeoutMillis);
-        configuration = configuration.property(ClientProperties.READ_TIMEOUT, connectionTimeoutMillis);
-        client = ClientBuilder.newClient();
+        client = transport.newClient(connectionTimeoutMillis);
         
         webTarget = client.target(getAdmissionControllerAddress()).path(AC_PATH).path(AC_SERVICE_PATH);
         this.reconnectionIntervalInMillis = reconnectionIntervalInMillis;
+        this.connectionTimeoutMillis = connectionTimeoutMillis;
+        this.hedgePercentile = hedgePercentile;
+        this.minHedgeDelayMillis = minHedgeDelayMillis;
+        this.costRefreshIntervalMillis = costRefreshIntervalMillis;
+        this.eligibilityCache = eligibilityCacheTtlMillis == 0 ? null : CacheBuilder.newBuilder()
+                .maximumSize(MAX_CACHED_ELIGIBILITIES)
+                .expireAfterWrite(eligibilityCacheTtlMillis, TimeUnit.MILLISECONDS)
+                .build();
     }
 
     @Override
@@ -89,35 +269,480 @@ public class RESTCloudSite extends CloudSite {
             	updateDefinition();
             	
                 List<String> userTokens = requests.stream().map(EPUserRequest::getUserToken).distinct().collect(Collectors.toList());
-                Response r = webTarget.queryParam(USER_TOKENS_PARAM, userTokens.toArray()).request(MediaType.APPLICATION_JSON).get();
-                try (Closeable ac =  r::close) {
-	                String responseJson = r.readEntity(String.class);
-	                AdmissionControllerResponse[] responses = Jsons.fromJson(responseJson, AdmissionControllerResponse[].class);
-	                connectionEstablished(true);
-	                LOG.log(Level.INFO, "Cloudsite {0} has been reached. Responses:{1}", new Object[]{toString(), Arrays.toString(responses)});
-
-	                // TODO the following could be optimised to avoid nested loops ...
-	                for (EPUserRequest userRequest : requests) {
-	                    for (AdmissionControllerResponse response : responses){
-	                        if (userRequest.getUserToken().equals(response.getUserToken())) {
-	                            userRequest.addResponseFromCloudSite(new EPAdmissionControllerResponse(response, this));
-	                            break;
-	                        }
-	                    }
-	                }
+                // The responses are matched as they are decoded
+                ResponseMatcher matcher = new ResponseMatcher(requests, this);
+                if (eligibilityCache == null || !costProtocol) {
+                    fetchResponses(userTokens, matcher);
+                } else {
+                    matcher.accept(cachedResponses(userTokens));
                 }
+                connectionEstablished(true);
+                LOG.log(Level.INFO, "Cloudsite {0} has been reached. Matched responses:{1}",
+                        new Object[] { toString(), matcher.getMatchedCount() });
 
-            } catch (IOException | ProcessingException | WebApplicationException e) {
+            } catch (ProcessingException | WebApplicationException e) {
                 // Oops the connection failed ...
-            	List<String> userTokens = requests.stream().map(EPUserRequest::getUserToken).collect(Collectors.toList());
-            	String call = webTarget.queryParam(USER_TOKENS_PARAM, userTokens.toArray()).getUri().toString(); 
-                LOG.log(Level.SEVERE, "Call \"" + call +"\" has failed");
+                String call = webTarget.getUri().toString();
+                LOG.log(Level.SEVERE, "Call \"" + call +"\" for " + requests.size() + " users has failed");
                 LOG.log(Level.SEVERE, "Cloudsite \"" + toString() +"\" has become unreachable", e);
                 connectionEstablished(false);
             }
         }
     }
 
+    /**
+     * Passes each response to the requests with the same user token (see
+     * {@link ResponseMatcher}).
+     *
+     * @param requests
+     *            - the requests. Must not be null.
+     * @param responses
+     *            - the responses of the admission controller. Must not be null.
+     * @param site
+     *            - the cloud site, whose responses these are. Must not be null.
+     */
+    static void matchResponses(final List<EPUserRequest> requests, final AdmissionControllerResponse[] responses,
+            final CloudSite site) {
+        new ResponseMatcher(requests, site).accept(Arrays.asList(responses));
+    }
+
+    /**
+     * Passes the responses to the requests with the same user token, through
+     * a hash index of the requests, as the responses are decoded. Requests
+     * with duplicate tokens share the response. If there are several
+     * responses for a token, the first one is used.
+     */
+    static final class ResponseMatcher implements ChunkConsumer<AdmissionControllerResponse> {
+        /** The requests, which have not received a response yet, by token. */
+        private final Map<String, List<EPUserRequest>> index;
+        private final CloudSite site;
+        private int matchedCount = 0;
+
+        ResponseMatcher(final List<EPUserRequest> requests, final CloudSite site) {
+            this.index = Maps.newHashMapWithExpectedSize(requests.size());
+            this.site = site;
+            for (EPUserRequest userRequest : requests) {
+                index.computeIfAbsent(userRequest.getUserToken(), t -> new ArrayList<>(1)).add(userRequest);
+            }
+        }
+
+        @Override
+        public void accept(final List<AdmissionControllerResponse> chunk) {
+            for (AdmissionControllerResponse response : chunk) {
+                List<EPUserRequest> userRequests = index.remove(response.getUserToken());
+                if (userRequests != null) {
+                    matchedCount++;
+                    for (EPUserRequest userRequest : userRequests) {
+                        userRequest.addResponseFromCloudSite(site, response.isEligible(), response.getCostEstimation());
+                    }
+                }
+            }
+        }
+
+        int getMatchedCount() {
+            return matchedCount;
+        }
+    }
+
+    /**
+     * Enquires the admission controller about the users, hedging if needed,
+     * and passes the responses to the consumer.
+     */
+    private void fetchResponses(final List<String> userTokens, final ChunkConsumer<AdmissionControllerResponse> consumer) {
+        long hedgeDelay = hedgeDelay();
+        if (hedgeDelay < 0) {
+            call(userTokens, consumer);
+        } else {
+            // The responses of the racing calls are not consumed until one of them wins
+            try {
+                consumer.accept(Arrays.asList(hedgedCall(userTokens, hedgeDelay)));
+            } catch (IOException e) {
+                throw new ProcessingException(e);
+            }
+        }
+    }
+
+    /**
+     * Returns the responses for the users, enquiring the admission controller
+     * only about the ones, whose eligibility is not cached. The cost of the
+     * cached eligible users is the last known one, refreshed if it is older
+     * than the refresh interval.
+     */
+    private List<AdmissionControllerResponse> cachedResponses(final List<String> userTokens) {
+        List<String> missing = new ArrayList<>();
+        List<String> cachedTokens = new ArrayList<>();
+        List<Boolean> cachedEligibility = new ArrayList<>();
+        boolean anyCachedEligible = false;
+        for (String userToken : userTokens) {
+            Boolean eligible = eligibilityCache.getIfPresent(userToken);
+            if (eligible == null) {
+                missing.add(userToken);
+            } else {
+                cachedTokens.add(userToken);
+                cachedEligibility.add(eligible);
+                anyCachedEligible |= eligible;
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        List<AdmissionControllerResponse> responses = new ArrayList<>(userTokens.size());
+        if (!missing.isEmpty()) {
+            fetchResponses(missing, responses::addAll);
+        }
+        boolean costFetched = false;
+        for (AdmissionControllerResponse response : responses) {
+            eligibilityCache.put(response.getUserToken(), response.isEligible());
+            if (response.isEligible()) {
+                updateCost(response.getCostEstimation(), now);
+                costFetched = true;
+            }
+        }
+        if (cachedTokens.isEmpty()) {
+            return responses;
+        }
+
+        boolean costStale = !costFetched && !streaming && now - costTimeMillis >= costRefreshIntervalMillis;
+        if (anyCachedEligible && costStale && !refreshCost()) {
+            // No cost-only service - enquire about the cached users as well
+            fetchResponses(cachedTokens, responses::addAll);
+            return responses;
+        }
+
+        double currentCost = cost;
+        for (int i = 0; i < cachedTokens.size(); i++) {
+            boolean eligible = cachedEligibility.get(i);
+            responses.add(new AdmissionControllerResponse(cachedTokens.get(i), eligible,
+                    eligible ? currentCost : Double.NaN));
+        }
+        return responses;
+    }
+
+    /**
+     * Fetches the cost from the cost-only service of the admission controller.
+     * Returns false, if the admission controller does not support it.
+     */
+    private boolean refreshCost() {
+        long start = System.currentTimeMillis();
+        Response r = client.target(getAdmissionControllerAddress()).path(AC_PATH).path(AC_COST_PATH)
+                .request(MediaType.TEXT_PLAIN).get();
+        try (Closeable ac = r::close) {
+            if (r.getStatus() == Response.Status.NOT_FOUND.getStatusCode()) {
+                LOG.log(Level.WARNING, "Cloudsite {0} does not support the cost-only service", getName());
+                costProtocol = false;
+                return false;
+            }
+            if (r.getStatus() != Response.Status.OK.getStatusCode()) {
+                throw new WebApplicationException(r);
+            }
+            updateCost(Double.parseDouble(r.readEntity(String.class).trim()), start);
+            return true;
+        } catch (IOException | NumberFormatException e) {
+            throw new ProcessingException(e);
+        }
+    }
+
+    private void updateCost(final double newCost, final long timeMillis) {
+        // The cost is written first - at worst, a fresh cost is refreshed again
+        cost = newCost;
+        costTimeMillis = timeMillis;
+    }
+
+    /**
+     * Returns after how many millis to hedge an enquiry, or -1 if it should
+     * not be hedged.
+     */
+    private long hedgeDelay() {
+        if (hedgePercentile <= 0 || latencyHistogram.getCount() < MIN_HEDGE_SAMPLES) {
+            return -1;
+        }
+        return Math.max(minHedgeDelayMillis, latencyHistogram.getPercentile(hedgePercentile));
+    }
+
+    /**
+     * Calls the admission controller, and blocks until the response is
+     * received and passed to the consumer.
+     */
+    private void call(final List<String> userTokens, final ChunkConsumer<AdmissionControllerResponse> consumer) {
+        long start = System.currentTimeMillis();
+        Response r = null;
+        if (batchProtocol) {
+            r = webTarget.request(BATCH_ACCEPTED_TYPES).post(tokensEntity(userTokens));
+            if (isBatchUnsupported(r)) {
+                r.close();
+                r = null;
+            }
+        }
+        if (r == null) {
+            r = getEnquiry(userTokens).get();
+        }
+        try (Closeable ac =  r::close) {
+            readResponses(r, consumer);
+            latencyHistogram.record(System.currentTimeMillis() - start);
+        } catch (IOException e) {
+            throw new ProcessingException(e);
+        }
+    }
+
+    /**
+     * Returns if the admission controller has rejected a batch POST enquiry,
+     * as older admission controllers do. If so, the GET service is used from
+     * now on.
+     */
+    private boolean isBatchUnsupported(final Response r) {
+        if (r.getStatus() == Response.Status.METHOD_NOT_ALLOWED.getStatusCode()
+                || r.getStatus() == Response.Status.NOT_FOUND.getStatusCode()) {
+            LOG.log(Level.WARNING, "Cloudsite {0} does not support batch POST enquiries", getName());
+            batchProtocol = false;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the GET enquiry about the users, served by all admission
+     * controllers.
+     */
+    private Invocation.Builder getEnquiry(final List<String> userTokens) {
+        return webTarget.queryParam(USER_TOKENS_PARAM, userTokens.toArray()).request(MediaType.APPLICATION_JSON);
+    }
+
+    /**
+     * Decodes the responses of the admission controller, depending on the
+     * content type it has chosen, and passes them to the consumer in chunks
+     * while the entity is being read.
+     */
+    private static void readResponses(final Response r, final ChunkConsumer<AdmissionControllerResponse> consumer)
+            throws IOException {
+        MediaType type = r.getMediaType();
+        InputStream in = r.readEntity(InputStream.class);
+        if (type != null && type.isCompatible(BINARY_TYPE)) {
+            AdmissionControllerResponseCodec.read(in, consumer);
+        } else {
+            Jsons.readArray(new InputStreamReader(in, StandardCharsets.UTF_8), AdmissionControllerResponse.class,
+                    RESPONSES_CHUNK_SIZE, consumer);
+        }
+    }
+
+    /**
+     * Calls the admission controller and if there is no response within the
+     * hedge delay, calls it again. Returns the first successful response.
+     */
+    private AdmissionControllerResponse[] hedgedCall(final List<String> userTokens, final long hedgeDelay) {
+        CompletableFuture<AdmissionControllerResponse[]> result = new CompletableFuture<>();
+        AtomicInteger pendingCalls = new AtomicInteger(0);
+        Future<Response> primary = asyncCall(userTokens, result, pendingCalls);
+        Future<Response> hedge = null;
+        try {
+            try {
+                return result.get(hedgeDelay, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                hedgedEnquiries.incrementAndGet();
+                LOG.log(Level.FINE, "Hedging enquiry to {0} after {1}ms", new Object[] { getName(), hedgeDelay });
+                hedge = asyncCall(userTokens, result, pendingCalls);
+                return result.get(connectionTimeoutMillis, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProcessingException(e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof ProcessingException ? (ProcessingException) e.getCause() : new ProcessingException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new ProcessingException(e);
+        } finally {
+            // Abandon the slower call, if any
+            primary.cancel(true);
+            if (hedge != null) {
+                hedge.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Calls the admission controller asynchronously. Completes the result with
+     * the first successful response, or with an error if all calls have failed.
+     */
+    private Future<Response> asyncCall(final List<String> userTokens, final CompletableFuture<AdmissionControllerResponse[]> result,
+            final AtomicInteger pendingCalls) {
+        pendingCalls.incrementAndGet();
+        long start = System.currentTimeMillis();
+        boolean batch = batchProtocol;
+        InvocationCallback<Response> callback = new InvocationCallback<Response>() {
+            @Override
+            public void completed(final Response r) {
+                try (Closeable ac =  r::close) {
+                    if (batch && isBatchUnsupported(r)) {
+                        // Enquire again with GET. It is not cancelled with the rejected call,
+                        // so if it loses the race, its result is just ignored.
+                        getEnquiry(userTokens).async().get(this);
+                        return;
+                    }
+                    List<AdmissionControllerResponse> responses = new ArrayList<>(userTokens.size());
+                    readResponses(r, responses::addAll);
+                    latencyHistogram.record(System.currentTimeMillis() - start);
+                    result.complete(responses.toArray(new AdmissionControllerResponse[responses.size()]));
+                } catch (IOException | RuntimeException e) {
+                    failed(e);
+                }
+            }
+
+            @Override
+            public void failed(final Throwable throwable) {
+                // Fail only if there is no other call to wait for
+                if (pendingCalls.decrementAndGet() == 0) {
+                    result.completeExceptionally(throwable);
+                }
+            }
+        };
+        return batch ?
+                webTarget.request(BATCH_ACCEPTED_TYPES).async().post(tokensEntity(userTokens), callback) :
+                getEnquiry(userTokens).async().get(callback);
+    }
+
+    /**
+     * Creates a request body, which streams the tokens as a json array.
+     */
+    private static Entity<StreamingOutput> tokensEntity(final List<String> userTokens) {
+        StreamingOutput body = output -> {
+            JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8)));
+            writer.beginArray();
+            for (String userToken : userTokens) {
+                writer.value(userToken);
+            }
+            writer.endArray();
+            writer.flush();
+        };
+        return Entity.entity(body, MediaType.APPLICATION_JSON);
+    }
+
+    /**
+     * Returns the histogram of the response times of the admission controller.
+     * @return the histogram of the response times of the admission controller.
+     */
+    public LatencyHistogram getLatencyHistogram() {
+        return latencyHistogram;
+    }
+
+    /**
+     * Returns how many enquiries have been hedged.
+     * @return how many enquiries have been hedged.
+     */
+    public long getHedgedEnquiries() {
+        return hedgedEnquiries.get();
+    }
+
+    /**
+     * Subscribes for the updates of the admission controller, in a background
+     * thread. If the stream breaks, it is reopened after the reconnection
+     * interval. Admission controllers, which do not publish updates, are
+     * still enquired as usual. Calling it more than once has no effect.
+     */
+    public synchronized void subscribe() {
+        if (subscription == null && !closed) {
+            subscription = new Thread(this::receiveUpdates, "Cloud Site Updates - " + getName());
+            subscription.setDaemon(true);
+            subscription.start();
+        }
+    }
+
+    /**
+     * Reads the stream of updates until the cloud site is closed.
+     */
+    private void receiveUpdates() {
+        WebTarget updatesTarget = client.target(getAdmissionControllerAddress()).path(AC_PATH).path(AC_UPDATES_PATH);
+        while (!closed) {
+            try {
+                Response r = updatesTarget.request(MediaType.APPLICATION_JSON).get();
+                if (r.getStatus() == Response.Status.NOT_FOUND.getStatusCode()) {
+                    LOG.log(Level.WARNING, "Cloudsite {0} does not publish updates", getName());
+                    r.close();
+                    return;
+                }
+                try (ChunkedInput<String> input = r.readEntity(new GenericType<ChunkedInput<String>>() {})) {
+                    input.setParser(ChunkedInput.createParser(AC_UPDATES_DELIMITER));
+                    String chunk;
+                    // Null, once the stream is closed or times out
+                    while (!closed && (chunk = input.read()) != null) {
+                        applyUpdate(chunk);
+                    }
+                }
+            } catch (ProcessingException | WebApplicationException | IllegalStateException e) {
+                LOG.log(Level.FINE, "The updates of cloudsite " + getName() + " have been interrupted", e);
+            } finally {
+                streaming = false;
+            }
+
+            try {
+                Thread.sleep(reconnectionIntervalInMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Applies a pushed update. Malformed updates are skipped, so that they do
+     * not break the stream. If the data centre has changed in a way, which can
+     * change the users' eligibility, the cached eligibility is dropped.
+     */
+    private void applyUpdate(final String chunk) {
+        AdmissionControllerUpdate update;
+        try {
+            update = Jsons.fromJson(chunk, AdmissionControllerUpdate.class);
+        } catch (RuntimeException e) {
+            // Jsons wraps the JsonSyntaxException, and has logged the chunk
+            LOG.log(Level.WARNING, "Cloudsite {0} has pushed a malformed update", getName());
+            return;
+        }
+        if (update == null || update.getDefinition() == null) {
+            LOG.log(Level.WARNING, "Cloudsite {0} has pushed an incomplete update: {1}", new Object[] { getName(), chunk });
+            return;
+        }
+
+        updateCost(update.getCostEstimation(), System.currentTimeMillis());
+        boolean changed;
+        synchronized (this) {
+            changed = definition != null && !sameEligibilityFactors(definition, update.getDefinition());
+            // Drop the eligibility before publishing the new definition, so
+            // that no one sees the new definition with the old eligibility
+            if (changed && eligibilityCache != null) {
+                eligibilityCache.invalidateAll();
+            }
+            definition = update.getDefinition();
+        }
+        if (changed) {
+            LOG.log(Level.INFO, "The data centre of cloudsite {0} has changed to {1}", new Object[] { getName(), update.getDefinition() });
+        }
+        streaming = true;
+    }
+
+    /**
+     * Returns if the data centres have the same location, provider and tags,
+     * on which the eligibility of the users depends. The cost does not matter.
+     */
+    private static boolean sameEligibilityFactors(final DataCentre dc1, final DataCentre dc2) {
+        return dc1.getLocationCode().equals(dc2.getLocationCode())
+                && dc1.getProviderCode().equals(dc2.getProviderCode())
+                && dc1.getTags().equals(dc2.getTags());
+    }
+
+    /**
+     * Returns the last known cost estimation for an eligible user - e.g.
+     * pushed by the admission controller.
+     * @return the last known cost estimation, or NaN if it is not known.
+     */
+    public double getCostEstimation() {
+        return cost;
+    }
+
+    /**
+     * Returns whether the admission controller is currently pushing its
+     * updates.
+     * @return whether the admission controller is currently pushing its updates.
+     */
+    public boolean isStreaming() {
+        return streaming;
+    }
+
     private synchronized void updateDefinition() {
         if (definition == null) {
             WebTarget definitionTarget = client.target(getAdmissionControllerAddress()).path(AC_PATH).path(AC_DC_DEF_PATH);
@@ -126,9 +751,25 @@ public class RESTCloudSite extends CloudSite {
         }
     }
 
-    private synchronized void connectionEstablished(boolean connected) {
-        this.connected = connected;
-        this.connectionLostTimeMillis = connected ? 0 : System.currentTimeMillis();
+    private void connectionEstablished(boolean connected) {
+        boolean lost;
+        synchronized (this) {
+            lost = this.connected && !connected;
+            this.connected = connected;
+            this.connectionLostTimeMillis = connected ? 0 : System.currentTimeMillis();
+        }
+        // Notify outside of the lock
+        if (lost) {
+            unreachable();
+        }
+    }
+
+    /**
+     * Returns if the last call to the admission controller has succeeded.
+     */
+    @Override
+    public synchronized boolean isConnected() {
+        return connected;
     }
 
     private synchronized boolean tryConnection() {
@@ -146,6 +787,15 @@ public class RESTCloudSite extends CloudSite {
 
 	@Override
     public void close() throws Exception {
+        Thread currentSubscription;
+        synchronized (this) {
+            closed = true;
+            currentSubscription = subscription;
+        }
+        if (currentSubscription != null) {
+            currentSubscription.interrupt();
+        }
+        // Closing the client aborts the stream of updates, if any
         closeAll(client::close);
     }
 }
@@ -0,0 +1,405 @@
+package org.cloudbus.mcweb.entrypoint;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.cloudbus.mcweb.util.ThreadPools;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Dispatches the incoming user requests to the cloud sites in batches.
+ *
+ * <br>
+ * <br>
+ *
+ * Producers (i.e. the servlet threads) only append to a lock-free queue and
+ * never wait for a batch in flight. A single dispatcher thread drains the
+ * queue and hands each drained batch to a batch pool. The batch's task there
+ * enquires all cloud sites through the cloud sites pool, waits for them, and
+ * completes the requests from this batch only. The batch tasks never run in
+ * the cloud sites pool, so they can not starve the enquiries they wait for.
+ * The dispatcher never waits for the cloud sites - it goes straight back to
+ * draining, so a slow cloud site does not hold up the later batches.
+ *
+ * <br>
+ * <br>
+ *
+ * A batch is flushed as soon as either it reaches the maximum batch size, or
+ * its oldest request has lingered in the queue for the maximum linger time -
+ * whichever comes first. Thus, in an idle system users do not wait for a fixed
+ * period, and at peak times the batches do not grow unboundedly.
+ *
+ * <br>
+ * <br>
+ *
+ * In incremental mode, the dispatcher does not wait for all cloud sites to
+ * answer. Each request is released as soon as its selection can not change
+ * (see {@link EPUserRequest#isDecided()}) or when its budget since submission
+ * expires - whichever comes first. Thus, a slow cloud site only delays the
+ * users, for which it can make a difference.
+ *
+ * <br>
+ * <br>
+ *
+ * Otherwise, once all cloud sites have answered (or timed out), the cloud
+ * sites of the whole batch are selected at once by a
+ * {@link BatchSiteSelector}, before the requests are released. This also runs
+ * in the batch pool, so the selection (e.g. the latency lookups) is not
+ * on the critical path of the other batches.
+ *
+ * @author nikolay.grozev
+ *
+ */
+public class RequestDispatcher implements AutoCloseable {
+
+    /** Logger. */
+    private static final Logger LOG = Logger.getLogger(RequestDispatcher.class.getCanonicalName());
+
+    /** The requests, which have not been dispatched yet. */
+    private final Queue<EPUserRequest> pendingRequests = new ConcurrentLinkedQueue<>();
+    /** Approximate size of the queue - the queue's size() is not O(1). */
+    private final AtomicInteger pendingCount = new AtomicInteger(0);
+    /** The cloud sites to enquire. */
+    private final List<CloudSite> cloudSites;
+    /** ThreadPool for connecting to admission controllers asynch. */
+    private final ExecutorService cloudSitesThreadPool;
+    /**
+     * Runs the batches, which wait for the cloud sites. If they ran in the
+     * cloud sites pool, a bounded pool could fill up with batches waiting for
+     * enquiries, which are queued behind them.
+     */
+    private final ExecutorService batchThreadPool = ThreadPools.newCachedThreadPool();
+    /** Flush a batch, when it reaches this size. */
+    private final int maxBatchSize;
+    /** Flush a batch, when its oldest request has waited that long. */
+    private final long maxBatchLingerNanos;
+    /** How long to wait for a cloud sites (admission controller) to respond. */
+    private final long cloudSiteResponseTimeout;
+    /** Whether to release requests as soon as their selection is decided. */
+    private final boolean incremental;
+    /** In incremental mode - max time between submission and release. */
+    private final long requestBudgetNanos;
+    /** In incremental mode - releases the requests, whose budget expired. */
+    private final ScheduledExecutorService budgetTimer;
+    /** Selects the cloud sites of the completed batches. May be null. */
+    private final BatchSiteSelector selector;
+    /** Statistics about the dispatched batches. */
+    private final DispatchStatistics statistics = new DispatchStatistics();
+
+    /** Whether the dispatcher thread has been started. */
+    private final AtomicBoolean started = new AtomicBoolean(false);
+    /** Whether the dispatcher has been closed. */
+    private volatile boolean closed = false;
+    /** The thread, submitting requests to cloud sites (admission controllers). */
+    private final Thread dispatcherThread;
+
+    /**
+     * Constr.
+     *
+     * @param cloudSites
+     *            - the cloud sites to enquire. Must not be null.
+     * @param cloudSitesThreadPool
+     *            - the pool used to enquire the cloud sites. Must not be null.
+     * @param maxBatchSize
+     *            - flush a batch when it reaches this size. Must be positive.
+     * @param maxBatchLinger
+     *            - flush a batch when its oldest request has waited that many
+     *            millis. Must be positive.
+     * @param cloudSiteResponseTimeout
+     *            - how long to wait for the cloud sites in millis. Must be
+     *            positive.
+     * @param incremental
+     *            - whether to release requests as soon as their selection is
+     *            decided, rather than when all cloud sites have answered.
+     * @param requestBudget
+     *            - in incremental mode, the max millis between the submission
+     *            and the release of a request. Must be positive.
+     * @param selector
+     *            - if not incremental, selects the cloud sites of each
+     *            completed batch. If null, each request selects its cloud
+     *            site when it is woken up.
+     */
+    public RequestDispatcher(final List<CloudSite> cloudSites,
+            final ExecutorService cloudSitesThreadPool,
+            final int maxBatchSize,
+            final long maxBatchLinger,
+            final long cloudSiteResponseTimeout,
+            final boolean incremental,
+            final long requestBudget,
+            final BatchSiteSelector selector) {
+        Preconditions.checkNotNull(cloudSites);
+        Preconditions.checkNotNull(cloudSitesThreadPool);
+        Preconditions.checkArgument(maxBatchSize > 0);
+        Preconditions.checkArgument(maxBatchLinger > 0);
+        Preconditions.checkArgument(cloudSiteResponseTimeout > 0);
+        Preconditions.checkArgument(requestBudget > 0);
+
+        this.cloudSites = cloudSites;
+        this.cloudSitesThreadPool = cloudSitesThreadPool;
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchLingerNanos = TimeUnit.MILLISECONDS.toNanos(maxBatchLinger);
+        this.cloudSiteResponseTimeout = cloudSiteResponseTimeout;
+        this.incremental = incremental;
+        this.requestBudgetNanos = TimeUnit.MILLISECONDS.toNanos(requestBudget);
+        this.selector = selector;
+        this.budgetTimer = !incremental ? null : Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "Entry Point Request Budget Timer");
+            t.setDaemon(true);
+            return t;
+        });
+
+        this.dispatcherThread = new Thread(this::dispatchLoop, "Entry Point Batch Dispatcher");
+        this.dispatcherThread.setDaemon(true);
+    }
+
+    /**
+     * Schedules the request for the next batch. Does not block.
+     *
+     * @param req
+     *            - the request. Must not be null.
+     */
+    public void submit(final EPUserRequest req) {
+        Preconditions.checkNotNull(req);
+        req.setSubmissionTime(System.nanoTime());
+        pendingRequests.add(req);
+        ensureDispatcherIsRunning();
+
+        // Wake up the dispatcher if it should start counting the linger
+        // time, or if the batch is full.
+        int pending = pendingCount.incrementAndGet();
+        if (pending == 1 || pending >= maxBatchSize) {
+            LockSupport.unpark(dispatcherThread);
+        }
+
+        // If closed meanwhile - do not leave the request hanging
+        if (closed) {
+            completeAll(drain(Integer.MAX_VALUE));
+        }
+    }
+
+    /**
+     * Returns statistics about the dispatched batches.
+     *
+     * @return statistics about the dispatched batches.
+     */
+    public DispatchStatistics getStatistics() {
+        return statistics;
+    }
+
+    private void ensureDispatcherIsRunning() {
+        if (!started.get() && started.compareAndSet(false, true)) {
+            dispatcherThread.start();
+        }
+    }
+
+    private void dispatchLoop() {
+        while (!closed) {
+            EPUserRequest oldest = pendingRequests.peek();
+            if (oldest == null) {
+                // Nothing to do - wait for the next arrival
+                LockSupport.park(this);
+                continue;
+            }
+
+            // Wait until the batch is full, or the oldest request's deadline
+            long deadline = oldest.getSubmissionTime() + maxBatchLingerNanos;
+            long now = System.nanoTime();
+            while (!closed && pendingCount.get() < maxBatchSize && now - deadline < 0) {
+                LockSupport.parkNanos(this, deadline - now);
+                now = System.nanoTime();
+            }
+
+            if (!closed) {
+                boolean sizeTriggered = pendingCount.get() >= maxBatchSize;
+                List<EPUserRequest> batch = drain(maxBatchSize);
+                if (!batch.isEmpty()) {
+                    long lingerMillis = TimeUnit.NANOSECONDS.toMillis(now - batch.get(0).getSubmissionTime());
+                    statistics.record(batch.size(), Math.max(0, lingerMillis), sizeTriggered);
+                    LOG.log(Level.FINE, "Dispatching batch of {0} requests, lingered {1} ms",
+                            new Object[] { batch.size(), lingerMillis });
+                    if (incremental) {
+                        processRequestsIncrementally(batch);
+                    } else {
+                        processRequestsAsync(batch);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Drains up to the specified number of pending requests.
+     *
+     * @param limit
+     *            - the max number of requests to drain.
+     * @return the drained requests in the order of arrival.
+     */
+    private List<EPUserRequest> drain(final int limit) {
+        List<EPUserRequest> batch = new ArrayList<>(Math.min(limit, Math.max(pendingCount.get(), 16)));
+        EPUserRequest req;
+        while (batch.size() < limit && (req = pendingRequests.poll()) != null) {
+            batch.add(req);
+        }
+        pendingCount.addAndGet(-batch.size());
+        return batch;
+    }
+
+    /**
+     * Processes the batch in the batch pool, so that the dispatcher does not
+     * wait for the cloud sites.
+     */
+    private void processRequestsAsync(final List<EPUserRequest> batch) {
+        try {
+            batchThreadPool.execute(() -> processRequests(batch));
+        } catch (RejectedExecutionException e) {
+            // The pool is shut down - do not leave the requests hanging
+            LOG.log(Level.SEVERE, "Could not dispatch a batch", e);
+            completeAll(batch);
+        }
+    }
+
+    private void processRequests(final List<EPUserRequest> batch) {
+        try {
+            final CountDownLatch latch = new CountDownLatch(cloudSites.size());
+            for (CloudSite cloudSite : cloudSites) {
+                cloudSitesThreadPool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            cloudSite.enquire(batch);
+                        } finally {
+                            latch.countDown();
+                        }
+                    }
+                });
+            }
+
+            try {
+                latch.await(cloudSiteResponseTimeout, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                LOG.log(Level.SEVERE, "Could not get the results of all clouds", e);
+            }
+
+            if (selector != null) {
+                try {
+                    selector.select(batch);
+                } catch (RuntimeException e) {
+                    // The requests, which have not been selected, select on their own
+                    LOG.log(Level.SEVERE, "Could not select the cloud sites of the batch", e);
+                }
+            }
+        } finally {
+            // Wake up only the requests from this batch
+            completeAll(batch);
+        }
+    }
+
+    private void processRequestsIncrementally(final List<EPUserRequest> batch) {
+        for (EPUserRequest req : batch) {
+            req.expectResponsesFrom(cloudSites);
+        }
+        // The batch is in the order of arrival, and so are the budget deadlines
+        try {
+            budgetTimer.schedule(() -> releaseExpired(batch, 0),
+                    batch.get(0).getSubmissionTime() + requestBudgetNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // The timer is shut down - do not leave the requests hanging
+            LOG.log(Level.SEVERE, "Could not dispatch a batch", e);
+            completeAll(batch);
+            return;
+        }
+
+        // Do not wait for the cloud sites - each of them releases the
+        // requests, which it has decided
+        for (CloudSite cloudSite : cloudSites) {
+            try {
+                cloudSitesThreadPool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            cloudSite.enquire(batch);
+                        } finally {
+                            releaseDecided(batch, cloudSite);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // The pool is shut down - the cloud site will not answer
+                LOG.log(Level.SEVERE, "Could not enquire " + cloudSite, e);
+                releaseDecided(batch, cloudSite);
+            }
+        }
+    }
+
+    /**
+     * Marks that the cloud site has answered (or will not answer) the
+     * requests from the batch, and releases the ones, which are decided.
+     */
+    private static void releaseDecided(final List<EPUserRequest> batch, final CloudSite cloudSite) {
+        for (EPUserRequest req : batch) {
+            if (req.cloudSiteAnswered(cloudSite)) {
+                req.complete();
+            }
+        }
+    }
+
+    /**
+     * Releases the requests from the batch, whose budget has expired, and
+     * reschedules itself for the next one. Once closed, releases all.
+     */
+    private void releaseExpired(final List<EPUserRequest> batch, final int from) {
+        int i = from;
+        long now = System.nanoTime();
+        for (; i < batch.size(); i++) {
+            EPUserRequest req = batch.get(i);
+            long remaining = req.getSubmissionTime() + requestBudgetNanos - now;
+            if (remaining > 0 && !closed) {
+                final int next = i;
+                try {
+                    budgetTimer.schedule(() -> releaseExpired(batch, next), remaining, TimeUnit.NANOSECONDS);
+                    return;
+                } catch (RejectedExecutionException e) {
+                    // Closed meanwhile - release the rest now
+                    LOG.log(Level.FINE, "The budget timer is shut down", e);
+                }
+            }
+            req.complete();
+        }
+    }
+
+    private static void completeAll(final List<EPUserRequest> batch) {
+        for (EPUserRequest req : batch) {
+            req.complete();
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        closed = true;
+        LockSupport.unpark(dispatcherThread);
+        if (budgetTimer != null) {
+            // Already scheduled releases still run
+            budgetTimer.shutdown();
+        }
+        // Already dispatched batches still complete
+        batchThreadPool.shutdown();
+        LOG.log(Level.INFO, "Closing the dispatcher: {0}", statistics);
+
+        // Release all waiting requests
+        completeAll(drain(Integer.MAX_VALUE));
+    }
+}
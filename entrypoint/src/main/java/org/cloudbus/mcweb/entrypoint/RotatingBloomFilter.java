@@ -0,0 +1,229 @@
+package org.cloudbus.mcweb.entrypoint;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * A bounded, probabilistic set of the strings (e.g. IP addresses) seen within
+ * a time window. Consists of two Bloom filters - the current and the previous
+ * generation. New strings are added to the current one. When the window
+ * elapses, or the current generation reaches its capacity, it becomes the
+ * previous one and the oldest one is discarded. Thus, a string is remembered
+ * for one to two windows and the memory stays the same regardless of the
+ * number of distinct strings.
+ *
+ * <br>
+ * <br>
+ *
+ * As with any Bloom filter, a string may be falsely reported as seen, with
+ * the configured probability. It is never falsely reported as not seen within
+ * its window.
+ *
+ * <br>
+ * <br>
+ *
+ * Thread safe. Adding and querying do not lock - only the rotation does.
+ *
+ * @author nikolay.grozev
+ *
+ */
+public class RotatingBloomFilter {
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final int capacity;
+    private final long windowNanos;
+    private final Ticker ticker;
+    /** The number of bits of a generation - a power of 2. */
+    private final int bitCount;
+    private final int hashCount;
+
+    private volatile Generation current;
+    private volatile Generation previous;
+
+    /**
+     * Constr.
+     *
+     * @param capacity
+     *            - the max number of strings in a generation. Must be
+     *            positive.
+     * @param falsePositiveRate
+     *            - the probability of a false positive, when a generation is
+     *            full. Must be in (0, 1).
+     * @param windowMillis
+     *            - the time after which a generation is rotated. Must be
+     *            positive.
+     */
+    public RotatingBloomFilter(final int capacity, final double falsePositiveRate, final long windowMillis) {
+        this(capacity, falsePositiveRate, windowMillis, Ticker.systemTicker());
+    }
+
+    /**
+     * Constr.
+     *
+     * @param capacity
+     *            - the max number of strings in a generation. Must be
+     *            positive.
+     * @param falsePositiveRate
+     *            - the probability of a false positive, when a generation is
+     *            full. Must be in (0, 1).
+     * @param windowMillis
+     *            - the time after which a generation is rotated. Must be
+     *            positive.
+     * @param ticker
+     *            - the time source. Must not be null.
+     */
+    RotatingBloomFilter(final int capacity, final double falsePositiveRate, final long windowMillis,
+            final Ticker ticker) {
+        Preconditions.checkArgument(capacity > 0);
+        Preconditions.checkArgument(falsePositiveRate > 0 && falsePositiveRate < 1);
+        Preconditions.checkArgument(windowMillis > 0);
+        Preconditions.checkNotNull(ticker);
+
+        this.capacity = capacity;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.ticker = ticker;
+
+        // The optimal number of bits, rounded up to a power of 2, and the
+        // optimal number of hashes for it
+        double optimalBits = -capacity * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        Preconditions.checkArgument(optimalBits <= 1 << 30, "Too large capacity %s", capacity);
+        this.bitCount = Math.max(Long.SIZE, Integer.highestOneBit((int) Math.ceil(optimalBits) - 1) << 1);
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / capacity * Math.log(2)));
+
+        this.current = new Generation(bitCount, ticker.read());
+        this.previous = new Generation(bitCount, ticker.read());
+    }
+
+    /**
+     * Returns if the string has (probably) been added within the last one to
+     * two windows.
+     *
+     * @param value
+     *            - the string. Must not be null.
+     * @return if the string has (probably) been added.
+     */
+    public boolean mightContain(final String value) {
+        Preconditions.checkNotNull(value);
+        maybeRotate();
+        HashCode hash = HASH.hashString(value, Charsets.UTF_8);
+        return current.contains(hash) || previous.contains(hash);
+    }
+
+    /**
+     * Adds the string, unless it has (probably) been added within the last one
+     * to two windows.
+     *
+     * @param value
+     *            - the string. Must not be null.
+     * @return if the string has been added, i.e. it has not been seen.
+     */
+    public boolean add(final String value) {
+        Preconditions.checkNotNull(value);
+        maybeRotate();
+        HashCode hash = HASH.hashString(value, Charsets.UTF_8);
+        Generation currentGeneration = current;
+        if (currentGeneration.contains(hash) || previous.contains(hash)) {
+            return false;
+        }
+        currentGeneration.add(hash);
+        return true;
+    }
+
+    /**
+     * Returns the number of bytes, which the filter keeps for the strings.
+     *
+     * @return the number of bytes, which the filter keeps for the strings.
+     */
+    public long getSizeInBytes() {
+        return 2L * bitCount / Byte.SIZE;
+    }
+
+    private void maybeRotate() {
+        Generation currentGeneration = current;
+        if (currentGeneration.insertions.get() >= capacity || ticker.read() - currentGeneration.start >= windowNanos) {
+            rotate(currentGeneration);
+        }
+    }
+
+    private synchronized void rotate(final Generation expected) {
+        // Another thread may have rotated meanwhile
+        if (current == expected) {
+            Generation newGeneration = previous;
+            newGeneration.clear(ticker.read());
+            // Queries in flight may still see the cleared generation as the
+            // previous one for a moment - at worst, a string is not found
+            previous = expected;
+            current = newGeneration;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(getClass())
+                .add("Capacity", capacity)
+                .add("Window", TimeUnit.NANOSECONDS.toMillis(windowNanos))
+                .add("Bits", bitCount)
+                .add("Hashes", hashCount)
+                .toString();
+    }
+
+    /**
+     * A single Bloom filter.
+     */
+    private final class Generation {
+        private final AtomicLongArray words;
+        private final AtomicInteger insertions = new AtomicInteger(0);
+        private volatile long start;
+
+        Generation(final int bits, final long start) {
+            this.words = new AtomicLongArray(bits / Long.SIZE);
+            this.start = start;
+        }
+
+        boolean contains(final HashCode hash) {
+            long hash64 = hash.asLong();
+            int hash1 = (int) hash64;
+            int hash2 = (int) (hash64 >>> 32);
+            for (int i = 1; i <= hashCount; i++) {
+                int bit = (hash1 + i * hash2) & (bitCount - 1);
+                if ((words.get(bit >>> 6) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void add(final HashCode hash) {
+            long hash64 = hash.asLong();
+            int hash1 = (int) hash64;
+            int hash2 = (int) (hash64 >>> 32);
+            for (int i = 1; i <= hashCount; i++) {
+                int bit = (hash1 + i * hash2) & (bitCount - 1);
+                long mask = 1L << bit;
+                long word;
+                do {
+                    word = words.get(bit >>> 6);
+                } while ((word & mask) == 0 && !words.compareAndSet(bit >>> 6, word, word | mask));
+            }
+            insertions.incrementAndGet();
+        }
+
+        void clear(final long newStart) {
+            for (int i = 0; i < words.length(); i++) {
+                words.set(i, 0);
+            }
+            insertions.set(0);
+            start = newStart;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package org.cloudbus.mcweb.entrypoint;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.cloudbus.cloudsim.ex.geolocation.IGeolocationService;
+import org.cloudbus.cloudsim.ex.geolocation.geoip2.LookUpGeoLocationService;
+import org.cloudbus.mcweb.AggregatedUncaghtExceptionHandler;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BatchSiteSelectorTest {
+
+    private static final double SLA = 50;
+
+    private List<CloudSite> cloudSites;
+
+    @Before
+    public void setUp() {
+        cloudSites = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            CloudSite cs = new CloudSite("CS" + i, "127.0.0." + (i + 1), "127.0.0." + (i + 1));
+            cs.setOrdinal(i);
+            cloudSites.add(cs);
+        }
+    }
+
+    @Test
+    public void testSelection() {
+        Map<String, Double> latencies = new HashMap<>();
+        EPUserRequest slaMet = request("10.0.0.1", latencies, new double[] { 60, 40, 20, 70, 10 });
+        EPUserRequest slaMissed = request("10.0.0.2", latencies, new double[] { 90, 80, 60, 70, 100 });
+        EPUserRequest refused = request("10.0.0.3", latencies, new double[] { 10, 10, 10, 10, 10 });
+
+        // Costs: CS0=5, CS1=4, CS2=3, CS3=2, CS4=1. CS4 is not eligible.
+        for (EPUserRequest req : Arrays.asList(slaMet, slaMissed)) {
+            for (int i = 0; i < 4; i++) {
+                req.addResponseFromCloudSite(new EPAdmissionControllerResponse(req.getUserToken(), true, 5 - i,
+                        cloudSites.get(i)));
+            }
+            req.addResponseFromCloudSite(new EPAdmissionControllerResponse(req.getUserToken(), false, 1,
+                    cloudSites.get(4)));
+        }
+
+        new BatchSiteSelector(cloudSites).select(Arrays.asList(slaMet, slaMissed, refused));
+
+        // The cheapest meeting the SLA
+        assertSame(cloudSites.get(2), slaMet.selectCloudSite());
+        // None meets the SLA - the fastest
+        assertSame(cloudSites.get(2), slaMissed.selectCloudSite());
+        // No eligible cloud site
+        assertNull(refused.selectCloudSite());
+    }
+
+    @Test
+    public void testSameAsPerRequestSelection() {
+        List<EPUserRequest> batch = new ArrayList<>();
+        List<EPUserRequest> reference = new ArrayList<>();
+        randomBatch(new Random(42), "10.0.1.", batch, reference);
+
+        new BatchSiteSelector(cloudSites).select(batch);
+
+        for (int r = 0; r < batch.size(); r++) {
+            assertSame(reference.get(r).selectCloudSite(), batch.get(r).selectCloudSite());
+        }
+    }
+
+    @Test
+    public void testConcurrentBatches() throws Throwable {
+        BatchSiteSelector selector = new BatchSiteSelector(cloudSites);
+        AggregatedUncaghtExceptionHandler errHandler = new AggregatedUncaghtExceptionHandler();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            List<EPUserRequest> batch = new ArrayList<>();
+            List<EPUserRequest> reference = new ArrayList<>();
+            randomBatch(new Random(t), "10.0." + (t + 1) + ".", batch, reference);
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 50; i++) {
+                    selector.select(batch);
+                    for (int r = 0; r < batch.size(); r++) {
+                        assertSame(reference.get(r).selectCloudSite(), batch.get(r).selectCloudSite());
+                    }
+                }
+            });
+            thread.setUncaughtExceptionHandler(errHandler);
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        errHandler.throwFirst();
+    }
+
+    /** Fills two copies of a batch with random latencies and responses. */
+    private void randomBatch(final Random random, final String ipPrefix, final List<EPUserRequest> batch,
+            final List<EPUserRequest> reference) {
+        Map<String, Double> latencies = new HashMap<>();
+        for (int r = 0; r < 200; r++) {
+            double[] rowLatencies = new double[cloudSites.size()];
+            for (int i = 0; i < rowLatencies.length; i++) {
+                // Some latencies are unknown
+                rowLatencies[i] = random.nextInt(10) == 0 ? Double.NaN : random.nextInt(100);
+            }
+            EPUserRequest req = request(ipPrefix + r, latencies, rowLatencies);
+            EPUserRequest ref = request(ipPrefix + r, latencies, rowLatencies);
+            for (CloudSite cs : cloudSites) {
+                boolean eligible = random.nextBoolean();
+                // Distinct costs, so that the cost order is unambiguous
+                double cost = random.nextInt(1000) + cs.getOrdinal() / 10.0;
+                req.addResponseFromCloudSite(new EPAdmissionControllerResponse(req.getUserToken(), eligible, cost, cs));
+                ref.addResponseFromCloudSite(new EPAdmissionControllerResponse(ref.getUserToken(), eligible, cost, cs));
+            }
+            batch.add(req);
+            reference.add(ref);
+        }
+    }
+
+    private EPUserRequest request(final String ip, final Map<String, Double> latencies, final double[] rowLatencies) {
+        for (int i = 0; i < rowLatencies.length; i++) {
+            if (!Double.isNaN(rowLatencies[i])) {
+                latencies.put(ip + cloudSites.get(i).getIPAddress(), rowLatencies[i]);
+            }
+        }
+        IGeolocationService geoLocationService = new LookUpGeoLocationService(null, latencies, null);
+        EPUserRequest req = new EPUserRequest(ip, "user-" + ip);
+        req.setLatencySLA(SLA);
+        req.setGeoLocationService(geoLocationService);
+        req.setCloudSites(cloudSites);
+        return req;
+    }
+}
@@ -0,0 +1,55 @@
+package org.cloudbus.mcweb.entrypoint;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class DecisionCacheTest {
+
+    private CloudSite cs1;
+    private CloudSite cs2;
+    private DecisionCache cache;
+
+    @Before
+    public void setUp() {
+        cs1 = new CloudSite("CS1", "127.0.0.1", "127.0.0.1");
+        cs2 = new CloudSite("CS2", "127.0.0.2", "127.0.0.2");
+        cache = new DecisionCache(100, 60_000, 24, 48);
+    }
+
+    @Test
+    public void testKeyedByTokenAndNetwork() {
+        cache.put(new EPUserRequest("10.0.0.1", "user1"), cs1);
+
+        // Same user from the same network
+        assertSame(cs1, cache.get(new EPUserRequest("10.0.0.2", "user1")));
+        // Same user from another network
+        assertNull(cache.get(new EPUserRequest("10.0.1.1", "user1")));
+        // Another user from the same network
+        assertNull(cache.get(new EPUserRequest("10.0.0.1", "user2")));
+    }
+
+    @Test
+    public void testInvalidate() {
+        cache.put(new EPUserRequest("10.0.0.1", "user1"), cs1);
+        cache.put(new EPUserRequest("10.0.0.1", "user2"), cs2);
+        cache.put(new EPUserRequest("10.0.1.1", "user3"), cs1);
+
+        cache.invalidate(cs1);
+
+        assertEquals(1, cache.size());
+        assertNull(cache.get(new EPUserRequest("10.0.0.1", "user1")));
+        assertSame(cs2, cache.get(new EPUserRequest("10.0.0.1", "user2")));
+    }
+
+    @Test
+    public void testUnreachableListener() {
+        cs1.setUnreachableListener(cache::invalidate);
+        cache.put(new EPUserRequest("10.0.0.1", "user1"), cs1);
+
+        cs1.unreachable();
+
+        assertNull(cache.get(new EPUserRequest("10.0.0.1", "user1")));
+    }
+}
@@ -2,6 +2,7 @@ package org.cloudbus.mcweb.entrypoint;
 
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -37,6 +38,7 @@ public class EPUserRequestTest {
         // Finish up the initialisation of the request
         req.setLatencySLA(10);
         req.setGeoLocationService(geoLocationService);
+        req.setCloudSites(Arrays.asList(cs1, cs2, cs3, cs4));
 
         // Set up the response from each cloud site, them to the 
         // user request and validate the state
@@ -45,19 +47,19 @@ public class EPUserRequestTest {
         EPAdmissionControllerResponse cs3Response = new EPAdmissionControllerResponse(req.getUserToken(), false, 10, cs3);
         EPAdmissionControllerResponse cs4Response = new EPAdmissionControllerResponse(req.getUserToken(), true, 20, cs4);
         
-        validateViableCloudSiteResponses(req.viableCloudSiteResponses, 0);
+        validateViableCloudSiteResponses(req.getViableCloudSiteResponses(), 0);
         
         req.addResponseFromCloudSite(cs1Response);
-        validateViableCloudSiteResponses(req.viableCloudSiteResponses, 1);
+        validateViableCloudSiteResponses(req.getViableCloudSiteResponses(), 1);
         
         req.addResponseFromCloudSite(cs2Response);
-        validateViableCloudSiteResponses(req.viableCloudSiteResponses, 2);
+        validateViableCloudSiteResponses(req.getViableCloudSiteResponses(), 2);
 
         req.addResponseFromCloudSite(cs3Response);
-        validateViableCloudSiteResponses(req.viableCloudSiteResponses, 2);
+        validateViableCloudSiteResponses(req.getViableCloudSiteResponses(), 2);
         
         req.addResponseFromCloudSite(cs4Response);
-        validateViableCloudSiteResponses(req.viableCloudSiteResponses, 3);
+        validateViableCloudSiteResponses(req.getViableCloudSiteResponses(), 3);
         
         // Get the final selection of a cloud site - must be cs2
         CloudSite cs = req.selectCloudSite();
@@ -85,6 +87,7 @@ public class EPUserRequestTest {
         // Finish up the initialisation of the request
         req.setLatencySLA(10);
         req.setGeoLocationService(geoLocationService);
+        req.setCloudSites(Arrays.asList(cs1, cs2, cs3, cs4));
 
         // Set up the response from each cloud site, them to the 
         // user request and validate the state
@@ -93,19 +96,19 @@ public class EPUserRequestTest {
         EPAdmissionControllerResponse cs3Response = new EPAdmissionControllerResponse(req.getUserToken(), false, 10, cs3);
         EPAdmissionControllerResponse cs4Response = new EPAdmissionControllerResponse(req.getUserToken(), true, 20, cs4);
         
-        validateViableCloudSiteResponses(req.viableCloudSiteResponses, 0);
+        validateViableCloudSiteResponses(req.getViableCloudSiteResponses(), 0);
         
         req.addResponseFromCloudSite(cs1Response);
-        validateViableCloudSiteResponses(req.viableCloudSiteResponses, 1);
+        validateViableCloudSiteResponses(req.getViableCloudSiteResponses(), 1);
         
         req.addResponseFromCloudSite(cs2Response);
-        validateViableCloudSiteResponses(req.viableCloudSiteResponses, 2);
+        validateViableCloudSiteResponses(req.getViableCloudSiteResponses(), 2);
 
         req.addResponseFromCloudSite(cs3Response);
-        validateViableCloudSiteResponses(req.viableCloudSiteResponses, 2);
+        validateViableCloudSiteResponses(req.getViableCloudSiteResponses(), 2);
         
         req.addResponseFromCloudSite(cs4Response);
-        validateViableCloudSiteResponses(req.viableCloudSiteResponses, 3);
+        validateViableCloudSiteResponses(req.getViableCloudSiteResponses(), 3);
         
         // Get the final selection of a cloud site - must be cs2
         CloudSite cs = req.selectCloudSite();
@@ -133,6 +136,7 @@ public class EPUserRequestTest {
         // Finish up the initialisation of the request
         req.setLatencySLA(10);
         req.setGeoLocationService(geoLocationService);
+        req.setCloudSites(Arrays.asList(cs1, cs2, cs3, cs4));
 
         // Set up the response from each cloud site, them to the 
         // user request and validate the state
@@ -141,19 +145,19 @@ public class EPUserRequestTest {
         EPAdmissionControllerResponse cs3Response = new EPAdmissionControllerResponse(req.getUserToken(), false, 10, cs3);
         EPAdmissionControllerResponse cs4Response = new EPAdmissionControllerResponse(req.getUserToken(), true, 19, cs4);
         
-        validateViableCloudSiteResponses(req.viableCloudSiteResponses, 0);
+        validateViableCloudSiteResponses(req.getViableCloudSiteResponses(), 0);
         
         req.addResponseFromCloudSite(cs1Response);
-        validateViableCloudSiteResponses(req.viableCloudSiteResponses, 1);
+        validateViableCloudSiteResponses(req.getViableCloudSiteResponses(), 1);
         
         req.addResponseFromCloudSite(cs2Response);
-        validateViableCloudSiteResponses(req.viableCloudSiteResponses, 2);
+        validateViableCloudSiteResponses(req.getViableCloudSiteResponses(), 2);
 
         req.addResponseFromCloudSite(cs3Response);
-        validateViableCloudSiteResponses(req.viableCloudSiteResponses, 2);
+        validateViableCloudSiteResponses(req.getViableCloudSiteResponses(), 2);
         
         req.addResponseFromCloudSite(cs4Response);
-        validateViableCloudSiteResponses(req.viableCloudSiteResponses, 3);
+        validateViableCloudSiteResponses(req.getViableCloudSiteResponses(), 3);
         
         // Get the final selection of a cloud site - must be cs2
         CloudSite cs = req.selectCloudSite();
@@ -176,15 +180,16 @@ public class EPUserRequestTest {
         // Finish up the initialisation of the request
         req.setLatencySLA(10);
         req.setGeoLocationService(geoLocationService);
+        req.setCloudSites(Arrays.asList(cs1));
 
         // Set up the response from each cloud site, them to the 
         // user request and validate the state
         EPAdmissionControllerResponse cs1Response = new EPAdmissionControllerResponse(req.getUserToken(), true, 20, cs1);
         
-        validateViableCloudSiteResponses(req.viableCloudSiteResponses, 0);
+        validateViableCloudSiteResponses(req.getViableCloudSiteResponses(), 0);
         
         req.addResponseFromCloudSite(cs1Response);
-        validateViableCloudSiteResponses(req.viableCloudSiteResponses, 1);
+        validateViableCloudSiteResponses(req.getViableCloudSiteResponses(), 1);
         
         // Get the final selection of a cloud site - must be cs1
         CloudSite cs = req.selectCloudSite();
@@ -208,6 +213,7 @@ public class EPUserRequestTest {
         // Finish up the initialisation of the request
         req.setLatencySLA(10);
         req.setGeoLocationService(geoLocationService);
+        req.setCloudSites(Arrays.asList(cs1, cs2, cs3));
 
         // Set up the response from each cloud site, them to the 
         // user request and validate the state
@@ -215,22 +221,92 @@ public class EPUserRequestTest {
         EPAdmissionControllerResponse cs2Response = new EPAdmissionControllerResponse(req.getUserToken(), false, 15, cs2);
         EPAdmissionControllerResponse cs3Response = new EPAdmissionControllerResponse(req.getUserToken(), false, 10, cs3);
         
-        validateViableCloudSiteResponses(req.viableCloudSiteResponses, 0);
+        validateViableCloudSiteResponses(req.getViableCloudSiteResponses(), 0);
         
         req.addResponseFromCloudSite(cs1Response);
-        validateViableCloudSiteResponses(req.viableCloudSiteResponses, 0);
+        validateViableCloudSiteResponses(req.getViableCloudSiteResponses(), 0);
         
         req.addResponseFromCloudSite(cs2Response);
-        validateViableCloudSiteResponses(req.viableCloudSiteResponses, 0);
+        validateViableCloudSiteResponses(req.getViableCloudSiteResponses(), 0);
 
         req.addResponseFromCloudSite(cs3Response);
-        validateViableCloudSiteResponses(req.viableCloudSiteResponses, 0);
+        validateViableCloudSiteResponses(req.getViableCloudSiteResponses(), 0);
         
         // Get the final selection of a cloud site - must be null
         CloudSite cs = req.selectCloudSite();
         assertNull(cs);
     }
     
+    @Test
+    public void testDecidedWhenPendingCloudsAreAboveSLA() {
+        // Create user request
+        EPUserRequest req = new EPUserRequest("127.0.0.0", "nik");
+
+        // Create cloud sites
+        CloudSite cs1 = new CloudSite("CS1", "127.0.0.1", "127.0.0.1");
+        CloudSite cs2 = new CloudSite("CS2", "127.0.0.2", "127.0.0.2");
+        CloudSite cs3 = new CloudSite("CS3", "127.0.0.3", "127.0.0.3");
+        CloudSite cs4 = new CloudSite("CS4", "127.0.0.4", "127.0.0.4");
+
+        // Create a look-up geo-location service - cs1 and cs3 meet the SLA
+        Map<String, Double> latencyCache = ImmutableMap.of(req.getIpAddress() + cs1.getIPAddress(), 2d,
+                req.getIpAddress() + cs2.getIPAddress(), 50d, 
+                req.getIpAddress() + cs3.getIPAddress(), 5d,
+                req.getIpAddress() + cs4.getIPAddress(), 30d);
+        IGeolocationService geoLocationService = new LookUpGeoLocationService(null, latencyCache, null);
+
+        // Finish up the initialisation of the request
+        req.setLatencySLA(10);
+        req.setGeoLocationService(geoLocationService);
+        req.setCloudSites(Arrays.asList(cs1, cs2, cs3, cs4));
+        req.expectResponsesFrom(Arrays.asList(cs1, cs2, cs3, cs4));
+        assertFalse(req.isDecided());
+
+        // cs3 could still be cheaper than cs1
+        req.addResponseFromCloudSite(new EPAdmissionControllerResponse(req.getUserToken(), true, 20, cs1));
+        assertFalse(req.cloudSiteAnswered(cs1));
+
+        // cs2 and cs4 can not be selected, since cs1 meets the SLA
+        req.addResponseFromCloudSite(new EPAdmissionControllerResponse(req.getUserToken(), false, 10, cs3));
+        assertTrue(req.cloudSiteAnswered(cs3));
+        assertEquals(cs1, req.selectCloudSite());
+    }
+
+    @Test
+    public void testNotDecidedWhenPendingCloudsAreCloser() {
+        // Create user request
+        EPUserRequest req = new EPUserRequest("127.0.0.0", "nik");
+
+        // Create cloud sites
+        CloudSite cs1 = new CloudSite("CS1", "127.0.0.1", "127.0.0.1");
+        CloudSite cs2 = new CloudSite("CS2", "127.0.0.2", "127.0.0.2");
+        CloudSite cs3 = new CloudSite("CS3", "127.0.0.3", "127.0.0.3");
+
+        // Create a look-up geo-location service - none meets the SLA
+        Map<String, Double> latencyCache = ImmutableMap.of(req.getIpAddress() + cs1.getIPAddress(), 20d,
+                req.getIpAddress() + cs2.getIPAddress(), 15d, 
+                req.getIpAddress() + cs3.getIPAddress(), 30d);
+        IGeolocationService geoLocationService = new LookUpGeoLocationService(null, latencyCache, null);
+
+        // Finish up the initialisation of the request
+        req.setLatencySLA(10);
+        req.setGeoLocationService(geoLocationService);
+        req.setCloudSites(Arrays.asList(cs1, cs2, cs3));
+        req.expectResponsesFrom(Arrays.asList(cs1, cs2, cs3));
+
+        // Nothing viable yet
+        req.addResponseFromCloudSite(new EPAdmissionControllerResponse(req.getUserToken(), false, 20, cs3));
+        assertFalse(req.cloudSiteAnswered(cs3));
+
+        // cs2 is closer than cs1
+        req.addResponseFromCloudSite(new EPAdmissionControllerResponse(req.getUserToken(), true, 20, cs1));
+        assertFalse(req.cloudSiteAnswered(cs1));
+
+        // All answered
+        assertTrue(req.cloudSiteAnswered(cs2));
+        assertEquals(cs1, req.selectCloudSite());
+    }
+
     private static void validateViableCloudSiteResponses(List<EPAdmissionControllerResponse> responses, int expectedSize) {
         assertEquals(expectedSize, responses.size());
         if (responses.size() > 1) {
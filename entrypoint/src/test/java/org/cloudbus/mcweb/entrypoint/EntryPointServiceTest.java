@@ -0,0 +1,207 @@
+package org.cloudbus.mcweb.entrypoint;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Scanner;
+import java.util.Set;
+
+import org.cloudbus.cloudsim.ex.geolocation.geoip2.LookUpGeoLocationService;
+import org.cloudbus.mcweb.EntryPointResponse;
+import org.cloudbus.mcweb.util.Jsons;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.glassfish.jersey.servlet.ServletContainer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import static org.cloudbus.mcweb.entrypoint.EntryPointConfigUtil.TRUSTED_PROXIES_PROP;
+import static org.cloudbus.mcweb.util.Configs.*;
+
+/**
+ * Tests the asynchronous paths of {@link EntryPointService} and
+ * {@link EntryPointRedirectServelet}, deployed as in {@link Main}.
+ */
+public class EntryPointServiceTest {
+
+    private static final String CLOUDSITES_PROPERTIES = "/cloudsites.properties";
+    private static final String CONFIG_ASYNC_PROPERTIES = "/config-async.properties";
+    private static final String CONFIG_ASYNC_TIMEOUT_PROPERTIES = "/config-async-timeout.properties";
+
+    private static final String USER_IP = "127.127.127.127";
+    private static final String USER_TOKEN = "user1";
+
+    private Server server;
+
+    @Before
+    public void setUp() throws Exception {
+        ServletContextHandler context = new ServletContextHandler(ServletContextHandler.SESSIONS);
+        context.setContextPath("/");
+        ServletHolder jerseyServlet = context.addServlet(ServletContainer.class, "/*");
+        jerseyServlet.setInitOrder(0);
+        jerseyServlet.setAsyncSupported(true);
+        jerseyServlet.setInitParameter("jersey.config.server.provider.classnames",
+                EntryPointService.class.getCanonicalName());
+        ServletHolder webServlet = context.addServlet(EntryPointRedirectServelet.class, EP_PATH + "/redirect/*");
+        webServlet.setInitOrder(0);
+        webServlet.setAsyncSupported(true);
+
+        server = new Server(0);
+        server.setHandler(context);
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop();
+        EntryPoint.getInstance().close();
+    }
+
+    @Test
+    public void testAsyncServiceResumed() throws IOException {
+        configure(CONFIG_ASYNC_PROPERTIES);
+        assertTrue(EntryPoint.getInstance().isAsyncServlets());
+
+        HttpURLConnection con = open(EP_PATH + SERVICE_PATH + "/" + USER_IP + "/" + USER_TOKEN);
+        assertEquals(HttpURLConnection.HTTP_OK, con.getResponseCode());
+        assertEquals("127.0.0.3", read(con.getInputStream()));
+
+        con = open(EP_PATH + SERVICE_PATH + "/" + USER_TOKEN);
+        con.setRequestProperty("X-Forwarded-For", USER_IP);
+        assertEquals(HttpURLConnection.HTTP_OK, con.getResponseCode());
+        EntryPointResponse response = Jsons.fromJson(read(con.getInputStream()), EntryPointResponse.class);
+        assertEquals("AWS3", response.getSelectedCloudSiteCode());
+    }
+
+    @Test
+    public void testAsyncServiceTimeout() throws IOException {
+        configure(CONFIG_ASYNC_TIMEOUT_PROPERTIES);
+
+        HttpURLConnection con = open(EP_PATH + SERVICE_PATH + "/" + USER_IP + "/" + USER_TOKEN);
+        assertEquals(HttpURLConnection.HTTP_OK, con.getResponseCode());
+        // Resumed by the timeout handler, before the batch has been served
+        assertEquals("null", read(con.getInputStream()));
+    }
+
+    @Test
+    public void testAsyncRedirect() throws IOException {
+        configure(CONFIG_ASYNC_PROPERTIES);
+
+        HttpURLConnection con = open(EP_PATH + "/redirect/?UserToken=" + USER_TOKEN);
+        con.setRequestProperty("X-Forwarded-For", USER_IP);
+        assertEquals(HttpURLConnection.HTTP_MOVED_TEMP, con.getResponseCode());
+        assertTrue(con.getHeaderField("Location").endsWith("127.0.0.3"));
+    }
+
+    @Test
+    public void testAsyncRedirectTimeout() throws Exception {
+        configure(CONFIG_ASYNC_TIMEOUT_PROPERTIES);
+
+        HttpURLConnection con = open(EP_PATH + "/redirect/?UserToken=" + USER_TOKEN);
+        con.setRequestProperty("X-Forwarded-For", USER_IP);
+        // Completed by the timeout listener, without a redirect
+        assertEquals(HttpURLConnection.HTTP_OK, con.getResponseCode());
+        assertNull(con.getHeaderField("Location"));
+
+        // The batch is served after the context has been completed
+        Thread.sleep(3000);
+        con = open(EP_PATH + "/redirect/?UserToken=" + USER_TOKEN);
+        con.setRequestProperty("X-Forwarded-For", USER_IP);
+        assertEquals(HttpURLConnection.HTTP_OK, con.getResponseCode());
+    }
+
+    /** The reports and the selections of a client use the same address. */
+    @Test
+    public void testLatencyReportsOfForwardedClient() throws IOException {
+        configure(CONFIG_ASYNC_PROPERTIES);
+        assertEquals("AWS3", selectForwarded(USER_IP));
+
+        // AWS3 turns out slower than the SLA
+        for (int i = 0; i < 3; i++) {
+            HttpURLConnection con = open(EP_PATH + EP_LATENCY_PATH + "/AWS3/100");
+            con.setRequestMethod("POST");
+            con.setRequestProperty("X-Forwarded-For", USER_IP);
+            assertEquals(HttpURLConnection.HTTP_NO_CONTENT, con.getResponseCode());
+        }
+        assertEquals("AWS1", selectForwarded(USER_IP));
+    }
+
+    @Test
+    public void testTrustedProxies() throws IOException {
+        // The test connects from 127.0.0.1, which is not trusted
+        configure(CONFIG_ASYNC_PROPERTIES, TRUSTED_PROXIES_PROP, "10.0.0.0/8");
+        assertFalse(EntryPoint.getInstance().isTrustedProxy("127.0.0.1"));
+        assertEquals("AWS1", selectForwarded(USER_IP));
+
+        // The client is the last address, which is not a trusted proxy
+        configure(CONFIG_ASYNC_PROPERTIES, TRUSTED_PROXIES_PROP, "127.0.0.1, 10.0.0.0/8");
+        assertEquals("AWS3", selectForwarded(USER_IP + ", 10.1.1.1"));
+        assertEquals("AWS3", selectForwarded("10.2.2.2, " + USER_IP + ", 10.1.1.1"));
+        configure(CONFIG_ASYNC_PROPERTIES, TRUSTED_PROXIES_PROP, "127.0.0.1");
+        assertEquals("AWS1", selectForwarded(USER_IP + ", 10.1.1.1"));
+    }
+
+    /** Returns the cloud site, selected for the forwarded addresses. */
+    private String selectForwarded(final String forwardedFor) throws IOException {
+        HttpURLConnection con = open(EP_PATH + SERVICE_PATH + "/" + USER_TOKEN);
+        con.setRequestProperty("X-Forwarded-For", forwardedFor);
+        assertEquals(HttpURLConnection.HTTP_OK, con.getResponseCode());
+        return Jsons.fromJson(read(con.getInputStream()), EntryPointResponse.class).getSelectedCloudSiteCode();
+    }
+
+    private void configure(final String config, final String... extraProps) throws IOException {
+        Properties props = new Properties();
+        try (InputStream in = EntryPointServiceTest.class.getResourceAsStream(config)) {
+            props.load(in);
+        }
+        for (int i = 0; i < extraProps.length; i += 2) {
+            props.setProperty(extraProps[i], extraProps[i + 1]);
+        }
+        ByteArrayOutputStream configBytes = new ByteArrayOutputStream();
+        props.store(configBytes, null);
+
+        // The user prefers AWS3, the connection's address and 10.1.1.1 - AWS1
+        Map<String, Double> latencies = ImmutableMap.<String, Double> builder()
+                .put(USER_IP + "127.0.0.1", 20d).put(USER_IP + "127.0.0.2", 50d)
+                .put(USER_IP + "127.0.0.3", 15d).put(USER_IP + "127.0.0.4", 40d)
+                .put("127.0.0.1127.0.0.1", 10d).put("127.0.0.1127.0.0.3", 60d)
+                .put("10.1.1.1127.0.0.1", 10d).put("10.1.1.1127.0.0.3", 60d)
+                .build();
+        Set<String> eligible = ImmutableSet.of(USER_TOKEN);
+        Set<String> none = Collections.emptySet();
+        EntryPoint.getInstance().configure(EntryPointServiceTest.class.getResourceAsStream(CLOUDSITES_PROPERTIES),
+                new ByteArrayInputStream(configBytes.toByteArray()),
+                new PredefinedCostCloudSite.PredefinedCostCloudSiteFactory(
+                        Arrays.asList(eligible, none, eligible, none), Arrays.asList(20d, 30d, 19d, 50d), null),
+                new LookUpGeoLocationService(null, latencies, null));
+    }
+
+    private HttpURLConnection open(final String path) throws IOException {
+        int port = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+        HttpURLConnection con = (HttpURLConnection) new URL("http://127.0.0.1:" + port + path).openConnection();
+        con.setInstanceFollowRedirects(false);
+        con.setReadTimeout(10_000);
+        return con;
+    }
+
+    private static String read(final InputStream in) {
+        try (Scanner scanner = new Scanner(in, "UTF-8").useDelimiter("\\A")) {
+            return scanner.hasNext() ? scanner.next() : "";
+        }
+    }
+}
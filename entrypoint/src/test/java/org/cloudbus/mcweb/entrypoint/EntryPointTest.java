@@ -2,15 +2,24 @@ package org.cloudbus.mcweb.entrypoint;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiPredicate;
 import java.util.function.Function;
 
 import org.cloudbus.cloudsim.ex.geolocation.IGeolocationService;
@@ -34,9 +43,17 @@ public class EntryPointTest {
 
     private static final String CONFIG_PROPERTIES = "/config.properties";
     private static final String CLOUDSITES_PROPERTIES = "/cloudsites.properties";
+    private static final String CONFIG_INCREMENTAL_PROPERTIES = "/config-incremental.properties";
+    private static final String CONFIG_DECISION_CACHE_PROPERTIES = "/config-decision-cache.properties";
+
+    private static final String SLOW_USER = "slow-user";
+
+    private final CountDownLatch slowSiteEnquired = new CountDownLatch(1);
+    private final CountDownLatch releaseSlowSite = new CountDownLatch(1);
 
     @After
     public void tearDown() throws Exception {
+        releaseSlowSite.countDown();
         EntryPoint.getInstance().close();
     }
 
@@ -53,6 +70,31 @@ public class EntryPointTest {
                 geoLocationService);
     }
 
+    @Test
+    public void testImplausibleLatencyReportsRejected() {
+        IGeolocationService geoLocationService = new LookUpGeoLocationService(null,
+                ImmutableMap.of("10.0.0.1127.0.0.1", 20d), null);
+        EntryPoint.getInstance().configure(classLoad(CLOUDSITES_PROPERTIES),
+                classLoad(CONFIG_PROPERTIES),
+                CloudSite.FACTORY,
+                geoLocationService);
+        EntryPoint ep = EntryPoint.getInstance();
+
+        // The latency SLA is 40
+        assertTrue(ep.isPlausibleLatency(0));
+        assertTrue(ep.isPlausibleLatency(400));
+        assertFalse(ep.isPlausibleLatency(401));
+        assertFalse(ep.isPlausibleLatency(-1));
+        assertFalse(ep.isPlausibleLatency(Double.NaN));
+        assertFalse(ep.isPlausibleLatency(Double.POSITIVE_INFINITY));
+        try {
+            ep.reportLatency("10.0.0.1", "AWS1", Double.POSITIVE_INFINITY);
+            fail("Accepted an infinite latency");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
     @Test
     public void testSingleValidUser() {
         // The user to test with
@@ -120,6 +162,179 @@ public class EntryPointTest {
         assertNull(req.selectCloudSite());
     }
 
+    @Test
+    public void testRepeatUserServedFromDecisionCache() throws Exception {
+        Map<String, Double> latencyCache = ImmutableMap.of("127.127.127.127127.0.0.1", 20d,
+                "127.127.127.127127.0.0.2", 50d, "127.127.127.127127.0.0.3", 15d, "127.127.127.127127.0.0.4", 40d);
+        Iterable<Set<String>> eligibleUsers = Arrays.asList(null, null, null, null);
+        Iterable<Double> costs = Arrays.asList(20d, 30d, 19d, 50d);
+        Function<String[], CloudSite> factory = new PredefinedCostCloudSite.PredefinedCostCloudSiteFactory(
+                eligibleUsers, costs, null);
+        EntryPoint.getInstance().configure(classLoad(CLOUDSITES_PROPERTIES),
+                classLoad(CONFIG_DECISION_CACHE_PROPERTIES),
+                factory,
+                new LookUpGeoLocationService(null, latencyCache, null));
+
+        // The first request goes through a batch
+        EPUserRequest first = new EPUserRequest("127.127.127.127", "user1");
+        EntryPoint.getInstance().request(first);
+        assertEquals("AWS3", EntryPoint.getInstance().selectCloudSite(first).getName());
+
+        // The repeat user is served straight away, with the same cloud site
+        EPUserRequest repeat = new EPUserRequest("127.127.127.127", "user1");
+        assertTrue(EntryPoint.getInstance().requestAsync(repeat).isDone());
+        assertTrue(repeat.isProcessed());
+        assertSame(first.selectCloudSite(), repeat.selectCloudSite());
+        assertEquals(1, EntryPoint.getInstance().getDecisionCacheStats().hitCount());
+
+        // Another user is not
+        EPUserRequest other = new EPUserRequest("127.127.127.127", "user2");
+        assertFalse(EntryPoint.getInstance().requestAsync(other).isDone());
+
+        // Once the cloud site is unreachable, the user goes through a batch again
+        first.selectCloudSite().unreachable();
+        EPUserRequest afterUnreachable = new EPUserRequest("127.127.127.127", "user1");
+        assertFalse(EntryPoint.getInstance().requestAsync(afterUnreachable).isDone());
+    }
+
+    @Test
+    public void testDisconnectedCloudSiteNotCached() throws Exception {
+        Map<String, Double> latencyCache = ImmutableMap.of("127.127.127.127127.0.0.1", 20d,
+                "127.127.127.127127.0.0.2", 50d, "127.127.127.127127.0.0.3", 15d, "127.127.127.127127.0.0.4", 40d);
+        // Answer, but report being disconnected - e.g. lost right after the batch
+        Function<String[], CloudSite> factory = s -> new CloudSite(s[0], s[1], s[2]) {
+            @Override
+            public boolean isConnected() {
+                return false;
+            }
+        };
+        EntryPoint.getInstance().configure(classLoad(CLOUDSITES_PROPERTIES),
+                classLoad(CONFIG_DECISION_CACHE_PROPERTIES),
+                factory,
+                new LookUpGeoLocationService(null, latencyCache, null));
+
+        EPUserRequest first = new EPUserRequest("127.127.127.127", "user1");
+        EntryPoint.getInstance().request(first);
+        assertNotNull(EntryPoint.getInstance().selectCloudSite(first));
+
+        EPUserRequest repeat = new EPUserRequest("127.127.127.127", "user1");
+        assertFalse(EntryPoint.getInstance().requestAsync(repeat).isDone());
+        assertEquals(0, EntryPoint.getInstance().getDecisionCacheStats().hitCount());
+    }
+
+    @Test
+    public void testRequestsNotBlockedByBatchInFlight() throws Exception {
+        EPUserRequest first = new EPUserRequest("127.127.127.1", SLOW_USER);
+        EPUserRequest second = new EPUserRequest("127.127.127.2", "user2");
+
+        // All cloud sites hold the batch of the first request. The timeout is
+        // long, so that only the test releases it.
+        EntryPoint.getInstance().configure(classLoad(CLOUDSITES_PROPERTIES),
+                config(CONFIG_PROPERTIES, "cloudSiteResponseTimeout", "60000"),
+                gatedFactory((site, batch) -> batch.stream().anyMatch(r -> r.getUserToken().equals(SLOW_USER))),
+                new LookUpGeoLocationService(null, ImmutableMap.of(), null));
+
+        // Submit the first request and wait for its batch to start
+        CompletableFuture<EPUserRequest> firstCompletion = EntryPoint.getInstance().requestAsync(first);
+        assertTrue(slowSiteEnquired.await(10, TimeUnit.SECONDS));
+
+        // The second request is served in the next batch, while the first
+        // batch is in flight
+        CompletableFuture<EPUserRequest> secondCompletion = EntryPoint.getInstance().requestAsync(second);
+        assertSame(second, secondCompletion.get(10, TimeUnit.SECONDS));
+        assertTrue(second.isProcessed());
+        assertFalse(firstCompletion.isDone());
+        assertEquals(2, EntryPoint.getInstance().getDispatchStatistics().getBatchCount());
+
+        // The first batch completes once its cloud sites answer
+        releaseSlowSite.countDown();
+        assertSame(first, firstCompletion.get(10, TimeUnit.SECONDS));
+        assertTrue(first.isProcessed());
+    }
+
+    @Test
+    public void testBatchFlushedWhenFull() throws Exception {
+        Iterable<Set<String>> eligibleUsers = Arrays.asList(null, null, null, null);
+        Iterable<Double> costs = Arrays.asList(20d, 30d, 19d, 50d);
+        EntryPoint.getInstance().configure(classLoad(CLOUDSITES_PROPERTIES),
+                classLoad(CONFIG_PROPERTIES),
+                new PredefinedCostCloudSite.PredefinedCostCloudSiteFactory(eligibleUsers, costs, null),
+                new LookUpGeoLocationService(null, ImmutableMap.of(), null));
+
+        // A single request waits for the max linger time (1000ms in the test config)
+        EntryPoint.getInstance().request(new EPUserRequest("127.127.127.1", "user1"));
+        DispatchStatistics stats = EntryPoint.getInstance().getDispatchStatistics();
+        assertEquals(1, stats.getBatchCount());
+        assertEquals(0, stats.getSizeTriggeredCount());
+        assertTrue(stats.getMinLingerMillis() >= 1000);
+
+        // With a linger time, which never expires in the test, only a full
+        // batch (50 requests in the test config) is flushed
+        EntryPoint.getInstance().configure(classLoad(CLOUDSITES_PROPERTIES),
+                config(CONFIG_PROPERTIES, "maxBatchLinger", "600000"),
+                new PredefinedCostCloudSite.PredefinedCostCloudSiteFactory(eligibleUsers, costs, null),
+                new LookUpGeoLocationService(null, ImmutableMap.of(), null));
+        List<CompletableFuture<EPUserRequest>> completions = new ArrayList<>();
+        for (int i = 0; i < 51; i++) {
+            completions.add(EntryPoint.getInstance().requestAsync(new EPUserRequest("127.127.127." + i, "user" + i)));
+        }
+        for (CompletableFuture<EPUserRequest> completion : completions.subList(0, 50)) {
+            assertTrue(completion.get(10, TimeUnit.SECONDS).isProcessed());
+        }
+        assertFalse(completions.get(50).isDone());
+
+        // The statistics reflect only the full batch
+        stats = EntryPoint.getInstance().getDispatchStatistics();
+        assertEquals(1, stats.getBatchCount());
+        assertEquals(50, stats.getRequestCount());
+        assertEquals(1, stats.getSizeTriggeredCount());
+        assertEquals(50, stats.getMinBatchSize());
+        assertEquals(50, stats.getMaxBatchSize());
+
+        // The remaining request is released on close
+        EntryPoint.getInstance().close();
+        assertTrue(completions.get(50).isDone());
+        assertEquals(1, stats.getBatchCount());
+    }
+
+    @Test
+    public void testIncrementalSelectionDoesNotWaitForIrrelevantSlowSite() throws Exception {
+        EPUserRequest unaffected = new EPUserRequest("127.127.127.1", "user1");
+        EPUserRequest affected = new EPUserRequest("127.127.127.2", "user2");
+
+        // AWS2 does not answer until the end of the test. It is above the SLA
+        // for the first user only. The budget does not expire in the test.
+        configureIncremental(unaffected, affected, "600000");
+
+        CompletableFuture<EPUserRequest> unaffectedCompletion = EntryPoint.getInstance().requestAsync(unaffected);
+        CompletableFuture<EPUserRequest> affectedCompletion = EntryPoint.getInstance().requestAsync(affected);
+
+        // Released without waiting for AWS2
+        assertSame(unaffected, unaffectedCompletion.get(10, TimeUnit.SECONDS));
+        assertEquals("AWS3", unaffected.selectCloudSite().getName());
+
+        // Waits for AWS2
+        assertTrue(slowSiteEnquired.await(10, TimeUnit.SECONDS));
+        assertFalse(affectedCompletion.isDone());
+        releaseSlowSite.countDown();
+        assertSame(affected, affectedCompletion.get(10, TimeUnit.SECONDS));
+        assertEquals("AWS3", affected.selectCloudSite().getName());
+    }
+
+    @Test
+    public void testIncrementalSelectionReleasedWhenBudgetExpires() throws Exception {
+        EPUserRequest unaffected = new EPUserRequest("127.127.127.1", "user1");
+        EPUserRequest affected = new EPUserRequest("127.127.127.2", "user2");
+        configureIncremental(unaffected, affected, "2000");
+
+        CompletableFuture<EPUserRequest> affectedCompletion = EntryPoint.getInstance().requestAsync(affected);
+
+        // Released when the budget expires, while AWS2 still holds the enquiry
+        assertSame(affected, affectedCompletion.get(10, TimeUnit.SECONDS));
+        assertTrue(slowSiteEnquired.await(10, TimeUnit.SECONDS));
+        assertEquals("AWS3", affected.selectCloudSite().getName());
+    }
+
     @Test
     public void testMultipleUsersNoDelays() throws Throwable {
         testMultipleUsersWithDelays(null, 0);
@@ -158,6 +373,78 @@ public class EntryPointTest {
         testMultipleUsersWithDelays(Arrays.asList(10l, 10_000_000l, 60l, 10_000_000l), 50l);
     }
 
+    /**
+     * Loads the configuration resource and overrides some of its properties.
+     *
+     * @param resource
+     *            - the configuration resource.
+     * @param extraProps
+     *            - keys and values of the properties to override.
+     * @return the resulting configuration.
+     */
+    private static InputStream config(final String resource, final String... extraProps) throws IOException {
+        Properties props = new Properties();
+        try (InputStream in = classLoad(resource)) {
+            props.load(in);
+        }
+        for (int i = 0; i < extraProps.length; i += 2) {
+            props.setProperty(extraProps[i], extraProps[i + 1]);
+        }
+        ByteArrayOutputStream configBytes = new ByteArrayOutputStream();
+        props.store(configBytes, null);
+        return new ByteArrayInputStream(configBytes.toByteArray());
+    }
+
+    /**
+     * Creates cloud sites, which accept all users with the costs 20, 30, 19
+     * and 50, and hold the slow enquiries until {@link #releaseSlowSite} is
+     * released.
+     *
+     * @param slow
+     *            - tells if the enquiry of a cloud site (by name) about a
+     *            batch is slow.
+     * @return the cloud site factory.
+     */
+    private Function<String[], CloudSite> gatedFactory(final BiPredicate<String, List<EPUserRequest>> slow) {
+        Iterator<Double> costs = Arrays.asList(20d, 30d, 19d, 50d).iterator();
+        return s -> new PredefinedCostCloudSite(s[0], s[1], s[2], null, costs.next(), 0) {
+            @Override
+            public void enquire(final List<EPUserRequest> requests) {
+                if (slow.test(getName(), requests)) {
+                    slowSiteEnquired.countDown();
+                    try {
+                        releaseSlowSite.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                super.enquire(requests);
+            }
+        };
+    }
+
+    /**
+     * Configures incremental selection, where AWS2 is slow. AWS2 is above the
+     * SLA (40) for the first user only.
+     */
+    private void configureIncremental(final EPUserRequest unaffected, final EPUserRequest affected,
+            final String requestBudget) throws IOException {
+        Map<String, Double> latencyCache = new HashMap<>();
+        latencyCache.put(unaffected.getIpAddress() + "127.0.0.1", 20d);
+        latencyCache.put(unaffected.getIpAddress() + "127.0.0.2", 50d);
+        latencyCache.put(unaffected.getIpAddress() + "127.0.0.3", 15d);
+        latencyCache.put(unaffected.getIpAddress() + "127.0.0.4", 40d);
+        latencyCache.put(affected.getIpAddress() + "127.0.0.1", 20d);
+        latencyCache.put(affected.getIpAddress() + "127.0.0.2", 10d);
+        latencyCache.put(affected.getIpAddress() + "127.0.0.3", 15d);
+        latencyCache.put(affected.getIpAddress() + "127.0.0.4", 40d);
+
+        EntryPoint.getInstance().configure(classLoad(CLOUDSITES_PROPERTIES),
+                config(CONFIG_INCREMENTAL_PROPERTIES, "requestBudget", requestBudget),
+                gatedFactory((site, batch) -> site.equals("AWS2")),
+                new LookUpGeoLocationService(null, latencyCache, null));
+    }
+
     /**
      * Creates 100 users whose requests' arrival times are uniformly distributed
      * in the interval [0, requestDelays], and submits them the EntryPoint. The
@@ -0,0 +1,69 @@
+package org.cloudbus.mcweb.entrypoint;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class IPPrefixTrieTest {
+
+    @Test
+    public void testLongestPrefixMatch() {
+        IPPrefixTrie<String> trie = new IPPrefixTrie<>();
+        trie.put("10.0.0.0/8", "a");
+        trie.put("10.1.0.0/16", "b");
+        trie.put("10.1.2.3", "c");
+
+        assertEquals(3, trie.size());
+        assertEquals("a", trie.get("10.200.0.1"));
+        assertEquals("b", trie.get("10.1.255.255"));
+        assertEquals("c", trie.get("10.1.2.3"));
+        assertEquals("b", trie.get("10.1.2.4"));
+        assertNull(trie.get("11.0.0.1"));
+        assertNull(trie.get("not-an-ip"));
+    }
+
+    @Test
+    public void testDefaultRouteAndReplace() {
+        IPPrefixTrie<String> trie = new IPPrefixTrie<>();
+        trie.put("0.0.0.0/0", "default");
+        trie.put("23.20.0.0/14", "x");
+        trie.put("23.20.0.0/14", "y");
+
+        assertEquals(2, trie.size());
+        assertEquals("default", trie.get("1.2.3.4"));
+        assertEquals("y", trie.get("23.23.255.255"));
+        assertFalse(trie.putIfAbsent("23.20.0.0/14", "z"));
+        assertEquals("y", trie.get("23.23.255.255"));
+        assertEquals("default", trie.get("23.24.0.0"));
+    }
+
+    @Test
+    public void testIPv6() {
+        IPPrefixTrie<String> trie = new IPPrefixTrie<>();
+        trie.put("2001:db8::/32", "v6");
+        trie.put("0.0.0.0/0", "v4");
+
+        assertEquals("v6", trie.get("2001:db8:1::1"));
+        assertNull(trie.get("2001:db9::1"));
+        assertEquals("v4", trie.get("32.1.13.184"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLength() {
+        new IPPrefixTrie<String>().put("10.0.0.0/33", "a");
+    }
+
+    @Test
+    public void testOverrideRules() {
+        LocationOverrides overrides = LocationOverrides.parse(getClass().getResourceAsStream(LocationOverrides.RULES_RESOURCE));
+        // Some ranges are listed both as AMAZON and EC2
+        assertTrue(overrides.size() > 200);
+        assertEquals("AMAZON", overrides.getRule("23.21.1.1").getDetails());
+
+        // 23.20.0.0/14 is us-east-1
+        LocationOverrides.Rule rule = overrides.getRule("23.21.1.1");
+        assertEquals("us-east-1", rule.getLocation());
+        assertArrayEquals(new double[] { 37.5333, -77.4667 }, overrides.getCoordinates("23.21.1.1"), 0.0001);
+        assertNull(overrides.getCoordinates("127.0.0.1"));
+    }
+}
@@ -0,0 +1,99 @@
+package org.cloudbus.mcweb.entrypoint;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.Client;
+
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.glassfish.jersey.apache.connector.ApacheClientProperties;
+import org.glassfish.jersey.apache.connector.ApacheConnectorProvider;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
+import org.junit.Test;
+
+public class IRESTTransportTest {
+
+    @Test
+    public void testJdkTransport() throws IOException {
+        Client client = IRESTTransport.JDK.newClient(300);
+        try {
+            assertTimeouts(client, 300);
+            assertFalse(((ClientConfig) client.getConfiguration()).getConnectorProvider() instanceof ApacheConnectorProvider);
+            assertReadTimesOut(client);
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testPooledTransport() throws IOException {
+        Client client = IRESTTransport.pooled(7).newClient(300);
+        try {
+            assertTimeouts(client, 300);
+            ClientConfig configuration = (ClientConfig) client.getConfiguration();
+            assertTrue(configuration.getConnectorProvider() instanceof ApacheConnectorProvider);
+            assertEquals(7, configuration.getProperty(ClientProperties.ASYNC_THREADPOOL_SIZE));
+
+            PoolingHttpClientConnectionManager connectionManager = (PoolingHttpClientConnectionManager) configuration
+                    .getProperty(ApacheClientProperties.CONNECTION_MANAGER);
+            assertEquals(7, connectionManager.getMaxTotal());
+            assertEquals(7, connectionManager.getDefaultMaxPerRoute());
+            assertReadTimesOut(client);
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testPooledClientsDoNotSharePools() {
+        IRESTTransport transport = IRESTTransport.pooled(3);
+        Client client1 = transport.newClient(100);
+        Client client2 = transport.newClient(100);
+        try {
+            assertNotSame(client1.getConfiguration().getProperty(ApacheClientProperties.CONNECTION_MANAGER),
+                    client2.getConfiguration().getProperty(ApacheClientProperties.CONNECTION_MANAGER));
+        } finally {
+            client1.close();
+            client2.close();
+        }
+    }
+
+    @Test
+    public void testForMaxConnections() {
+        assertSame(IRESTTransport.JDK, IRESTTransport.forMaxConnections(0));
+        assertNotSame(IRESTTransport.JDK, IRESTTransport.forMaxConnections(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeMaxConnections() {
+        IRESTTransport.forMaxConnections(-1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyPool() {
+        IRESTTransport.pooled(0);
+    }
+
+    private static void assertTimeouts(final Client client, final int timeoutMillis) {
+        assertEquals(timeoutMillis, client.getConfiguration().getProperty(ClientProperties.CONNECT_TIMEOUT));
+        assertEquals(timeoutMillis, client.getConfiguration().getProperty(ClientProperties.READ_TIMEOUT));
+    }
+
+    /** Calls a server, which accepts the connection but never answers. */
+    private static void assertReadTimesOut(final Client client) throws IOException {
+        try (ServerSocket server = new ServerSocket(0)) {
+            long start = System.currentTimeMillis();
+            try {
+                client.target("http://127.0.0.1:" + server.getLocalPort()).request().get(String.class);
+                fail("No answer expected");
+            } catch (ProcessingException e) {
+                // Expected
+            }
+            assertTrue(System.currentTimeMillis() - start < 5000);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package org.cloudbus.mcweb.entrypoint;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import org.cloudbus.cloudsim.ex.geolocation.IGeolocationService;
+import org.cloudbus.cloudsim.ex.geolocation.geoip2.LookUpGeoLocationService;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+public class LatencyCacheTest {
+
+    private CloudSite cs1;
+    private CloudSite cs2;
+    private List<CloudSite> cloudSites;
+    private IGeolocationService geoLocationService;
+
+    @Before
+    public void setUp() {
+        cs1 = new CloudSite("CS1", "127.0.0.1", "127.0.0.1");
+        cs2 = new CloudSite("CS2", "127.0.0.2", "127.0.0.2");
+        cs1.setOrdinal(0);
+        cs2.setOrdinal(1);
+        cloudSites = Arrays.asList(cs1, cs2);
+        geoLocationService = new LookUpGeoLocationService(null, ImmutableMap.of(
+                "10.0.0.1127.0.0.1", 20d,
+                "10.0.0.1127.0.0.2", 30d,
+                "10.0.0.2127.0.0.1", 25d,
+                "10.0.1.1127.0.0.1", 40d), null);
+    }
+
+    @Test
+    public void testNetworkIsCachedOnce() {
+        LatencyCache cache = new LatencyCache(geoLocationService, cloudSites, 100, 60_000, 24, 48);
+
+        assertEquals(20, cache.latency("10.0.0.1", cs1), 0);
+        assertEquals(30, cache.latency("10.0.0.1", cs2), 0);
+        // Same /24 - the latencies of the first address are used
+        assertEquals(20, cache.latency("10.0.0.2", cs1), 0);
+        // Another /24
+        assertEquals(40, cache.latency("10.0.1.1", cs1), 0);
+        assertTrue(Double.isNaN(cache.latency("10.0.1.1", cs2)));
+
+        assertEquals(2, cache.size());
+        assertEquals(2, cache.getStats().missCount());
+        assertEquals(3, cache.getStats().hitCount());
+    }
+
+    @Test
+    public void testExactAddresses() {
+        LatencyCache cache = new LatencyCache(geoLocationService, cloudSites, 100, 60_000, 32, 128);
+        assertEquals(20, cache.latency("10.0.0.1", cs1), 0);
+        assertEquals(25, cache.latency("10.0.0.2", cs1), 0);
+    }
+
+    @Test
+    public void testUnknownCloudSiteIsNotCached() {
+        LatencyCache cache = new LatencyCache(geoLocationService, cloudSites, 100, 60_000, 24, 48);
+        CloudSite other = new CloudSite("CS3", "127.0.0.1", "127.0.0.1");
+        other.setOrdinal(0);
+
+        assertFalse(cache.contains(other));
+        assertEquals(20, cache.latency("10.0.0.1", other), 0);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testMeasuredLatencies() {
+        LatencyCache cache = new LatencyCache(geoLocationService, cloudSites, 100, 60_000, 24, 48, 0.5, 1);
+
+        // No measurements - the estimate
+        assertEquals(20, cache.latency("10.0.0.1", cs1), 0);
+
+        // The first measurement replaces the estimate, the next are averaged
+        assertTrue(cache.record("10.0.0.1", cs1, 100));
+        assertEquals(100, cache.latency("10.0.0.1", cs1), 0);
+        assertTrue(cache.record("10.0.0.2", cs1, 50));
+        assertEquals(75, cache.latency("10.0.0.1", cs1), 0);
+
+        // Other cloud sites and networks keep their estimates
+        assertEquals(30, cache.latency("10.0.0.1", cs2), 0);
+        assertEquals(40, cache.latency("10.0.1.1", cs1), 0);
+
+        // The cloud site is not cached
+        CloudSite other = new CloudSite("CS3", "127.0.0.3", "127.0.0.3");
+        assertFalse(cache.record("10.0.0.1", other, 10));
+    }
+
+    @Test
+    public void testRequestsUseMeasuredLatencies() {
+        LatencyCache cache = new LatencyCache(geoLocationService, cloudSites, 100, 60_000, 24, 48);
+        // cs1 is estimated to be faster, but is measured to be slower
+        for (int i = 0; i < LatencyCache.DEFAULT_MIN_SAMPLES; i++) {
+            cache.record("10.0.0.1", cs1, 60);
+        }
+
+        EPUserRequest req = new EPUserRequest("10.0.0.1", "user");
+        req.setLatencySLA(10);
+        req.setGeoLocationService(geoLocationService);
+        req.setLatencyCache(cache);
+        req.setCloudSites(cloudSites);
+        req.addResponseFromCloudSite(cs1, true, 1);
+        req.addResponseFromCloudSite(cs2, true, 1);
+        assertSame(cs2, req.selectCloudSite());
+    }
+
+    @Test
+    public void testMinSamples() {
+        LatencyCache cache = new LatencyCache(geoLocationService, cloudSites, 100, 60_000, 24, 48, 0.5, 3);
+
+        // A single report does not replace the estimate
+        cache.record("10.0.0.1", cs1, 100);
+        assertEquals(20, cache.latency("10.0.0.1", cs1), 0);
+        cache.record("10.0.0.1", cs1, 100);
+        assertEquals(20, cache.latency("10.0.0.1", cs1), 0);
+        cache.record("10.0.0.1", cs1, 100);
+        assertEquals(100, cache.latency("10.0.0.1", cs1), 0);
+    }
+
+    @Test
+    public void testImplausibleMeasurementsAreClamped() {
+        LatencyCache cache = new LatencyCache(geoLocationService, cloudSites, 100, 60_000, 24, 48, 1, 1);
+
+        // The estimate is 20
+        cache.record("10.0.0.1", cs1, 1_000_000);
+        assertEquals(20 * LatencyCache.MAX_ESTIMATE_MULTIPLE, cache.latency("10.0.0.1", cs1), 0);
+        cache.record("10.0.0.1", cs1, 0);
+        assertEquals(20 / LatencyCache.MAX_ESTIMATE_MULTIPLE, cache.latency("10.0.0.1", cs1), 0);
+        cache.record("10.0.0.1", cs1, 30);
+        assertEquals(30, cache.latency("10.0.0.1", cs1), 0);
+    }
+
+    @Test
+    public void testNonFiniteMeasurementsAreRejected() {
+        LatencyCache cache = new LatencyCache(geoLocationService, cloudSites, 100, 60_000, 24, 48, 1, 1);
+        for (double latency : new double[] { Double.POSITIVE_INFINITY, Double.NaN, -1 }) {
+            try {
+                cache.record("10.0.0.1", cs1, latency);
+                fail("Accepted " + latency);
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+        assertEquals(20, cache.latency("10.0.0.1", cs1), 0);
+    }
+
+    @Test
+    public void testNetworkPrefix() {
+        LatencyCache cache = new LatencyCache(geoLocationService, cloudSites, 100, 60_000, 20, 48);
+        assertEquals("10.0.16.0/20", cache.networkPrefix("10.0.31.255"));
+        assertEquals("2001:db8:1::/48", cache.networkPrefix("2001:db8:1:2::1"));
+        assertEquals("not-an-ip", cache.networkPrefix("not-an-ip"));
+    }
+
+    @Test
+    public void testWarmUp() {
+        LatencyCache cache = new LatencyCache(geoLocationService, cloudSites, 100, 60_000, 24, 48);
+        String csv = "Node,Site,Location,Group\n"
+                + "10.0.0.1 ,10.0.0.1,\"Somewhere, Earth\",N.AMERICA\n"
+                + "pinger.example.com ,x,\"Elsewhere\",EUROPE\n"
+                + "10.0.1.1 ,10.0.1.1,\"Somewhere, Earth\",N.AMERICA\n";
+        assertEquals(2, cache.warmUp(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8))));
+        assertEquals(2, cache.size());
+
+        assertEquals(20, cache.latency("10.0.0.7", cs1), 0);
+        assertEquals(1, cache.getStats().hitCount());
+    }
+}
@@ -0,0 +1,91 @@
+package org.cloudbus.mcweb.entrypoint;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(-1, histogram.getPercentile(0.5));
+    }
+
+    @Test
+    public void testBucketsAreContiguous() {
+        for (long v = 1; v <= LatencyHistogram.MAX_VALUE; v++) {
+            int idx = LatencyHistogram.bucketIndex(v);
+            int prevIdx = LatencyHistogram.bucketIndex(v - 1);
+            assertTrue(idx == prevIdx || idx == prevIdx + 1);
+            assertTrue(v <= LatencyHistogram.bucketUpperBound(idx));
+            if (idx != prevIdx) {
+                assertEquals(v - 1, LatencyHistogram.bucketUpperBound(prevIdx));
+            }
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500, histogram.getPercentile(0.5), 500 * 0.07);
+        assertEquals(950, histogram.getPercentile(0.95), 950 * 0.07);
+        assertTrue(histogram.getPercentile(0.95) >= 950);
+        assertTrue(histogram.getPercentile(1) >= 1000);
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 10; i++) {
+            histogram.record(3);
+        }
+        histogram.record(7);
+        assertEquals(3, histogram.getPercentile(0.9));
+        assertEquals(7, histogram.getPercentile(1));
+    }
+
+    @Test
+    public void testOldValuesAreForgotten() {
+        AtomicLong now = new AtomicLong(0);
+        LatencyHistogram histogram = new LatencyHistogram(1000, now::get);
+        for (int i = 0; i < 100; i++) {
+            histogram.record(500);
+        }
+        assertEquals(500, histogram.getPercentile(0.5), 500 * 0.07);
+
+        // The latency drops - the old values still count in the previous window
+        now.set(1000);
+        for (int i = 0; i < 300; i++) {
+            histogram.record(10);
+        }
+        assertEquals(400, histogram.getCount());
+        assertEquals(10, histogram.getPercentile(0.5));
+        assertTrue(histogram.getPercentile(0.9) >= 500);
+
+        // The window with the old values is dropped
+        now.set(2000);
+        histogram.record(10);
+        assertEquals(301, histogram.getCount());
+        assertEquals(10, histogram.getPercentile(1));
+
+        // Nothing recorded for two windows
+        now.set(4000);
+        assertEquals(0, histogram.getCount());
+        assertEquals(-1, histogram.getPercentile(0.5));
+    }
+
+    @Test
+    public void testValuesAboveMaxAreCapped() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(LatencyHistogram.MAX_VALUE, histogram.getPercentile(1));
+    }
+}
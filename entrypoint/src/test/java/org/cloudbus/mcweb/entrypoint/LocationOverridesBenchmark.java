@@ -0,0 +1,93 @@
+package org.cloudbus.mcweb.entrypoint;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.cloudbus.mcweb.util.Jsons;
+
+import com.google.common.net.InetAddresses;
+
+/**
+ * Compares resolving the location overrides by scanning all rules, and
+ * through the prefix trie of {@link LocationOverrides}. Reports the lookup
+ * throughput over many distinct addresses.
+ *
+ * <br>
+ * <br>
+ *
+ * Usage: java ... LocationOverridesBenchmark [addresses]
+ *
+ * @author nikolay.grozev
+ *
+ */
+public class LocationOverridesBenchmark {
+
+    public static void main(final String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        LocationOverrides.Rule[] rules = Jsons.fromJson(
+                LocationOverridesBenchmark.class.getResourceAsStream(LocationOverrides.RULES_RESOURCE),
+                LocationOverrides.Rule[].class);
+        LocationOverrides overrides = new LocationOverrides(rules);
+
+        // Random distinct addresses, a part of them in the overridden ranges
+        String[] ips = new String[count];
+        Random random = new Random(42);
+        for (int i = 0; i < count; i++) {
+            if (i % 10 == 0) {
+                LocationOverrides.Rule rule = rules[random.nextInt(rules.length)];
+                int base = InetAddresses.coerceToInteger(InetAddresses.forString(rule.getIpPrefix().split("/")[0]));
+                ips[i] = InetAddresses.toAddrString(InetAddresses.fromInteger(base + i % 256));
+            } else {
+                // Multiplying by an odd constant is a bijection - the addresses are distinct
+                ips[i] = InetAddresses.toAddrString(InetAddresses.fromInteger((int) (i * 2654435761L)));
+            }
+        }
+
+        // The rules, parsed for the scan
+        int[] prefixes = new int[rules.length];
+        int[] masks = new int[rules.length];
+        int[] lengths = new int[rules.length];
+        for (int i = 0; i < rules.length; i++) {
+            String[] parts = rules[i].getIpPrefix().split("/");
+            prefixes[i] = InetAddresses.coerceToInteger(InetAddresses.forString(parts[0]));
+            lengths[i] = Integer.parseInt(parts[1]);
+            masks[i] = lengths[i] == 0 ? 0 : -1 << (32 - lengths[i]);
+        }
+
+        System.out.printf("Rules: %d, Addresses: %d%n", rules.length, count);
+        System.out.printf("%-8s %15s %15s %10s%n", "Mode", "Time (ms)", "Lookups/sec", "Matches");
+        for (int round = 0; round < 2; round++) {
+            run("scan", ips, ip -> scan(rules, prefixes, masks, lengths, ip));
+            run("trie", ips, ip -> overrides.getRule(ip));
+        }
+    }
+
+    private static void run(final String mode, final String[] ips, final Function<String, LocationOverrides.Rule> lookup) {
+        long start = System.nanoTime();
+        int matches = 0;
+        for (String ip : ips) {
+            if (lookup.apply(ip) != null) {
+                matches++;
+            }
+        }
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        System.out.printf("%-8s %15d %15.0f %10d%n", mode, millis, ips.length * 1000.0 / Math.max(millis, 1), matches);
+    }
+
+    /** Resolves an address by checking every (pre-parsed) rule, as a rule list does. */
+    private static LocationOverrides.Rule scan(final LocationOverrides.Rule[] rules, final int[] prefixes,
+            final int[] masks, final int[] lengths, final String ip) {
+        int address = InetAddresses.coerceToInteger(InetAddresses.forString(ip));
+        LocationOverrides.Rule match = null;
+        int matchLength = -1;
+        for (int i = 0; i < rules.length; i++) {
+            if ((prefixes[i] & masks[i]) == (address & masks[i]) && lengths[i] > matchLength) {
+                match = rules[i];
+                matchLength = lengths[i];
+            }
+        }
+        return match;
+    }
+}
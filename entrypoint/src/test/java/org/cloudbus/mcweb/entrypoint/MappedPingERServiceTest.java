@@ -0,0 +1,109 @@
+package org.cloudbus.mcweb.entrypoint;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.cloudbus.cloudsim.ex.geolocation.geoip2.LookUpGeoLocationService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+public class MappedPingERServiceTest {
+
+    private static final String SITES = "Node,Site,Location,Group\n"
+            + "mon.us ,us,\"Atlanta, GA, United States, North America (33.75 -84.39)\",N.AMERICA\n"
+            + "mon.de ,de,\"Berlin, Germany, Europe (52.52 13.40)\",EUROPE\n"
+            + "rem.au ,au,\"Sydney, Australia (-33.87 151.21)\",OCEANIA\n"
+            + "rem.nowhere ,nowhere,\"Unknown\",\n";
+
+    private static final String TABLE = "#Monitoring-Site\tRemote-Site\t?\tOct2014\tSep2014\tAug2014\tJul2014\tJun2014\tMay2014\tApr2014\tMar2014\tFeb2014\tJan2014\tDec2013\tNov2013\tMonitoring-Node\tMon-TLD\tMon-Region\tRemote-Node\tRem-TLD\tRem-Region\n"
+            + row("mon.us", "rem.au", "200", "210", ".")
+            + row("mon.us", "mon.de", "100", ".", ".")
+            + row("mon.de", "rem.au", "300", ".", ".")
+            + row("mon.de", "rem.nowhere", "50", ".", ".");
+
+    private Path indexPath;
+    private MappedPingERService service;
+
+    private static String row(final String from, final String to, final String... months) {
+        StringBuilder result = new StringBuilder("A\tB\t?");
+        for (int i = 0; i < 12; i++) {
+            result.append('\t').append(i < months.length ? months[i] : ".");
+        }
+        return result.append('\t').append(from).append("\tX\tY\t").append(to).append("\tX\tY\n").toString();
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        indexPath = Files.createTempFile("PingERIndex", ".bin");
+        try (InputStream sites = stream(SITES); InputStream table = stream(TABLE);
+                OutputStream out = Files.newOutputStream(indexPath)) {
+            // The node without coordinates is skipped
+            assertEquals(3, PingERIndexCompiler.compile(sites, table, out));
+        }
+        service = new MappedPingERService(new LookUpGeoLocationService(null, ImmutableMap.of(), null), indexPath);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(indexPath);
+    }
+
+    @Test
+    public void testLatencyBetweenNearestNodes() {
+        assertEquals(3, service.getNodeCount());
+        // Near Atlanta -> near Sydney. The months are averaged.
+        assertEquals(205, service.latency(33, -84, -33, 151), 0.001);
+        // Near Berlin -> near Sydney
+        assertEquals(300, service.latency(50, 10, -30, 150), 0.001);
+        // Near Atlanta -> near Berlin
+        assertEquals(100, service.latency(34, -80, 52, 13), 0.001);
+    }
+
+    @Test
+    public void testNearestMeasuredNode() {
+        // From Berlin nothing is measured to Atlanta - Sydney is the nearest measured node
+        assertEquals(300, service.latency(52, 13, 33, -84), 0.001);
+    }
+
+    @Test
+    public void testCachedLatenciesToLocation() {
+        // The latencies to Sydney are computed once, for all monitoring nodes
+        assertEquals(205, service.latency(33, -84, -33, 151), 0.001);
+        assertEquals(300, service.latency(50, 10, -33, 151), 0.001);
+        assertEquals(205, service.latency(30, -90, -33, 151), 0.001);
+    }
+
+    @Test
+    public void testIndexIsOptIn() {
+        System.clearProperty(MappedPingERService.INDEX_PROP);
+        System.setProperty(MappedPingERService.INDEX_PATH_PROP, indexPath.toString());
+        try {
+            assertNull(MappedPingERService.locateIndex());
+            System.setProperty(MappedPingERService.INDEX_PROP, "true");
+            assertEquals(indexPath, MappedPingERService.locateIndex());
+        } finally {
+            System.clearProperty(MappedPingERService.INDEX_PROP);
+            System.clearProperty(MappedPingERService.INDEX_PATH_PROP);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidIndex() throws IOException {
+        Files.write(indexPath, "not an index".getBytes(StandardCharsets.UTF_8));
+        new MappedPingERService(new LookUpGeoLocationService(null, ImmutableMap.of(), null), indexPath);
+    }
+
+    private static InputStream stream(final String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
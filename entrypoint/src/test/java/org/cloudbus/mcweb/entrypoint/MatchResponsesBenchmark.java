@@ -0,0 +1,102 @@
+package org.cloudbus.mcweb.entrypoint;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.Logger;
+
+import org.cloudbus.mcweb.AdmissionControllerResponse;
+
+/**
+ * Compares matching the responses of an admission controller to the requests
+ * through a nested loop (as {@link RESTCloudSite} used to) and through the
+ * hash index of {@link RESTCloudSite#matchResponses}, across batch sizes.
+ *
+ * <br>
+ * <br>
+ *
+ * Usage: java ... MatchResponsesBenchmark [batch sizes...]
+ *
+ * @author nikolay.grozev
+ *
+ */
+public class MatchResponsesBenchmark {
+
+    static {
+        // Do not measure the logging of every response
+        Logger log = LogManager.getLogManager().getLogger("");
+        for (Handler h : log.getHandlers()) {
+            h.setLevel(Level.SEVERE);
+        }
+        Logger.getLogger(EPUserRequest.class.getCanonicalName()).setLevel(Level.SEVERE);
+    }
+
+    private static final CloudSite SITE = new CloudSite("CS1", "127.0.0.1", "127.0.0.1");
+    private static final List<CloudSite> SITES = Collections.singletonList(SITE);
+
+    public static void main(final String[] args) {
+        int[] batchSizes = args.length > 0 ?
+                Arrays.stream(args).mapToInt(Integer::parseInt).toArray() :
+                new int[] { 10, 100, 1_000, 5_000, 20_000 };
+
+        System.out.printf("%10s %15s %15s %10s%n", "Batch", "Nested (us)", "Indexed (us)", "Speedup");
+        for (int batchSize : batchSizes) {
+            AdmissionControllerResponse[] responses = new AdmissionControllerResponse[batchSize];
+            for (int i = 0; i < batchSize; i++) {
+                responses[i] = new AdmissionControllerResponse("user-" + i, i % 2 == 0, i);
+            }
+            // The admission controllers do not necessarily answer in order
+            List<AdmissionControllerResponse> shuffled = new ArrayList<>(Arrays.asList(responses));
+            Collections.shuffle(shuffled);
+            responses = shuffled.toArray(responses);
+
+            // Warm up, then measure
+            int repetitions = Math.max(3, 2_000_000 / batchSize / Math.max(1, batchSize / 100));
+            measure(true, batchSize, responses, repetitions);
+            measure(false, batchSize, responses, repetitions);
+            long nested = measure(true, batchSize, responses, repetitions);
+            long indexed = measure(false, batchSize, responses, repetitions);
+            System.out.printf("%10d %15d %15d %9.1fx%n", batchSize, nested, indexed, (double) nested / Math.max(indexed, 1));
+        }
+    }
+
+    /** Returns the average time per batch in microseconds. */
+    private static long measure(final boolean nested, final int batchSize, final AdmissionControllerResponse[] responses,
+            final int repetitions) {
+        long total = 0;
+        for (int r = 0; r < repetitions; r++) {
+            List<EPUserRequest> requests = new ArrayList<>(batchSize);
+            for (int i = 0; i < batchSize; i++) {
+                EPUserRequest req = new EPUserRequest("127.0.0.0", "user-" + i);
+                req.setCloudSites(SITES);
+                requests.add(req);
+            }
+            long start = System.nanoTime();
+            if (nested) {
+                nestedMatch(requests, responses, SITE);
+            } else {
+                RESTCloudSite.matchResponses(requests, responses, SITE);
+            }
+            total += System.nanoTime() - start;
+        }
+        return TimeUnit.NANOSECONDS.toMicros(total / repetitions);
+    }
+
+    /** The former implementation. */
+    private static void nestedMatch(final List<EPUserRequest> requests, final AdmissionControllerResponse[] responses,
+            final CloudSite site) {
+        for (EPUserRequest userRequest : requests) {
+            for (AdmissionControllerResponse response : responses) {
+                if (userRequest.getUserToken().equals(response.getUserToken())) {
+                    userRequest.addResponseFromCloudSite(new EPAdmissionControllerResponse(response, site));
+                    break;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package org.cloudbus.mcweb.entrypoint;
+
+import static org.junit.Assert.*;
+
+import org.cloudbus.cloudsim.ex.geolocation.IGeolocationService;
+import org.cloudbus.cloudsim.ex.geolocation.IPMetadata;
+import org.cloudbus.mcweb.util.Jsons;
+import org.junit.Test;
+
+import com.google.common.net.InetAddresses;
+
+public class OverridingLocationServiceTest {
+
+    private static final double[] DELEGATE_COORDINATES = { 1, 2 };
+
+    /**
+     * The trie picks the most specific range, while a rule list picks the
+     * first one - on the shipped rules the two give the same locations.
+     */
+    @Test
+    public void testSameAsFirstMatchOnOverrideRules() {
+        LocationOverrides.Rule[] rules = Jsons.fromJson(getClass().getResourceAsStream(LocationOverrides.RULES_RESOURCE),
+                LocationOverrides.Rule[].class);
+        LocationOverrides overrides = new LocationOverrides(rules);
+        for (LocationOverrides.Rule rule : rules) {
+            String[] parts = rule.getIpPrefix().split("/");
+            int first = InetAddresses.coerceToInteger(InetAddresses.forString(parts[0]));
+            int size = 1 << (32 - Integer.parseInt(parts[1]));
+            for (int address : new int[] { first, first + size / 2 + 1, first + size - 1 }) {
+                String ip = InetAddresses.toAddrString(InetAddresses.fromInteger(address));
+                LocationOverrides.Rule firstMatch = firstMatch(rules, ip);
+                assertArrayEquals(ip, new double[] { firstMatch.getLat(), firstMatch.getLon() },
+                        overrides.getCoordinates(ip), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testOverriddenAddresses() throws Exception {
+        LocationOverrides overrides = new LocationOverrides(new LocationOverrides.Rule[] {
+                new LocationOverrides.Rule("10.0.0.0/8", "x", 10, 20, "TEST") });
+        IGeolocationService service = new OverridingLocationService(new FixedService(1), overrides, new FixedService(2));
+
+        assertArrayEquals(new double[] { 10, 20 }, service.getCoordinates("10.1.2.3"), 0);
+        assertArrayEquals(DELEGATE_COORDINATES, service.getCoordinates("11.1.2.3"), 0);
+        assertEquals("x", service.getTxtAddress("10.1.2.3"));
+        assertEquals("delegate", service.getTxtAddress("11.1.2.3"));
+        assertEquals("10.0,20.0", service.getLocationMapUrl("10.1.2.3"));
+
+        // The distances between the overridden coordinates
+        assertEquals(-1, service.distance("11.1.2.3", "11.1.2.4"), 0);
+        assertEquals(1 + 2 - 10 - 20, service.distance("11.1.2.3", "10.1.2.4"), 0);
+
+        // Only the pairs with an overridden address are passed to the other service
+        assertEquals(1, service.latency("11.1.2.3", "11.1.2.4"), 0);
+        assertEquals(2, service.latency("11.1.2.3", "10.1.2.4"), 0);
+        assertEquals(2, service.latency("10.1.2.3", "11.1.2.4"), 0);
+        service.close();
+    }
+
+    private static LocationOverrides.Rule firstMatch(final LocationOverrides.Rule[] rules, final String ip) {
+        int address = InetAddresses.coerceToInteger(InetAddresses.forString(ip));
+        for (LocationOverrides.Rule rule : rules) {
+            String[] parts = rule.getIpPrefix().split("/");
+            int prefix = InetAddresses.coerceToInteger(InetAddresses.forString(parts[0]));
+            int length = Integer.parseInt(parts[1]);
+            int mask = length == 0 ? 0 : -1 << (32 - length);
+            if ((prefix & mask) == (address & mask)) {
+                return rule;
+            }
+        }
+        return null;
+    }
+
+    /** Locates all addresses at the same coordinates, and has a fixed latency. */
+    private static class FixedService implements IGeolocationService {
+        private final double latency;
+
+        FixedService(final double latency) {
+            this.latency = latency;
+        }
+
+        @Override
+        public double[] getCoordinates(final String ip) {
+            return DELEGATE_COORDINATES;
+        }
+
+        @Override
+        public String getTxtAddress(final String ip) {
+            return "delegate";
+        }
+
+        @Override
+        public IPMetadata getMetaData(final String ip) {
+            return null;
+        }
+
+        @Override
+        public String getLocationMapUrl(final Double lat, final Double lon) {
+            return lat + "," + lon;
+        }
+
+        @Override
+        public String getLocationMapUrl(final String ip) {
+            return "delegate";
+        }
+
+        @Override
+        public double distance(final double[] coord1, final double[] coord2) {
+            return coord1[0] + coord1[1] - coord2[0] - coord2[1];
+        }
+
+        @Override
+        public double distance(final String ip1, final String ip2) {
+            return -1;
+        }
+
+        @Override
+        public double latency(final String ip1, final String ip2) {
+            return latency;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,379 @@
+package org.cloudbus.mcweb.entrypoint;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.cloudbus.mcweb.AdmissionControllerResponse;
+import org.cloudbus.mcweb.AdmissionControllerUpdate;
+import org.cloudbus.mcweb.DataCentre;
+import org.cloudbus.mcweb.util.Jsons;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.cloudbus.mcweb.util.Configs.*;
+import static org.cloudbus.mcweb.util.Tests.*;
+
+public class RESTCloudSiteTest {
+
+    private Server server;
+    private FakeAdmissionController admissionController;
+
+    @After
+    public void tearDown() throws Exception {
+        if (server != null) {
+            admissionController.running = false;
+            admissionController.releaseSlowEnquiry.countDown();
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testMatchResponses() {
+        CloudSite cs = new CloudSite("CS1", "127.0.0.1", "127.0.0.1");
+        EPUserRequest a1 = new EPUserRequest("127.0.0.0", "a");
+        EPUserRequest b = new EPUserRequest("127.0.0.0", "b");
+        EPUserRequest a2 = new EPUserRequest("127.0.0.0", "a");
+        EPUserRequest c = new EPUserRequest("127.0.0.0", "c");
+        List<EPUserRequest> requests = Arrays.asList(a1, b, a2, c);
+        for (EPUserRequest req : requests) {
+            req.setCloudSites(Arrays.asList(cs));
+        }
+
+        // c is missing and b is not eligible
+        AdmissionControllerResponse[] responses = new AdmissionControllerResponse[] {
+                new AdmissionControllerResponse("b", false, Double.NaN),
+                new AdmissionControllerResponse("a", true, 5),
+                new AdmissionControllerResponse("a", true, 7) };
+        RESTCloudSite.matchResponses(requests, responses, cs);
+
+        // Duplicate tokens get the first response
+        for (EPUserRequest a : Arrays.asList(a1, a2)) {
+            assertTrue(a.isProcessed());
+            assertEquals(1, a.getViableCloudSiteResponses().size());
+            assertEquals(5, a.getViableCloudSiteResponses().get(0).getCostEstimation(), 0);
+            assertSame(cs, a.getViableCloudSiteResponses().get(0).getCloudSite());
+        }
+
+        assertTrue(b.isProcessed());
+        assertTrue(b.getViableCloudSiteResponses().isEmpty());
+
+        assertFalse(c.isProcessed());
+    }
+
+    @Test
+    public void testIgnoresUnknownCloudSites() {
+        CloudSite cs1 = new CloudSite("CS1", "127.0.0.1", "127.0.0.1");
+        CloudSite cs2 = new CloudSite("CS2", "127.0.0.2", "127.0.0.2");
+        EPUserRequest a = new EPUserRequest("127.0.0.0", "a");
+        a.setCloudSites(Arrays.asList(cs1));
+
+        RESTCloudSite.matchResponses(Arrays.asList(a),
+                new AdmissionControllerResponse[] { new AdmissionControllerResponse("a", true, 5) }, cs2);
+        assertFalse(a.isProcessed());
+        assertTrue(a.getViableCloudSiteResponses().isEmpty());
+    }
+
+    @Test
+    public void testEligibilityCache() throws Exception {
+        RESTCloudSite cs = startCloudSite(true);
+
+        // Nothing is cached yet
+        List<EPUserRequest> first = enquire(cs, "e1", "n1");
+        assertEquals(Arrays.asList("e1", "n1"), admissionController.enquiredTokens);
+        assertEquals(5, first.get(0).getViableCloudSiteResponses().get(0).getCostEstimation(), 0);
+        assertTrue(first.get(1).getViableCloudSiteResponses().isEmpty());
+
+        // Only the new user is enquired about. The cached one gets the new cost.
+        admissionController.enquiredTokens.clear();
+        admissionController.cost = 7;
+        List<EPUserRequest> second = enquire(cs, "e1", "n1", "e2");
+        assertEquals(Arrays.asList("e2"), admissionController.enquiredTokens);
+        for (EPUserRequest req : Arrays.asList(second.get(0), second.get(2))) {
+            assertEquals(7, req.getViableCloudSiteResponses().get(0).getCostEstimation(), 0);
+        }
+        assertTrue(second.get(1).isProcessed());
+        assertTrue(second.get(1).getViableCloudSiteResponses().isEmpty());
+
+        // Only repeat users - just the cost is refreshed
+        admissionController.enquiredTokens.clear();
+        admissionController.cost = 9;
+        List<EPUserRequest> third = enquire(cs, "e1", "e2");
+        assertTrue(admissionController.enquiredTokens.isEmpty());
+        assertEquals(1, admissionController.costCalls);
+        assertEquals(9, third.get(0).getViableCloudSiteResponses().get(0).getCostEstimation(), 0);
+        cs.close();
+    }
+
+    @Test
+    public void testEligibilityCacheWithoutCostService() throws Exception {
+        RESTCloudSite cs = startCloudSite(false);
+        enquire(cs, "e1");
+
+        // The cost can not be refreshed - the users are enquired about again
+        admissionController.enquiredTokens.clear();
+        admissionController.cost = 7;
+        List<EPUserRequest> second = enquire(cs, "e1");
+        assertEquals(Arrays.asList("e1"), admissionController.enquiredTokens);
+        assertEquals(7, second.get(0).getViableCloudSiteResponses().get(0).getCostEstimation(), 0);
+        cs.close();
+    }
+
+    @Test
+    public void testUpdatesPushed() throws Exception {
+        RESTCloudSite cs = startCloudSite(true);
+        cs.subscribe();
+        awaitCost(cs, 5);
+        assertTrue(cs.isStreaming());
+        assertEquals("DC", cs.getDefinition().getLocationCode());
+
+        // A cost change is noticed without enquiring
+        admissionController.cost = 7;
+        awaitCost(cs, 7);
+
+        // Repeat users need no call - the cost is pushed
+        enquire(cs, "e1");
+        admissionController.enquiredTokens.clear();
+        admissionController.cost = 9;
+        awaitCost(cs, 9);
+        List<EPUserRequest> repeat = enquire(cs, "e1");
+        assertTrue(admissionController.enquiredTokens.isEmpty());
+        assertEquals(0, admissionController.costCalls);
+        assertEquals(9, repeat.get(0).getViableCloudSiteResponses().get(0).getCostEstimation(), 0);
+        cs.close();
+    }
+
+    @Test
+    public void testMalformedUpdateSkipped() throws Exception {
+        RESTCloudSite cs = startCloudSite(true);
+        cs.subscribe();
+        awaitCost(cs, 5);
+
+        // The stream goes on after the malformed update
+        admissionController.malformedUpdate.set(true);
+        awaitTrue(() -> !admissionController.malformedUpdate.get());
+        admissionController.cost = 7;
+        awaitCost(cs, 7);
+        assertTrue(cs.isStreaming());
+        cs.close();
+    }
+
+    @Test
+    public void testChangedDefinitionDropsEligibilityCache() throws Exception {
+        RESTCloudSite cs = startCloudSite(true);
+        cs.subscribe();
+        awaitCost(cs, 5);
+        enquire(cs, "e1");
+
+        // The data centre has moved - the users' eligibility may have changed
+        admissionController.enquiredTokens.clear();
+        admissionController.locationCode = "DC2";
+        awaitTrue(() -> "DC2".equals(cs.getDefinition().getLocationCode()));
+        enquire(cs, "e1");
+        assertEquals(Arrays.asList("e1"), admissionController.enquiredTokens);
+        cs.close();
+    }
+
+    @Test
+    public void testHedgedCall() throws Exception {
+        RESTCloudSite cs = startCloudSite(false, 0.9, 50);
+        // Learn the response times of the admission controller
+        for (int i = 0; i < 20; i++) {
+            enquire(cs, "e" + i);
+        }
+        assertEquals(0, cs.getHedgedEnquiries());
+
+        // The first call is held up - the duplicate answers first
+        admissionController.enquiredTokens.clear();
+        admissionController.slowEnquiry.set(true);
+        long start = System.currentTimeMillis();
+        List<EPUserRequest> hedged = enquire(cs, "e1");
+        assertTrue(System.currentTimeMillis() - start < 2000);
+        assertEquals(1, cs.getHedgedEnquiries());
+        assertEquals(Arrays.asList("e1", "e1"), admissionController.enquiredTokens);
+        assertTrue(hedged.get(0).isProcessed());
+        assertEquals(5, hedged.get(0).getViableCloudSiteResponses().get(0).getCostEstimation(), 0);
+
+        // The late answer of the first call is ignored
+        admissionController.releaseSlowEnquiry.countDown();
+        sleep(200);
+        assertEquals(1, hedged.get(0).getViableCloudSiteResponses().size());
+        assertEquals(5, hedged.get(0).getViableCloudSiteResponses().get(0).getCostEstimation(), 0);
+        cs.close();
+    }
+
+    @Test
+    public void testHedgedCallFallsBackToGet() throws Exception {
+        // Hedge late enough, for the rejected call to be retried first
+        RESTCloudSite cs = startCloudSite(false, 0.9, 1000);
+        for (int i = 0; i < 20; i++) {
+            enquire(cs, "e" + i);
+        }
+
+        // The admission controller is replaced by an older one
+        admissionController.enquiredTokens.clear();
+        admissionController.batchService = false;
+        List<EPUserRequest> requests = enquire(cs, "e1", "n1");
+        assertEquals(Arrays.asList("e1", "n1"), admissionController.enquiredTokens);
+        assertEquals(5, requests.get(0).getViableCloudSiteResponses().get(0).getCostEstimation(), 0);
+        assertTrue(requests.get(1).isProcessed());
+        assertTrue(requests.get(1).getViableCloudSiteResponses().isEmpty());
+
+        // The GET service is used from now on
+        admissionController.enquiredTokens.clear();
+        requests = enquire(cs, "e2");
+        assertEquals(Arrays.asList("e2"), admissionController.enquiredTokens);
+        assertTrue(requests.get(0).isProcessed());
+        cs.close();
+    }
+
+    private static void awaitTrue(final BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    private static void awaitCost(final RESTCloudSite cs, final double cost) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (cs.getCostEstimation() != cost && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(cost, cs.getCostEstimation(), 0);
+    }
+
+    private RESTCloudSite startCloudSite(final boolean costService) throws Exception {
+        startAdmissionController(costService);
+        return new RESTCloudSite("CS1", "http://127.0.0.1:" + port(), "127.0.0.1", 5000, 5000, 0, 0,
+                IRESTTransport.JDK, 60_000, 0);
+    }
+
+    /** Starts a cloud site, which hedges the enquiries and does not cache the eligibility. */
+    private RESTCloudSite startCloudSite(final boolean costService, final double hedgePercentile,
+            final long minHedgeDelayMillis) throws Exception {
+        startAdmissionController(costService);
+        return new RESTCloudSite("CS1", "http://127.0.0.1:" + port(), "127.0.0.1", 5000, 5000, hedgePercentile,
+                minHedgeDelayMillis, IRESTTransport.JDK, 0, 0);
+    }
+
+    private void startAdmissionController(final boolean costService) throws Exception {
+        admissionController = new FakeAdmissionController(costService);
+        server = new Server(0);
+        server.setHandler(admissionController);
+        server.start();
+    }
+
+    private int port() {
+        return ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+    }
+
+    private static List<EPUserRequest> enquire(final CloudSite cs, final String... userTokens) {
+        List<EPUserRequest> requests = new ArrayList<>();
+        for (String userToken : userTokens) {
+            EPUserRequest req = new EPUserRequest("127.0.0.0", userToken);
+            req.setCloudSites(Arrays.asList(cs));
+            requests.add(req);
+        }
+        cs.enquire(requests);
+        return requests;
+    }
+
+    /**
+     * Admits the users, whose tokens start with "e". Records the enquiries,
+     * which can be rejected if batched, as older admission controllers do.
+     * Streams the cost every few millis. If requested, holds up an enquiry
+     * until released, and then answers it with a different cost, or streams
+     * a malformed update.
+     */
+    private static class FakeAdmissionController extends AbstractHandler {
+        private final boolean costService;
+        private volatile boolean running = true;
+        private final List<String> enquiredTokens = Collections.synchronizedList(new ArrayList<>());
+        private volatile double cost = 5;
+        private volatile String locationCode = "DC";
+        private final AtomicBoolean malformedUpdate = new AtomicBoolean(false);
+        private volatile int costCalls = 0;
+        private volatile boolean batchService = true;
+        private final AtomicBoolean slowEnquiry = new AtomicBoolean(false);
+        private final CountDownLatch releaseSlowEnquiry = new CountDownLatch(1);
+
+        FakeAdmissionController(final boolean costService) {
+            this.costService = costService;
+        }
+
+        @Override
+        public void handle(final String target, final Request baseRequest, final HttpServletRequest request,
+                final HttpServletResponse response) throws IOException {
+            baseRequest.setHandled(true);
+            if (target.equals(AC_PATH + AC_DC_DEF_PATH)) {
+                response.setContentType("application/json");
+                response.getWriter().write(Jsons.toJson(update().getDefinition()));
+            } else if (target.equals(AC_PATH + AC_SERVICE_PATH) && "POST".equals(request.getMethod()) && !batchService) {
+                response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+            } else if (target.equals(AC_PATH + AC_SERVICE_PATH)) {
+                String[] userTokens = "GET".equals(request.getMethod()) ? request.getParameterValues(USER_TOKENS_PARAM) :
+                        Jsons.fromJson(request.getInputStream(), String[].class);
+                for (String userToken : userTokens) {
+                    enquiredTokens.add(userToken);
+                }
+                double enquiryCost = cost;
+                if (slowEnquiry.compareAndSet(true, false)) {
+                    await(releaseSlowEnquiry);
+                    enquiryCost = 100;
+                }
+                List<AdmissionControllerResponse> responses = new ArrayList<>();
+                for (String userToken : userTokens) {
+                    boolean eligible = userToken.startsWith("e");
+                    responses.add(new AdmissionControllerResponse(userToken, eligible, eligible ? enquiryCost : Double.NaN));
+                }
+                response.setContentType("application/json");
+                response.getWriter().write(Jsons.toJson(responses.toArray(new AdmissionControllerResponse[0]),
+                        AdmissionControllerResponse[].class));
+            } else if (costService && target.equals(AC_PATH + AC_UPDATES_PATH)) {
+                response.setContentType("application/json");
+                while (running) {
+                    if (malformedUpdate.compareAndSet(true, false)) {
+                        response.getWriter().write("{\"costEstimation\": [" + AC_UPDATES_DELIMITER);
+                    }
+                    response.getWriter().write(Jsons.toJson(update()) + AC_UPDATES_DELIMITER);
+                    response.flushBuffer();
+                    sleep(20);
+                }
+            } else if (costService && target.equals(AC_PATH + AC_COST_PATH)) {
+                costCalls++;
+                response.setContentType("text/plain");
+                response.getWriter().write(String.valueOf(cost));
+            } else {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            }
+        }
+
+        private static void await(final CountDownLatch latch) {
+            try {
+                latch.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private AdmissionControllerUpdate update() {
+            return new AdmissionControllerUpdate(cost, new DataCentre(locationCode, "P", Collections.emptySet(), cost));
+        }
+    }
+}
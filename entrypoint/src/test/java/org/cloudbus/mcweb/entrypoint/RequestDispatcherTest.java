@@ -0,0 +1,113 @@
+package org.cloudbus.mcweb.entrypoint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class RequestDispatcherTest {
+
+    private static final String SLOW_USER = "slow-user";
+
+    private final CountDownLatch releaseSlowBatch = new CountDownLatch(1);
+    private final ExecutorService pool = Executors.newCachedThreadPool();
+
+    /** Answers immediately, except for the batches with {@link #SLOW_USER}. */
+    private final CloudSite slowCloudSite = new CloudSite("Slow", "http://localhost:8080", "http://localhost:8080") {
+        @Override
+        public void enquire(final List<EPUserRequest> requests) {
+            for (EPUserRequest req : requests) {
+                if (req.getUserToken().equals(SLOW_USER)) {
+                    try {
+                        releaseSlowBatch.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+            super.enquire(requests);
+        }
+    };
+    private final CloudSite fastCloudSite = new CloudSite("Fast", "http://localhost:8081", "http://localhost:8081");
+    private final List<CloudSite> cloudSites = Arrays.asList(slowCloudSite, fastCloudSite);
+
+    @After
+    public void tearDown() {
+        releaseSlowBatch.countDown();
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void testSlowCloudSiteDoesNotHoldUpLaterBatches() throws Exception {
+        try (RequestDispatcher dispatcher = new RequestDispatcher(cloudSites, pool, 1, 5, 15_000, false, 15_000, null)) {
+            EPUserRequest slowReq = request(SLOW_USER);
+            dispatcher.submit(slowReq);
+
+            // Each of them in its own batch, behind the slow one
+            List<EPUserRequest> fastReqs = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                EPUserRequest req = request("user-" + i);
+                fastReqs.add(req);
+                dispatcher.submit(req);
+            }
+            for (EPUserRequest req : fastReqs) {
+                req.getCompletion().get(2, TimeUnit.SECONDS);
+                assertTrue(req.isProcessed());
+            }
+            assertEquals(fastReqs.size() + 1, dispatcher.getStatistics().getBatchCount());
+            assertFalse(slowReq.getCompletion().isDone());
+
+            releaseSlowBatch.countDown();
+            slowReq.getCompletion().get(2, TimeUnit.SECONDS);
+            assertTrue(slowReq.isProcessed());
+        }
+    }
+
+    @Test
+    public void testBatchesDoNotStarveBoundedPool() throws Exception {
+        // A waiting batch would take the only thread, and its enquiries would time out
+        ExecutorService singleThreadPool = Executors.newFixedThreadPool(1);
+        try (RequestDispatcher dispatcher = new RequestDispatcher(cloudSites, singleThreadPool, 1, 5, 15_000, false, 15_000, null)) {
+            for (int i = 0; i < 3; i++) {
+                EPUserRequest req = request("user-" + i);
+                dispatcher.submit(req);
+                req.getCompletion().get(2, TimeUnit.SECONDS);
+            }
+        } finally {
+            singleThreadPool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testIncrementalBatchReleasedWhenPoolRejects() throws Exception {
+        ExecutorService shutDownPool = Executors.newCachedThreadPool();
+        shutDownPool.shutdown();
+        List<CloudSite> sites = Arrays.asList(fastCloudSite);
+        try (RequestDispatcher dispatcher = new RequestDispatcher(sites, shutDownPool, 1, 5, 15_000, true, 15_000, null)) {
+            // Released long before the budget, and the dispatcher keeps running
+            for (int i = 0; i < 2; i++) {
+                EPUserRequest req = new EPUserRequest("127.0.0.1", "user-" + i);
+                req.setCloudSites(sites);
+                dispatcher.submit(req);
+                req.getCompletion().get(2, TimeUnit.SECONDS);
+            }
+            assertEquals(2, dispatcher.getStatistics().getBatchCount());
+        }
+    }
+
+    private EPUserRequest request(final String token) {
+        EPUserRequest req = new EPUserRequest("127.0.0.1", token);
+        req.setCloudSites(cloudSites);
+        return req;
+    }
+}
@@ -0,0 +1,115 @@
+package org.cloudbus.mcweb.entrypoint;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.google.common.base.Ticker;
+
+public class RotatingBloomFilterTest {
+
+    private final AtomicLong nanos = new AtomicLong(0);
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+    };
+
+    @Test
+    public void testAddOnce() {
+        RotatingBloomFilter filter = new RotatingBloomFilter(1000, 0.01, 1000, ticker);
+        assertFalse(filter.mightContain("10.0.0.1"));
+        assertTrue(filter.add("10.0.0.1"));
+        assertFalse(filter.add("10.0.0.1"));
+        assertTrue(filter.mightContain("10.0.0.1"));
+        assertTrue(filter.add("10.0.0.2"));
+    }
+
+    @Test
+    public void testForgetsAfterTwoWindows() {
+        RotatingBloomFilter filter = new RotatingBloomFilter(1000, 0.01, 1000, ticker);
+        filter.add("10.0.0.1");
+
+        // Still in the previous generation
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+        assertFalse(filter.add("10.0.0.1"));
+
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+        assertFalse(filter.mightContain("10.0.0.1"));
+        assertTrue(filter.add("10.0.0.1"));
+    }
+
+    @Test
+    public void testBoundedMemory() {
+        RotatingBloomFilter filter = new RotatingBloomFilter(10_000, 0.01, TimeUnit.DAYS.toMillis(1), ticker);
+        long size = filter.getSizeInBytes();
+
+        // Many more addresses than the capacity - the generations rotate
+        for (int i = 0; i < 1_000_000; i++) {
+            filter.add(address(i));
+        }
+        assertTrue(size < 64 * 1024);
+
+        // The most recent ones are remembered
+        for (int i = 1_000_000 - 100; i < 1_000_000; i++) {
+            assertTrue(filter.mightContain(address(i)));
+        }
+    }
+
+    @Test
+    public void testRotatesWhenFull() {
+        // The window never ends - only the capacity rotates the generations
+        RotatingBloomFilter filter = new RotatingBloomFilter(1000, 0.01, TimeUnit.DAYS.toMillis(1), ticker);
+        addAll(filter, 0, 2000);
+        // The first rotation has moved the first thousand to the previous generation
+        assertEquals(2000, countContained(filter, 0, 2000));
+
+        // The second rotation clears the first generation
+        addAll(filter, 2000, 3000);
+        assertTrue(countContained(filter, 0, 1000) < 50);
+        assertEquals(1000, countContained(filter, 2000, 3000));
+        // Except for the few, which had filled up the first generation, or
+        // were found in it and not added again
+        assertTrue(countContained(filter, 1000, 2000) > 950);
+        assertTrue(filter.add(address(0)));
+    }
+
+    @Test
+    public void testFalsePositiveRate() {
+        RotatingBloomFilter filter = new RotatingBloomFilter(10_000, 0.01, TimeUnit.DAYS.toMillis(1), ticker);
+        for (int i = 0; i < 10_000; i++) {
+            filter.add(address(i));
+        }
+        int falsePositives = 0;
+        for (int i = 10_000; i < 110_000; i++) {
+            if (filter.mightContain(address(i))) {
+                falsePositives++;
+            }
+        }
+        assertTrue("False positives: " + falsePositives, falsePositives < 1_000);
+    }
+
+    private static void addAll(final RotatingBloomFilter filter, final int from, final int to) {
+        for (int i = from; i < to; i++) {
+            filter.add(address(i));
+        }
+    }
+
+    private static int countContained(final RotatingBloomFilter filter, final int from, final int to) {
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (filter.mightContain(address(i))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static String address(final int i) {
+        return (i >>> 24 & 0xFF) + "." + (i >>> 16 & 0xFF) + "." + (i >>> 8 & 0xFF) + "." + (i & 0xFF);
+    }
+}
@@ -0,0 +1,127 @@
+package org.cloudbus.mcweb.entrypoint;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.Logger;
+
+import org.cloudbus.cloudsim.ex.geolocation.geoip2.LookUpGeoLocationService;
+import org.cloudbus.mcweb.util.ThreadPools;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Compares the platform and the virtual thread modes (see
+ * {@link ThreadPools#VIRTUAL_THREADS_PROP}) of the entry point. Simulates
+ * many concurrent users, each of which blocks a thread while its request is
+ * being served - as a blocking servlet would. Reports the peak number of
+ * platform threads and the throughput.
+ *
+ * <br>
+ * <br>
+ *
+ * Usage: java ... VirtualThreadsBenchmark [users] [cloud site delay millis]
+ *
+ * <br>
+ * <br>
+ *
+ * The virtual mode is only measured on Java 21+.
+ *
+ * @author nikolay.grozev
+ *
+ */
+public class VirtualThreadsBenchmark {
+
+    static {
+        // Do not measure the logging of every request
+        Logger log = LogManager.getLogManager().getLogger("");
+        for (Handler h : log.getHandlers()) {
+            h.setLevel(Level.SEVERE);
+        }
+    }
+
+    private static final String CLOUDSITES = "Name;AdmissionControllerAddress;LoadBalancerAddress\n"
+            + "AWS1;127.0.0.1;127.0.0.1\n"
+            + "AWS2;127.0.0.2;127.0.0.2\n"
+            + "AWS3;127.0.0.3;127.0.0.3\n"
+            + "AWS4;127.0.0.4;127.0.0.4";
+
+    private static final String CONFIG = "latenctSLA=40\n"
+            + "periodBetweenBatchUserDispatch=200\n"
+            + "maxBatchSize=1000\n"
+            + "maxBatchLinger=200\n"
+            + "cloudSiteResponseTimeout=15000\n"
+            + "maxRequestPeriod=600000";
+
+    public static void main(final String[] args) throws Exception {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        long siteDelay = args.length > 1 ? Long.parseLong(args[1]) : 100;
+
+        System.out.printf("Users: %d, Cloud site delay: %d ms, Java: %s%n", users, siteDelay,
+                System.getProperty("java.version"));
+        System.out.printf("%-10s %15s %15s %15s%n", "Mode", "Peak threads", "Time (ms)", "Users/sec");
+
+        run("platform", false, users, siteDelay);
+        if (ThreadPools.isVirtualThreadsSupported()) {
+            run("virtual", true, users, siteDelay);
+        } else {
+            System.out.printf("%-10s %s%n", "virtual", "not supported by this JVM");
+        }
+    }
+
+    private static void run(final String mode, final boolean virtual, final int users, final long siteDelay)
+            throws Exception {
+        System.setProperty(ThreadPools.VIRTUAL_THREADS_PROP, String.valueOf(virtual));
+
+        try (EntryPoint ep = EntryPoint.getInstance()) {
+            ep.configure(stream(CLOUDSITES), stream(CONFIG),
+                    new PredefinedCostCloudSite.PredefinedCostCloudSiteFactory(
+                            Arrays.asList(null, null, null, null),
+                            Arrays.asList(20d, 30d, 19d, 50d),
+                            Arrays.asList(siteDelay, siteDelay, siteDelay, siteDelay)),
+                    new LookUpGeoLocationService(null, ImmutableMap.of(), null));
+
+            // Each user occupies a thread, as it would in a blocking servlet
+            ExecutorService userThreads = ThreadPools.newCachedThreadPool();
+            CountDownLatch done = new CountDownLatch(users);
+            AtomicInteger served = new AtomicInteger(0);
+
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            threads.resetPeakThreadCount();
+            long start = System.nanoTime();
+            for (int i = 0; i < users; i++) {
+                EPUserRequest req = new EPUserRequest("127.0." + (i / 256 % 256) + "." + (i % 256), "user" + i);
+                userThreads.execute(() -> {
+                    try {
+                        ep.request(req);
+                        if (req.selectCloudSite() != null) {
+                            served.incrementAndGet();
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                });
+            }
+            done.await();
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            userThreads.shutdown();
+
+            System.out.printf("%-10s %15d %15d %15.1f%s%n", mode, threads.getPeakThreadCount(), millis,
+                    users * 1000.0 / Math.max(millis, 1),
+                    served.get() == users ? "" : String.format(" (served only %d)", served.get()));
+        }
+    }
+
+    private static ByteArrayInputStream stream(final String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -1,6 +1,7 @@
 package org.cloudbus.mcweb.experimentclient;
 
 
+import static org.cloudbus.mcweb.util.Configs.EP_LATENCY_PATH;
 import static org.cloudbus.mcweb.util.Configs.EP_PATH;
 import static org.cloudbus.mcweb.util.Configs.SERVICE_PATH;
 
@@ -27,6 +28,7 @@ import java.util.logging.Logger;
 
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.MediaType;
 
@@ -234,6 +236,29 @@ public class Main {
                 response.getDefinition() == null ? "null" : response.getDefinition().getCost()
         );
         //writer.flush();
+
+        // Ping the selected cloud site, and report the latency to the entry
+        // point - it learns from the measurements of the clients
+        if (response.getSelectedCloudSiteCode() != null && response.getRedirectAddress() != null) {
+            reportLatency(entryPointAddress, response.getSelectedCloudSiteCode(), response.getRedirectAddress());
+        }
+    }
+
+    private static void reportLatency(final String entryPointAddress, final String cloudSiteCode,
+            final String redirectAddress) {
+        try {
+            long latency = performPing(redirectAddress);
+            client.target(entryPointAddress)
+                    .path(EP_PATH)
+                    .path(EP_LATENCY_PATH)
+                    .path(cloudSiteCode)
+                    .path(String.valueOf(latency))
+                    .request()
+                    .post(Entity.text(""))
+                    .close();
+        } catch (Exception e) {
+            LOG.log(Level.FINE, "Could not report the latency to " + cloudSiteCode, e);
+        }
     }
 
 	private static Long performPing(final String pingAddress) {
@@ -0,0 +1,226 @@
+package org.cloudbus.mcweb;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.cloudbus.mcweb.util.Jsons.ChunkConsumer;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A compact binary codec for batches of {@link AdmissionControllerResponse}
+ * -s, used instead of json between the entry point and the admission
+ * controllers (see {@link org.cloudbus.mcweb.util.Configs#AC_BINARY_MEDIA_TYPE}).
+ *
+ * <br>
+ * <br>
+ *
+ * The stream starts with a header (magic byte and version), followed by
+ * chunks, terminated by an empty chunk. Thus, the responses can be written
+ * while they are computed. Each chunk consists of:
+ * <ul>
+ * <li>the number of responses in the chunk - a var int;</li>
+ * <li>the user tokens - each is a var int length, followed by UTF-8 bytes;</li>
+ * <li>the eligibility flags - a bit set of (n + 7) / 8 bytes;</li>
+ * <li>the cost estimations of the eligible users only - 8 bytes each.</li>
+ * </ul>
+ *
+ * @author nikolay.grozev
+ *
+ */
+public final class AdmissionControllerResponseCodec {
+
+    private static final int MAGIC = 'M';
+    private static final int VERSION = 1;
+    /** Sanity limit for the lengths read from the stream. */
+    private static final int MAX_LENGTH = 1 << 24;
+
+    /** Suppress instantiation. */
+    private AdmissionControllerResponseCodec() {
+    }
+
+    /**
+     * Writes the header of the stream. Must be called once before the chunks.
+     *
+     * @param out
+     *            - where to write. Must not be null.
+     * @throws IOException
+     *             - if writing fails.
+     */
+    public static void writeHeader(final DataOutputStream out) throws IOException {
+        Preconditions.checkNotNull(out);
+        out.writeByte(MAGIC);
+        out.writeByte(VERSION);
+    }
+
+    /**
+     * Writes a chunk of responses. Empty chunks are ignored.
+     *
+     * @param responses
+     *            - the responses. Must not be null.
+     * @param out
+     *            - where to write. Must not be null.
+     * @throws IOException
+     *             - if writing fails.
+     */
+    public static void writeChunk(final List<AdmissionControllerResponse> responses, final DataOutputStream out)
+            throws IOException {
+        Preconditions.checkNotNull(responses);
+        Preconditions.checkNotNull(out);
+        if (responses.isEmpty()) {
+            return;
+        }
+
+        int n = responses.size();
+        writeVarInt(n, out);
+        for (AdmissionControllerResponse response : responses) {
+            byte[] token = response.getUserToken().getBytes(StandardCharsets.UTF_8);
+            writeVarInt(token.length, out);
+            out.write(token);
+        }
+
+        byte[] eligible = new byte[(n + 7) / 8];
+        for (int i = 0; i < n; i++) {
+            if (responses.get(i).isEligible()) {
+                eligible[i / 8] |= 1 << (i % 8);
+            }
+        }
+        out.write(eligible);
+
+        for (AdmissionControllerResponse response : responses) {
+            if (response.isEligible()) {
+                out.writeDouble(response.getCostEstimation());
+            }
+        }
+    }
+
+    /**
+     * Writes the end of the stream.
+     *
+     * @param out
+     *            - where to write. Must not be null.
+     * @throws IOException
+     *             - if writing fails.
+     */
+    public static void writeEnd(final DataOutputStream out) throws IOException {
+        Preconditions.checkNotNull(out);
+        writeVarInt(0, out);
+    }
+
+    /**
+     * Writes all responses as a complete stream - header, a single chunk and
+     * the end.
+     *
+     * @param responses
+     *            - the responses. Must not be null.
+     * @param out
+     *            - where to write. Must not be null.
+     * @throws IOException
+     *             - if writing fails.
+     */
+    public static void write(final List<AdmissionControllerResponse> responses, final OutputStream out)
+            throws IOException {
+        DataOutputStream dataOut = new DataOutputStream(out);
+        writeHeader(dataOut);
+        writeChunk(responses, dataOut);
+        writeEnd(dataOut);
+        dataOut.flush();
+    }
+
+    /**
+     * Reads a complete stream of responses.
+     *
+     * @param in
+     *            - what to read. Must not be null.
+     * @return the read responses.
+     * @throws IOException
+     *             - if reading fails or the stream is malformed.
+     */
+    public static AdmissionControllerResponse[] read(final InputStream in) throws IOException {
+        List<AdmissionControllerResponse> result = new ArrayList<>();
+        read(in, result::addAll);
+        return result.toArray(new AdmissionControllerResponse[result.size()]);
+    }
+
+    /**
+     * Reads a complete stream of responses and passes them to the consumer
+     * chunk by chunk, as they are decoded. Thus, the responses can be
+     * processed before the whole stream has been received.
+     *
+     * @param in
+     *            - what to read. Must not be null.
+     * @param consumer
+     *            - consumes the decoded chunks. Must not be null.
+     * @throws IOException
+     *             - if reading fails, the stream is malformed or the consumer
+     *             fails.
+     */
+    public static void read(final InputStream in, final ChunkConsumer<AdmissionControllerResponse> consumer)
+            throws IOException {
+        Preconditions.checkNotNull(in);
+        Preconditions.checkNotNull(consumer);
+        DataInputStream dataIn = new DataInputStream(in);
+        if (dataIn.readUnsignedByte() != MAGIC || dataIn.readUnsignedByte() != VERSION) {
+            throw new IOException("Not a stream of admission controller responses");
+        }
+
+        int n;
+        while ((n = readVarInt(dataIn)) > 0) {
+            String[] tokens = new String[n];
+            for (int i = 0; i < n; i++) {
+                byte[] token = new byte[readVarInt(dataIn)];
+                dataIn.readFully(token);
+                tokens[i] = new String(token, StandardCharsets.UTF_8);
+            }
+
+            byte[] eligible = new byte[(n + 7) / 8];
+            dataIn.readFully(eligible);
+
+            List<AdmissionControllerResponse> chunk = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                boolean isEligible = (eligible[i / 8] & (1 << (i % 8))) != 0;
+                double cost = isEligible ? dataIn.readDouble() : Double.NaN;
+                try {
+                    chunk.add(new AdmissionControllerResponse(tokens[i], isEligible, cost));
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Invalid response for " + tokens[i], e);
+                }
+            }
+            consumer.accept(chunk);
+        }
+    }
+
+    private static void writeVarInt(final int value, final DataOutputStream out) throws IOException {
+        int v = value;
+        while ((v & ~0x7F) != 0) {
+            out.writeByte((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte(v);
+    }
+
+    private static int readVarInt(final DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0 || value > MAX_LENGTH) {
+                    throw new IOException("Invalid length " + value);
+                }
+                return value;
+            }
+        }
+        throw new IOException("Malformed var int");
+    }
+}
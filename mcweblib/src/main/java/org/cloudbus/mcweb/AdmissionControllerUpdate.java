@@ -0,0 +1,61 @@
+package org.cloudbus.mcweb;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+
+/**
+ * The state of an admission controller, pushed to the subscribed entry points
+ * whenever it changes - the cost estimation for an eligible user and the
+ * definition of the data centre.
+ *
+ * @author nikolay.grozev
+ *
+ */
+public class AdmissionControllerUpdate {
+
+    private final double costEstimation;
+    private final DataCentre definition;
+
+    /**
+     * Constr.
+     *
+     * @param costEstimation
+     *            - an estimation of the cost for serving an eligible user.
+     *            Must not be negative.
+     * @param definition
+     *            - the definition of the data centre. Must not be null.
+     */
+    public AdmissionControllerUpdate(final double costEstimation, final DataCentre definition) {
+        Preconditions.checkArgument(costEstimation >= 0);
+        Preconditions.checkNotNull(definition);
+
+        this.costEstimation = costEstimation;
+        this.definition = definition;
+    }
+
+    /**
+     * Returns an estimation of the cost for serving an eligible user.
+     *
+     * @return an estimation of the cost for serving an eligible user.
+     */
+    public double getCostEstimation() {
+        return costEstimation;
+    }
+
+    /**
+     * Returns the definition of the data centre.
+     *
+     * @return the definition of the data centre.
+     */
+    public DataCentre getDefinition() {
+        return definition;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(getClass())
+                .add("Cost est", this.getCostEstimation())
+                .add("Definition", this.getDefinition())
+                .toString();
+    }
+}
@@ -7,11 +7,11 @@ import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.cloudbus.mcweb.util.Closeables;
+import org.cloudbus.mcweb.util.ThreadPools;
 
 import com.google.common.base.Preconditions;
 
@@ -34,7 +34,7 @@ public class ServerFarm implements AutoCloseable {
     private double latestCostEstimation = 0;
 
     /** ThreadPool for connecting fetching VM utilisations. */
-    private final ExecutorService cloudSitesThreadPool = Executors.newCachedThreadPool();
+    private final ExecutorService cloudSitesThreadPool = ThreadPools.newCachedThreadPool();
     /** Period between VM utilisation fetching in millis. Must be positive. */
     private final long periodBetweenVMUtilFetching;
     
@@ -42,12 +42,27 @@ public final class Configs {
 
     public static final String EP_SERVICE_PATH = SERVICE_PATH + 
             "/{" + USER_TOKEN_PARAM + "}";
+    public static final String CLOUD_SITE_PARAM = "cs";
+    public static final String LATENCY_PARAM = "latency";
+    /** Path, where the clients report the latencies they measured to the cloud sites. */
+    public static final String EP_LATENCY_PATH = "/latency";
+    public static final String EP_LATENCY_REPORT_PATH = EP_LATENCY_PATH + 
+            "/{" + CLOUD_SITE_PARAM + "}/" +
+            "{" + LATENCY_PARAM + "}";
 
     public static final int DEFAULT_AC_PORT = DEFAULT_EP_PORT + 1;
     public static final String AC_PATH = "/admission-control";
     public static final String USER_TOKENS_PARAM = "uts";
     public static final String AC_SERVICE_PATH = SERVICE_PATH;
     public static final String AC_DC_DEF_PATH = "/definition";
+    /** Path of the cost estimation for an eligible user - without enquiring about any user. */
+    public static final String AC_COST_PATH = "/cost";
+    /** Path of the stream of AdmissionControllerUpdate-s, pushed whenever the cost or the definition changes. */
+    public static final String AC_UPDATES_PATH = "/updates";
+    /** Separates the json updates in the stream. */
+    public static final String AC_UPDATES_DELIMITER = "\r\n";
+    /** Media type of the compact binary enquiry responses. See AdmissionControllerResponseCodec. */
+    public static final String AC_BINARY_MEDIA_TYPE = "application/x-mcweb-ac-responses";
     
     /* --- CSV constants --- */
     /** The separator in the csv file. */
@@ -1,14 +1,20 @@
 package org.cloudbus.mcweb.util;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.google.common.base.Preconditions;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 
 /**
  * A utility class for working with Json. It wraps the Gson library.
@@ -109,6 +115,94 @@ public class Jsons {
         }
     } 
     
+    /**
+     * Serialises to Json as the next value of the stream writer. Useful for
+     * writing large arrays element by element.
+     * 
+     * @param src
+     *            - the object to serialise. Must not be null.
+     * @param class
+     *            - the class to serialise to. Must not be null.
+     * @param writer
+     *            - where to write the results to. Must not be null.
+     */
+    public static <T> void toJson(final T src, final Class<T> clazz, final JsonWriter writer) {
+        Preconditions.checkNotNull(src);
+        Preconditions.checkNotNull(clazz);
+        Preconditions.checkNotNull(writer);
+        try{
+            GSON.toJson(src, clazz, writer);
+        }catch (RuntimeException re) {
+            LOG.log(Level.SEVERE, String.format("Can not convert json:\"%s\"", src), re);
+            throw new RuntimeException(re);
+        }
+    }
+
+    /**
+     * Reads a Json array element by element and passes the elements to the
+     * consumer in chunks. Thus, arbitrarily large arrays can be processed in
+     * linear time and memory bounded by the chunk size.
+     * 
+     * @param json
+     *            - the json reader. Must not be null. Must contain an array.
+     * @param clazz
+     *            - the expected type of the elements. Must not be null.
+     * @param chunkSize
+     *            - the max number of elements passed to the consumer at once.
+     *            Must be positive.
+     * @param consumer
+     *            - consumes the non-empty chunks. Must not be null.
+     * @throws IOException
+     *             - if the reader or the consumer fail.
+     */
+    public static <T> void readArray(final Reader json, final Class<T> clazz, final int chunkSize,
+            final ChunkConsumer<T> consumer) throws IOException {
+        Preconditions.checkNotNull(json);
+        Preconditions.checkNotNull(clazz);
+        Preconditions.checkArgument(chunkSize > 0);
+        Preconditions.checkNotNull(consumer);
+
+        JsonReader reader = new JsonReader(json);
+        List<T> chunk = new ArrayList<>(Math.min(chunkSize, 1024));
+        try {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                chunk.add(GSON.fromJson(reader, clazz));
+                if (chunk.size() >= chunkSize) {
+                    consumer.accept(chunk);
+                    chunk = new ArrayList<>(chunk.size());
+                }
+            }
+            reader.endArray();
+        } catch (JsonParseException | IllegalStateException e) {
+            LOG.log(Level.SEVERE, "Can not parse json array", e);
+            throw new IOException(e);
+        }
+        if (!chunk.isEmpty()) {
+            consumer.accept(chunk);
+        }
+    }
+
+    /**
+     * Consumes the chunks of an array, read by
+     * {@link Jsons#readArray(Reader, Class, int, ChunkConsumer)}.
+     *
+     * @param <T>
+     *            - the type of the elements.
+     */
+    @FunctionalInterface
+    public static interface ChunkConsumer<T> {
+        /**
+         * Consumes a chunk of elements.
+         * 
+         * @param chunk
+         *            - the chunk. Not empty.
+         * @throws IOException
+         *             - if the chunk can not be processed.
+         */
+        void accept(List<T> chunk) throws IOException;
+    }
+
     /**
      * Loads an object from Json.
      * 
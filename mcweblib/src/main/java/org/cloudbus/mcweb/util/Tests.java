@@ -1,6 +1,15 @@
 package org.cloudbus.mcweb.util;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.cloudbus.mcweb.User;
+
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 
 /**
  * Common utilities for unit tests.
@@ -10,9 +19,49 @@ import com.google.common.base.Preconditions;
  */
 public class Tests {
 
+    /**
+     * Codes of the generated users' citizenships - members of different
+     * jurisdictions, the jurisdictions themselves and unknown codes.
+     */
+    public static final List<String> CODES = ImmutableList.of("AT", "BG", "DE", "GB", "HR", "NO", "ISL", "LI", "CH",
+            "CA", "AR", "IL", "USA", "USA-AZ", "USA-WA", "USA-NY", "AU", "CN", "EU", "EUZ", "EEA", "EU-Adequate",
+            "US-EU-Safe-Harbor", "XX", "");
+    /** Tags of the generated users. */
+    public static final List<String> TAGS = ImmutableList.of("PCI-DSS", "US-GOV", "OTHER");
+
     private Tests() {
     }
 
+    /**
+     * Generates users with up to 3 random {@link #CODES} and random
+     * {@link #TAGS}. The ids are User-0, User-1 ...
+     * 
+     * @param random
+     *            - the source of randomness. Must not be null.
+     * @param count
+     *            - the number of users. Must not be negative.
+     * @return a modifiable list of the generated users.
+     */
+    public static List<User> randomUsers(final Random random, final int count) {
+        Preconditions.checkNotNull(random);
+        Preconditions.checkArgument(count >= 0);
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Set<String> citizenships = new HashSet<>();
+            for (int c = random.nextInt(4); c > 0; c--) {
+                citizenships.add(CODES.get(random.nextInt(CODES.size())));
+            }
+            Set<String> tags = new HashSet<>();
+            for (String tag : TAGS) {
+                if (random.nextBoolean()) {
+                    tags.add(tag);
+                }
+            }
+            users.add(new User("User-" + i, citizenships, tags));
+        }
+        return users;
+    }
+
     /**
      * Makes the current thread sleep, without throwing checked exceptions.
      * 
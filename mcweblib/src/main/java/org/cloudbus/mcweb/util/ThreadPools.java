@@ -0,0 +1,100 @@
+package org.cloudbus.mcweb.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Utilities for creating the thread pools of the services. If the
+ * {@link #VIRTUAL_THREADS_PROP} system property is set to true and the JVM
+ * supports virtual threads (Java 21+), the created pools start a new virtual
+ * thread per task. Otherwise standard cached thread pools are used.
+ *
+ * <br>
+ * <br>
+ *
+ * The code is compiled for Java 8, hence the virtual thread API is accessed
+ * reflectively.
+ *
+ * @author nikolay.grozev
+ *
+ */
+public final class ThreadPools {
+
+    /** Logger. */
+    private static final Logger LOG = Logger.getLogger(ThreadPools.class.getCanonicalName());
+
+    /** System property, which turns on the virtual threads. E.g. -Dmcweb.virtualThreads=true */
+    public static final String VIRTUAL_THREADS_PROP = "mcweb.virtualThreads";
+
+    /** The factory method of the virtual thread executors, or null if not supported. */
+    private static final Method VIRTUAL_THREAD_EXECUTOR_FACTORY = findVirtualThreadExecutorFactory();
+
+    /** Suppress instantiation. */
+    private ThreadPools() {
+    }
+
+    /**
+     * Returns if the JVM supports virtual threads.
+     *
+     * @return if the JVM supports virtual threads.
+     */
+    public static boolean isVirtualThreadsSupported() {
+        return VIRTUAL_THREAD_EXECUTOR_FACTORY != null;
+    }
+
+    /**
+     * Returns if virtual threads have been requested with the
+     * {@link #VIRTUAL_THREADS_PROP} system property and the JVM supports them.
+     *
+     * @return if the services should run on virtual threads.
+     */
+    public static boolean isVirtualThreadsEnabled() {
+        boolean requested = Boolean.getBoolean(VIRTUAL_THREADS_PROP);
+        if (requested && !isVirtualThreadsSupported()) {
+            LOG.log(Level.WARNING, "Virtual threads are not supported by Java {0}. Using platform threads.",
+                    System.getProperty("java.version"));
+        }
+        return requested && isVirtualThreadsSupported();
+    }
+
+    /**
+     * Creates a pool for short lived blocking tasks (e.g. I/O fan-out). If
+     * virtual threads are enabled, every task is run in a new virtual thread.
+     * Otherwise, a standard cached thread pool is returned.
+     *
+     * @return a new pool for short lived blocking tasks.
+     */
+    public static ExecutorService newCachedThreadPool() {
+        return isVirtualThreadsEnabled() ? newVirtualThreadPerTaskExecutor() : Executors.newCachedThreadPool();
+    }
+
+    /**
+     * Creates an executor, which runs every task in a new virtual thread.
+     *
+     * @return an executor, which runs every task in a new virtual thread.
+     * @throws UnsupportedOperationException
+     *             - if the JVM does not support virtual threads.
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        if (!isVirtualThreadsSupported()) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by Java "
+                    + System.getProperty("java.version"));
+        }
+        try {
+            return (ExecutorService) VIRTUAL_THREAD_EXECUTOR_FACTORY.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create a virtual thread executor", e);
+        }
+    }
+
+    private static Method findVirtualThreadExecutorFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package org.cloudbus.mcweb;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.cloudbus.mcweb.util.Jsons;
+import org.junit.Test;
+
+public class AdmissionControllerResponseCodecTest {
+
+    @Test
+    public void testRoundTripInChunks() throws IOException {
+        List<AdmissionControllerResponse> first = Arrays.asList(
+                new AdmissionControllerResponse("a", true, 0.5),
+                new AdmissionControllerResponse("b", false, Double.NaN),
+                new AdmissionControllerResponse("жетон", true, Double.MAX_VALUE));
+        List<AdmissionControllerResponse> second = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            second.add(new AdmissionControllerResponse("user-" + i, i % 3 == 0, i % 3 == 0 ? i : Double.NaN));
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        AdmissionControllerResponseCodec.writeHeader(out);
+        AdmissionControllerResponseCodec.writeChunk(first, out);
+        AdmissionControllerResponseCodec.writeChunk(new ArrayList<>(), out);
+        AdmissionControllerResponseCodec.writeChunk(second, out);
+        AdmissionControllerResponseCodec.writeEnd(out);
+
+        AdmissionControllerResponse[] responses = AdmissionControllerResponseCodec.read(new ByteArrayInputStream(bytes.toByteArray()));
+        List<AdmissionControllerResponse> expected = new ArrayList<>(first);
+        expected.addAll(second);
+        assertEquals(expected.size(), responses.length);
+        for (int i = 0; i < responses.length; i++) {
+            assertEquals(expected.get(i).getUserToken(), responses[i].getUserToken());
+            assertEquals(expected.get(i).isEligible(), responses[i].isEligible());
+            assertEquals(expected.get(i).getCostEstimation(), responses[i].getCostEstimation(), 0);
+        }
+    }
+
+    @Test
+    public void testReadChunkByChunk() throws IOException {
+        List<AdmissionControllerResponse> first = Arrays.asList(
+                new AdmissionControllerResponse("a", true, 0.5),
+                new AdmissionControllerResponse("b", false, Double.NaN));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        AdmissionControllerResponseCodec.writeHeader(out);
+        AdmissionControllerResponseCodec.writeChunk(first, out);
+        AdmissionControllerResponseCodec.writeChunk(Arrays.asList(new AdmissionControllerResponse("c", true, 1)), out);
+
+        // The chunks are consumed before the end of the stream is reached
+        List<List<AdmissionControllerResponse>> chunks = new ArrayList<>();
+        try {
+            AdmissionControllerResponseCodec.read(new ByteArrayInputStream(bytes.toByteArray()), chunks::add);
+            fail("Read a stream without an end");
+        } catch (IOException e) {
+            // Expected
+        }
+        assertEquals(2, chunks.size());
+        assertEquals(2, chunks.get(0).size());
+        assertEquals("b", chunks.get(0).get(1).getUserToken());
+        assertEquals("c", chunks.get(1).get(0).getUserToken());
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        AdmissionControllerResponseCodec.write(new ArrayList<>(), bytes);
+        assertEquals(0, AdmissionControllerResponseCodec.read(new ByteArrayInputStream(bytes.toByteArray())).length);
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadNotBinary() throws IOException {
+        AdmissionControllerResponseCodec.read(new ByteArrayInputStream("[]".getBytes()));
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadTruncated() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        AdmissionControllerResponseCodec.write(Arrays.asList(new AdmissionControllerResponse("a", true, 1)), bytes);
+        byte[] truncated = Arrays.copyOf(bytes.toByteArray(), bytes.size() - 3);
+        AdmissionControllerResponseCodec.read(new ByteArrayInputStream(truncated));
+    }
+
+    @Test
+    public void testSmallerThanJson() throws IOException {
+        List<AdmissionControllerResponse> responses = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            responses.add(new AdmissionControllerResponse("user-" + i, i % 2 == 0, i % 2 == 0 ? i / 10.0 : Double.NaN));
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        AdmissionControllerResponseCodec.write(responses, bytes);
+        String json = Jsons.toJson(responses.toArray(new AdmissionControllerResponse[responses.size()]), AdmissionControllerResponse[].class);
+        assertTrue(bytes.size() * 2 < json.length());
+    }
+}
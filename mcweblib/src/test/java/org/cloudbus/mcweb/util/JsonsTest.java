@@ -0,0 +1,55 @@
+package org.cloudbus.mcweb.util;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.cloudbus.mcweb.AdmissionControllerResponse;
+import org.junit.Test;
+
+import com.google.gson.stream.JsonWriter;
+
+public class JsonsTest {
+
+    @Test
+    public void testReadArrayInChunks() throws IOException {
+        List<List<String>> chunks = new ArrayList<>();
+        Jsons.readArray(new StringReader("[\"a\", \"b\", \"c\", \"d\", \"e\"]"), String.class, 2, chunks::add);
+        assertEquals(Arrays.asList(Arrays.asList("a", "b"), Arrays.asList("c", "d"), Arrays.asList("e")), chunks);
+    }
+
+    @Test
+    public void testReadEmptyArray() throws IOException {
+        List<List<String>> chunks = new ArrayList<>();
+        Jsons.readArray(new StringReader("[]"), String.class, 2, chunks::add);
+        assertTrue(chunks.isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadNotAnArray() throws IOException {
+        Jsons.readArray(new StringReader("{\"a\": 1}"), String.class, 2, c -> {});
+    }
+
+    @Test
+    public void testWriteArrayElementByElement() throws IOException {
+        StringWriter out = new StringWriter();
+        try (JsonWriter writer = new JsonWriter(out)) {
+            writer.beginArray();
+            Jsons.toJson(new AdmissionControllerResponse("a", true, 1), AdmissionControllerResponse.class, writer);
+            Jsons.toJson(new AdmissionControllerResponse("b", false, Double.NaN), AdmissionControllerResponse.class, writer);
+            writer.endArray();
+        }
+
+        AdmissionControllerResponse[] responses = Jsons.fromJson(out.toString(), AdmissionControllerResponse[].class);
+        assertEquals(2, responses.length);
+        assertEquals("a", responses[0].getUserToken());
+        assertTrue(responses[0].isEligible());
+        assertEquals("b", responses[1].getUserToken());
+        assertTrue(Double.isNaN(responses[1].getCostEstimation()));
+    }
+}